@@ -0,0 +1,250 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compares the {@link DumpLexer} with the character-by-character reading on a LineNumberReader the dump command used before.
+ * Both scan the data section of a dump of rows with the given number of columns (numbers and strings); the input is held in
+ * memory, so only the parsing is measured.
+ *
+ * It is not part of henplus.jar; 'ant bench' compiles and runs it, with the number of rows given by -Dbench.args.
+ *
+ * <pre>
+ *   java -cp build/classes:build/bench henplus.dump.DumpLexerBenchmark [rows]
+ *   java -cp build/classes:build/bench henplus.dump.DumpLexerBenchmark &lt;data-file&gt; &lt;number of columns&gt;
+ * </pre>
+ *
+ * The data file contains only the rows, as found in the '(data ..)' section of a dump.
+ */
+public final class DumpLexerBenchmark {
+
+    private static final int RUNS = 5;
+
+    private DumpLexerBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        char[] data;
+        int columns = 6;
+        if (args.length >= 2) {
+            data = readFile(new File(args[0]));
+            columns = Integer.parseInt(args[1]);
+        } else {
+            data = generate(args.length == 1 ? Integer.parseInt(args[0]) : 500000);
+        }
+        // first round warms up the JIT.
+        for (int run = 0; run <= RUNS; ++run) {
+            long start = System.nanoTime();
+            final long legacyRows = new LegacyReader(new LineNumberReader(new CharArrayReader(data))).scan(columns);
+            final long legacyTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            final long lexerRows = scan(new DumpLexer(new CharArrayReader(data)), columns);
+            final long lexerTime = System.nanoTime() - start;
+            if (legacyRows != lexerRows) {
+                throw new IllegalStateException("different number of rows: " + legacyRows + " != " + lexerRows);
+            }
+            if (run > 0) {
+                System.out.println(String.format("run %d: %d rows; LineNumberReader %d ms (%.0f rows/s); "
+                        + "DumpLexer %d ms (%.0f rows/s); speedup %.1fx", run, lexerRows, legacyTime / 1000000,
+                        lexerRows * 1e9 / legacyTime, lexerTime / 1000000, lexerRows * 1e9 / lexerTime, (double) legacyTime
+                                / lexerTime));
+            }
+        }
+    }
+
+    private static long scan(final DumpLexer in, final int columns) throws IOException {
+        long rows = 0;
+        long checksum = 0;
+        while (in.skipWhite()) {
+            in.expect('(');
+            for (int i = 0; i < columns; ++i) {
+                if ((i & 1) == 0) {
+                    if (in.readNumber() == DumpLexer.NUMBER_LONG) {
+                        checksum += in.getLong();
+                    }
+                } else {
+                    final String s = in.readString();
+                    checksum += s == null ? 0 : s.length();
+                }
+                in.expect(i + 1 < columns ? ',' : ')');
+            }
+            ++rows;
+        }
+        return checksum == 0 ? -1 : rows;
+    }
+
+    /**
+     * rows with alternating numeric and string columns.
+     */
+    private static char[] generate(final int rows) {
+        final StringBuilder result = new StringBuilder();
+        for (int row = 0; row < rows; ++row) {
+            result.append("\t(").append(row).append(",'name ").append(row).append("',").append(row * 31L % 1000)
+                    .append(".25,'Mac Donald\\'s',").append(row % 7 == 0 ? "NULL" : String.valueOf(row * 1000003L))
+                    .append(",'2009-05-04 12:").append(row % 60 < 10 ? "0" : "").append(row % 60).append(":00.0')\n");
+        }
+        return result.toString().toCharArray();
+    }
+
+    private static char[] readFile(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        final Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            final StringBuilder result = new StringBuilder();
+            final char[] buf = new char[65536];
+            int len;
+            while ((len = reader.read(buf)) > 0) {
+                result.append(buf, 0, len);
+            }
+            return result.toString().toCharArray();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The way the dump command read dumps before the DumpLexer.
+     */
+    private static final class LegacyReader {
+
+        private final LineNumberReader _in;
+
+        LegacyReader(final LineNumberReader in) {
+            _in = in;
+        }
+
+        long scan(final int columns) throws IOException {
+            long rows = 0;
+            long checksum = 0;
+            while (skipWhite()) {
+                expect('(');
+                for (int i = 0; i < columns; ++i) {
+                    if ((i & 1) == 0) {
+                        final Number n = readNumber();
+                        if (n != null && !(n instanceof Double) && !(n instanceof BigDecimal)) {
+                            checksum += n.longValue();
+                        }
+                    } else {
+                        final String s = readString();
+                        checksum += s == null ? 0 : s.length();
+                    }
+                    expect(i + 1 < columns ? ',' : ')');
+                }
+                ++rows;
+            }
+            return checksum == 0 ? -1 : rows;
+        }
+
+        private Number readNumber() throws IOException {
+            String token = readToken();
+            if (token.length() == 1 && (token.equals("+") || token.equals("-"))) {
+                token += readToken();
+            }
+            if (token.equals("NULL")) {
+                return null;
+            }
+            if (token.indexOf('.') > 0) {
+                return Double.valueOf(token);
+            }
+            if (token.length() < 10) {
+                return Integer.valueOf(token);
+            } else if (token.length() < 19) {
+                return Long.valueOf(token);
+            }
+            return new BigDecimal(token);
+        }
+
+        private void expect(final char ch) throws IOException {
+            skipWhite();
+            final char inCh = (char) _in.read();
+            if (ch != inCh) {
+                throw new IOException("line " + (_in.getLineNumber() + 1) + ": '" + ch + "' expected");
+            }
+        }
+
+        private boolean skipWhite() throws IOException {
+            _in.mark(1);
+            int c;
+            while ((c = _in.read()) > 0) {
+                if (!Character.isWhitespace((char) c)) {
+                    _in.reset();
+                    return true;
+                }
+                _in.mark(1);
+            }
+            return false;
+        }
+
+        private String readToken() throws IOException {
+            skipWhite();
+            final StringBuilder token = new StringBuilder();
+            _in.mark(1);
+            int c;
+            while ((c = _in.read()) > 0) {
+                final char ch = (char) c;
+                if (Character.isWhitespace(ch) || ch == ';' || ch == ',' || ch == '(' || ch == ')') {
+                    _in.reset();
+                    break;
+                }
+                token.append(ch);
+                _in.mark(1);
+            }
+            return token.toString();
+        }
+
+        private String readString() throws IOException {
+            int nullParseState = 0;
+            int c;
+            while ((c = _in.read()) > 0) {
+                final char ch = (char) c;
+                if (nullParseState == 0 && Character.isWhitespace(ch)) {
+                    continue;
+                }
+                if (ch == '\'') {
+                    break;
+                }
+                if (Character.toUpperCase(ch) == "NULL".charAt(nullParseState)) {
+                    ++nullParseState;
+                    if (nullParseState == 4) {
+                        return null;
+                    }
+                    continue;
+                }
+                throw new IOException("line " + (_in.getLineNumber() + 1) + ": unexpected character '" + ch + "'");
+            }
+            final StringBuilder result = new StringBuilder();
+            while ((c = _in.read()) > 0) {
+                if (c == '\\') {
+                    c = _in.read();
+                    result.append((char) c);
+                    continue;
+                }
+                if (c == '\'') {
+                    break;
+                }
+                result.append((char) c);
+            }
+            return result.toString();
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
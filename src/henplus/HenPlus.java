@@ -190,7 +190,7 @@ public final class HenPlus implements Interruptable {
 
         _dispatcher.register(new ImportCommand(_objectLister));
         // _dispatcher.register(new ExportCommand());
-        _dispatcher.register(new DumpCommand(_objectLister, loadCommand));
+        _dispatcher.register(new DumpCommand(_objectLister, loadCommand, _henplusProperties));
 
         _dispatcher.register(new ShellCommand());
         _dispatcher.register(new SpoolCommand(this));
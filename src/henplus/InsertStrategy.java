@@ -0,0 +1,875 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The way rows are sent to the database by the commands that insert many of them, like dump-in and import. Depending on the
+ * driver, one of them is a lot faster than the others:
+ * <ul>
+ * <li>single-row: one INSERT statement executed per row.</li>
+ * <li>batch: the single row INSERT statement, with rows collected in JDBC batches.</li>
+ * <li>values: one INSERT INTO t (..) VALUES (..),(..),.. statement for many rows. The statement for the usual number of
+ * rows and the one for the rest at the end are prepared once and reused.</li>
+ * </ul>
+ * Rows that are collected for a batch or statement are kept by reference until they are executed; see
+ * {@link #getPendingRows()}. If a batch or statement with many rows fails, its rows are inserted again one at a time, so
+ * that only the rows that fail on their own are passed to the {@link FailureHandler}. Within a transaction, the batch or
+ * statement and each row inserted again are wrapped in a savepoint, where the database has them: a database like
+ * PostgreSQL aborts the whole transaction on a failed statement, until it is rolled back to a savepoint before it.
+ * <p>
+ * Strategies created with {@link #createMerge} update the rows that exist already instead, found by their primary key.
+ * Where the database has a statement for this, like INSERT .. ON CONFLICT of PostgreSQL, it is used the same way as the
+ * INSERT; otherwise, the rows of a batch are updated first and only those that are missing inserted.
+ */
+public abstract class InsertStrategy {
+
+    public static final int SINGLE_ROW = 0;
+    public static final int BATCH = 1;
+    public static final int VALUES = 2;
+
+    private static final String[] NAMES = { "single-row", "batch", "values" };
+
+    /** the rows per batch or statement, if the command has no setting of its own */
+    public static final int DEFAULT_ROWS = 500;
+
+    /**
+     * the most parameters put into a single multi-row statement; some databases do not take more than about 2000.
+     */
+    private static final int MAX_PARAMETERS = 2000;
+
+    /** the ways a database can update or insert a row with a single statement */
+    private static final int UPSERT_NONE = 0;
+    private static final int UPSERT_ON_CONFLICT = 1;
+    private static final int UPSERT_ON_DUPLICATE_KEY = 2;
+    private static final int UPSERT_MERGE_KEY = 3;
+
+    /**
+     * Sets the values of a row as parameters of a statement.
+     */
+    public interface RowBinder {
+
+        /**
+         * @param column
+         *            the index of the value in the row.
+         */
+        void bindValue(PreparedStatement stmt, int parameter, int column, Object value) throws SQLException;
+    }
+
+    /**
+     * Is told about rows that could not be inserted.
+     */
+    public interface FailureHandler {
+
+        /**
+         * the given row could not be inserted; throw the exception to stop inserting.
+         */
+        void rowFailed(Object[] values, SQLException e) throws SQLException;
+    }
+
+    private final Connection _conn;
+    private final String _table;
+    private final String[] _columns;
+    private final RowBinder _binder;
+    private final FailureHandler _failureHandler;
+    private int _upsert;
+    private int[] _keyColumns;
+    private PreparedStatement _singleRowStmt;
+    private long _executeTime;
+    private boolean _savepointsChecked;
+    private boolean _savepoints;
+    private boolean _releaseSavepoints = true;
+
+    protected InsertStrategy(final Connection conn, final String table, final String[] columns, final RowBinder binder,
+            final FailureHandler failureHandler) {
+        _conn = conn;
+        _table = table;
+        _columns = columns;
+        _binder = binder;
+        _failureHandler = failureHandler;
+    }
+
+    /**
+     * the names of the strategies, in the order of their constants.
+     */
+    public static String[] getNames() {
+        return NAMES.clone();
+    }
+
+    public static String getName(final int strategy) {
+        return NAMES[strategy];
+    }
+
+    /**
+     * create the strategy to insert into the given columns of a table. Falls back to single-row inserts, if there is
+     * only one row per batch or statement or if the driver does not support batches.
+     *
+     * @param rows
+     *            the rows per batch or multi-row statement.
+     * @param failureHandler
+     *            what to do with rows that cannot be inserted; with null, the first failure is thrown.
+     */
+    public static InsertStrategy create(final int strategy, final Connection conn, final String table,
+            final String[] columns, final int rows, final RowBinder binder, final FailureHandler failureHandler)
+            throws SQLException {
+        if (strategy == BATCH && rows > 1 && conn.getMetaData().supportsBatchUpdates()) {
+            return new Batch(conn, table, columns, rows, binder, failureHandler);
+        }
+        final int valuesRows = Math.min(rows, MAX_PARAMETERS / Math.max(1, columns.length));
+        if (strategy == VALUES && valuesRows > 1) {
+            return new MultiRowValues(conn, table, columns, valuesRows, binder, failureHandler);
+        }
+        return new SingleRow(conn, table, columns, binder, failureHandler);
+    }
+
+    /**
+     * create the strategy to update or insert the rows of a table, by the given columns of its primary key.
+     *
+     * @param keyColumns
+     *            the indexes of the columns of the primary key.
+     * @see #create(int, Connection, String, String[], int, RowBinder, FailureHandler)
+     */
+    public static InsertStrategy createMerge(final int strategy, final Connection conn, final String table,
+            final String[] columns, final int[] keyColumns, final int rows, final RowBinder binder,
+            final FailureHandler failureHandler) throws SQLException {
+        final int upsert = getUpsert(conn.getMetaData());
+        final InsertStrategy inserts = create(strategy, conn, table, columns, rows, binder, failureHandler);
+        if (upsert == UPSERT_NONE) {
+            return new UpdateOrInsert(conn, table, columns, keyColumns, Math.max(1, rows), binder, failureHandler, inserts);
+        }
+        inserts._upsert = upsert;
+        inserts._keyColumns = keyColumns;
+        return inserts;
+    }
+
+    /**
+     * the statement of the database to update or insert rows, if it has one that works with any number of rows.
+     */
+    private static int getUpsert(final DatabaseMetaData meta) throws SQLException {
+        final String product = meta.getDatabaseProductName();
+        if (product == null) {
+            return UPSERT_NONE;
+        }
+        if (product.startsWith("PostgreSQL")) {
+            // since 9.5.
+            try {
+                final int version = meta.getDatabaseMajorVersion() * 100 + meta.getDatabaseMinorVersion();
+                return version >= 905 ? UPSERT_ON_CONFLICT : UPSERT_NONE;
+            } catch (final AbstractMethodError e) {
+                return UPSERT_NONE;
+            }
+        }
+        if (product.startsWith("MySQL") || product.startsWith("MariaDB")) {
+            return UPSERT_ON_DUPLICATE_KEY;
+        }
+        if (product.equals("H2")) {
+            return UPSERT_MERGE_KEY;
+        }
+        return UPSERT_NONE;
+    }
+
+    /**
+     * the strategy actually used; one of {@link #SINGLE_ROW}, {@link #BATCH} and {@link #VALUES}.
+     */
+    public abstract int getStrategy();
+
+    /**
+     * the rows sent to the database at once.
+     */
+    public abstract int getRowsPerExecution();
+
+    /**
+     * insert the row, or keep it to be inserted with the next rows. A row that is kept must not be changed until it is no
+     * longer pending.
+     */
+    public abstract void add(Object[] values) throws SQLException;
+
+    /**
+     * insert all rows kept so far.
+     */
+    public abstract void flush() throws SQLException;
+
+    /**
+     * the rows added that have not been inserted yet.
+     */
+    public abstract int getPendingRows();
+
+    /**
+     * insert the rows kept so far and then the given row on its own, e.g. a row with large LOBs that are bound as streams.
+     *
+     * @return whether the row has been inserted.
+     */
+    public boolean insert(final Object[] values) throws SQLException {
+        flush();
+        return executeRow(values);
+    }
+
+    /**
+     * the time in nanoseconds spent executing statements and batches.
+     */
+    public long getExecuteTime() {
+        return _executeTime;
+    }
+
+    /**
+     * close the statements; rows that are still pending are dropped.
+     */
+    public void close() {
+        closeStatement(_singleRowStmt);
+        _singleRowStmt = null;
+    }
+
+    protected static void closeStatement(final Statement stmt) {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (final Exception e) {
+            }
+        }
+    }
+
+    protected PreparedStatement prepare(final int rows) throws SQLException {
+        final StringBuilder prep = new StringBuilder(_upsert == UPSERT_MERGE_KEY ? "MERGE INTO " : "INSERT INTO ");
+        prep.append(_table);
+        prep.append(" (");
+        for (int i = 0; i < _columns.length; ++i) {
+            prep.append(_columns[i]);
+            if (i + 1 < _columns.length) {
+                prep.append(",");
+            }
+        }
+        prep.append(")");
+        if (_upsert == UPSERT_MERGE_KEY) {
+            prep.append(" KEY (");
+            appendColumns(prep, _keyColumns, "", ",");
+            prep.append(")");
+        }
+        prep.append(" VALUES ");
+        for (int row = 0; row < rows; ++row) {
+            if (row > 0) {
+                prep.append(",");
+            }
+            prep.append("(");
+            for (int i = 0; i < _columns.length; ++i) {
+                prep.append("?");
+                if (i + 1 < _columns.length) {
+                    prep.append(",");
+                }
+            }
+            prep.append(")");
+        }
+        final int[] nonKeyColumns = _upsert != UPSERT_NONE ? getNonKeyColumns(_columns.length, _keyColumns) : null;
+        if (_upsert == UPSERT_ON_CONFLICT) {
+            prep.append(" ON CONFLICT (");
+            appendColumns(prep, _keyColumns, "", ",");
+            if (nonKeyColumns.length == 0) {
+                prep.append(") DO NOTHING");
+            } else {
+                prep.append(") DO UPDATE SET ");
+                appendColumns(prep, nonKeyColumns, " = EXCLUDED.", ",");
+            }
+        } else if (_upsert == UPSERT_ON_DUPLICATE_KEY) {
+            prep.append(" ON DUPLICATE KEY UPDATE ");
+            if (nonKeyColumns.length == 0) {
+                appendColumns(prep, new int[] { _keyColumns[0] }, " = ", ",");
+            } else {
+                for (int i = 0; i < nonKeyColumns.length; ++i) {
+                    if (i > 0) {
+                        prep.append(",");
+                    }
+                    prep.append(_columns[nonKeyColumns[i]]).append(" = VALUES(").append(_columns[nonKeyColumns[i]])
+                            .append(")");
+                }
+            }
+        }
+        return _conn.prepareStatement(prep.toString());
+    }
+
+    /**
+     * append the names of the given columns, separated by the given separator. With an assignment, each column is
+     * followed by it and its name once more, as in <code>a = EXCLUDED.a</code>.
+     */
+    private void appendColumns(final StringBuilder prep, final int[] columns, final String assignment,
+            final String separator) {
+        for (int i = 0; i < columns.length; ++i) {
+            if (i > 0) {
+                prep.append(separator);
+            }
+            prep.append(_columns[columns[i]]);
+            if (assignment.length() > 0) {
+                prep.append(assignment).append(_columns[columns[i]]);
+            }
+        }
+    }
+
+    /**
+     * the indexes of all columns that are not part of the key.
+     */
+    private static int[] getNonKeyColumns(final int columnCount, final int[] keyColumns) {
+        final boolean[] isKey = new boolean[columnCount];
+        int keys = 0;
+        for (int i = 0; i < keyColumns.length; ++i) {
+            if (!isKey[keyColumns[i]]) {
+                isKey[keyColumns[i]] = true;
+                ++keys;
+            }
+        }
+        final int[] result = new int[columnCount - keys];
+        int n = 0;
+        for (int i = 0; i < columnCount; ++i) {
+            if (!isKey[i]) {
+                result[n++] = i;
+            }
+        }
+        return result;
+    }
+
+    protected PreparedStatement getSingleRowStatement() throws SQLException {
+        if (_singleRowStmt == null) {
+            _singleRowStmt = prepare(1);
+        }
+        return _singleRowStmt;
+    }
+
+    protected void bindRow(final PreparedStatement stmt, final int firstParameter, final Object[] values)
+            throws SQLException {
+        for (int i = 0; i < values.length; ++i) {
+            _binder.bindValue(stmt, firstParameter + i, i, values[i]);
+        }
+    }
+
+    protected void bindValue(final PreparedStatement stmt, final int parameter, final int column, final Object value)
+            throws SQLException {
+        _binder.bindValue(stmt, parameter, column, value);
+    }
+
+    protected Connection getConnection() {
+        return _conn;
+    }
+
+    protected int getColumnCount() {
+        return _columns.length;
+    }
+
+    /**
+     * insert a single row; returns false, if it failed and the failure handler did not throw.
+     */
+    protected boolean executeRow(final Object[] values) throws SQLException {
+        return executeRow(values, null);
+    }
+
+    /**
+     * insert a single row again, after the batch or statement it was part of failed. Unlike {@link #executeRow(Object[])},
+     * a failure is rolled back to a savepoint, so that the rows after it can still be inserted.
+     */
+    protected boolean retryRow(final Object[] values) throws SQLException {
+        return executeRow(values, setSavepoint());
+    }
+
+    private boolean executeRow(final Object[] values, final Savepoint savepoint) throws SQLException {
+        final PreparedStatement stmt = getSingleRowStatement();
+        bindRow(stmt, 1, values);
+        final long start = System.nanoTime();
+        try {
+            stmt.execute();
+            releaseSavepoint(savepoint);
+            return true;
+        } catch (final SQLException e) {
+            rollback(savepoint);
+            rowFailed(values, e);
+            return false;
+        } finally {
+            _executeTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * set a savepoint to roll back to, if the next statement fails. Returns null, if auto-commit is on, so that a failure
+     * cannot affect other statements, or if the database has no savepoints.
+     */
+    protected Savepoint setSavepoint() throws SQLException {
+        if (!_savepointsChecked) {
+            _savepoints = _conn.getMetaData().supportsSavepoints();
+            _savepointsChecked = true;
+        }
+        if (!_savepoints || _conn.getAutoCommit()) {
+            return null;
+        }
+        return _conn.setSavepoint();
+    }
+
+    /**
+     * roll back to the savepoint, if there is one; it is released, as it is not used again.
+     */
+    protected void rollback(final Savepoint savepoint) throws SQLException {
+        if (savepoint != null) {
+            _conn.rollback(savepoint);
+            releaseSavepoint(savepoint);
+        }
+    }
+
+    /**
+     * release the savepoint, if there is one, so that the database does not keep one for each batch up to the commit.
+     */
+    protected void releaseSavepoint(final Savepoint savepoint) {
+        if (savepoint == null || !_releaseSavepoints) {
+            return;
+        }
+        try {
+            _conn.releaseSavepoint(savepoint);
+        } catch (final SQLException e) {
+            // some drivers, like Oracle's, do not release savepoints.
+            _releaseSavepoints = false;
+        }
+    }
+
+    protected void rowFailed(final Object[] values, final SQLException e) throws SQLException {
+        if (_failureHandler == null) {
+            throw e;
+        }
+        _failureHandler.rowFailed(values, e);
+    }
+
+    protected void addExecuteTime(final long nanos) {
+        _executeTime += nanos;
+    }
+
+    private static final class SingleRow extends InsertStrategy {
+
+        SingleRow(final Connection conn, final String table, final String[] columns, final RowBinder binder,
+                final FailureHandler failureHandler) {
+            super(conn, table, columns, binder, failureHandler);
+        }
+
+        @Override
+        public int getStrategy() {
+            return SINGLE_ROW;
+        }
+
+        @Override
+        public int getRowsPerExecution() {
+            return 1;
+        }
+
+        @Override
+        public void add(final Object[] values) throws SQLException {
+            executeRow(values);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public int getPendingRows() {
+            return 0;
+        }
+    }
+
+    private static final class Batch extends InsertStrategy {
+
+        private final int _rows;
+        private final List<Object[]> _batch;
+
+        Batch(final Connection conn, final String table, final String[] columns, final int rows, final RowBinder binder,
+                final FailureHandler failureHandler) {
+            super(conn, table, columns, binder, failureHandler);
+            _rows = rows;
+            _batch = new ArrayList<Object[]>(rows);
+        }
+
+        @Override
+        public int getStrategy() {
+            return BATCH;
+        }
+
+        @Override
+        public int getRowsPerExecution() {
+            return _rows;
+        }
+
+        @Override
+        public void add(final Object[] values) throws SQLException {
+            _batch.add(values);
+            if (_batch.size() >= _rows) {
+                flush();
+            }
+        }
+
+        @Override
+        public int getPendingRows() {
+            return _batch.size();
+        }
+
+        /**
+         * insert all rows collected in the batch and clear it. If the batch fails, the rows that have not been inserted
+         * are retried one at a time; all of them, if the batch has been rolled back to its savepoint.
+         */
+        @Override
+        public void flush() throws SQLException {
+            if (_batch.isEmpty()) {
+                return;
+            }
+            final PreparedStatement stmt = getSingleRowStatement();
+            final Savepoint savepoint = setSavepoint();
+            int[] updateCounts;
+            try {
+                for (final Object[] values : _batch) {
+                    bindRow(stmt, 1, values);
+                    stmt.addBatch();
+                }
+                final long start = System.nanoTime();
+                try {
+                    stmt.executeBatch();
+                } finally {
+                    addExecuteTime(System.nanoTime() - start);
+                }
+                releaseSavepoint(savepoint);
+                _batch.clear();
+                return;
+            } catch (final BatchUpdateException e) {
+                /*
+                 * drivers either stop at the first failing row, so that we only
+                 * get the counts of the rows before, or they continue and mark
+                 * the failed rows.
+                 */
+                updateCounts = e.getUpdateCounts();
+                if (updateCounts == null || savepoint != null) {
+                    updateCounts = new int[0];
+                }
+            } catch (final SQLException e) {
+                // some drivers do not tell which rows failed: all are retried.
+                updateCounts = new int[0];
+            } finally {
+                stmt.clearBatch();
+            }
+            try {
+                rollback(savepoint);
+                for (int i = 0; i < _batch.size(); ++i) {
+                    if (i < updateCounts.length && updateCounts[i] != Statement.EXECUTE_FAILED) {
+                        continue;
+                    }
+                    retryRow(_batch.get(i));
+                }
+            } finally {
+                _batch.clear();
+            }
+        }
+    }
+
+    private static final class MultiRowValues extends InsertStrategy {
+
+        private final int _rows;
+        private final List<Object[]> _pending;
+        private PreparedStatement _stmt;
+        private PreparedStatement _remainderStmt;
+        private int _remainderRows;
+
+        MultiRowValues(final Connection conn, final String table, final String[] columns, final int rows,
+                final RowBinder binder, final FailureHandler failureHandler) {
+            super(conn, table, columns, binder, failureHandler);
+            _rows = rows;
+            _pending = new ArrayList<Object[]>(rows);
+        }
+
+        @Override
+        public int getStrategy() {
+            return VALUES;
+        }
+
+        @Override
+        public int getRowsPerExecution() {
+            return _rows;
+        }
+
+        @Override
+        public void add(final Object[] values) throws SQLException {
+            _pending.add(values);
+            if (_pending.size() >= _rows) {
+                flush();
+            }
+        }
+
+        @Override
+        public int getPendingRows() {
+            return _pending.size();
+        }
+
+        /**
+         * insert the pending rows with a single statement; if it fails, the rows are inserted one at a time.
+         */
+        @Override
+        public void flush() throws SQLException {
+            if (_pending.isEmpty()) {
+                return;
+            }
+            try {
+                if (_pending.size() == 1) {
+                    executeRow(_pending.get(0));
+                    return;
+                }
+                final PreparedStatement stmt = getStatement(_pending.size());
+                final int columns = getColumnCount();
+                for (int i = 0; i < _pending.size(); ++i) {
+                    bindRow(stmt, i * columns + 1, _pending.get(i));
+                }
+                final Savepoint savepoint = setSavepoint();
+                final long start = System.nanoTime();
+                try {
+                    stmt.executeUpdate();
+                    releaseSavepoint(savepoint);
+                    return;
+                } catch (final SQLException e) {
+                    // retried below.
+                } finally {
+                    addExecuteTime(System.nanoTime() - start);
+                }
+                rollback(savepoint);
+                for (final Object[] values : _pending) {
+                    retryRow(values);
+                }
+            } finally {
+                _pending.clear();
+            }
+        }
+
+        /**
+         * the statement for the given number of rows: the one for the usual number, or the one for the rest.
+         */
+        private PreparedStatement getStatement(final int rows) throws SQLException {
+            if (rows == _rows) {
+                if (_stmt == null) {
+                    _stmt = prepare(rows);
+                }
+                return _stmt;
+            }
+            if (_remainderStmt == null || _remainderRows != rows) {
+                closeStatement(_remainderStmt);
+                _remainderStmt = null;
+                _remainderStmt = prepare(rows);
+                _remainderRows = rows;
+            }
+            return _remainderStmt;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            closeStatement(_stmt);
+            closeStatement(_remainderStmt);
+            _stmt = null;
+            _remainderStmt = null;
+        }
+    }
+
+    /**
+     * Updates the rows by their key and inserts those that do not exist yet, for databases without a statement doing both.
+     * The updates of the rows collected are sent as a JDBC batch; the rows that are missing are passed on to a strategy
+     * inserting them.
+     */
+    private static final class UpdateOrInsert extends InsertStrategy {
+
+        private final int[] _keyColumns;
+        private final int[] _setColumns;
+        private final String _update;
+        private final int _rows;
+        private final List<Object[]> _pending;
+        private final boolean _batches;
+        private final InsertStrategy _inserts;
+        private PreparedStatement _updateStmt;
+
+        UpdateOrInsert(final Connection conn, final String table, final String[] columns, final int[] keyColumns,
+                final int rows, final RowBinder binder, final FailureHandler failureHandler, final InsertStrategy inserts)
+                throws SQLException {
+            super(conn, table, columns, binder, failureHandler);
+            _keyColumns = keyColumns;
+            final int[] nonKeyColumns = getNonKeyColumns(columns.length, keyColumns);
+            // without other columns, the key is set to itself, just to find out whether the row exists.
+            _setColumns = nonKeyColumns.length > 0 ? nonKeyColumns : new int[] { keyColumns[0] };
+            final StringBuilder update = new StringBuilder("UPDATE ");
+            update.append(table).append(" SET ");
+            for (int i = 0; i < _setColumns.length; ++i) {
+                if (i > 0) {
+                    update.append(", ");
+                }
+                update.append(columns[_setColumns[i]]).append(" = ?");
+            }
+            update.append(" WHERE ");
+            for (int i = 0; i < keyColumns.length; ++i) {
+                if (i > 0) {
+                    update.append(" AND ");
+                }
+                update.append(columns[keyColumns[i]]).append(" = ?");
+            }
+            _update = update.toString();
+            _rows = rows;
+            _pending = new ArrayList<Object[]>(rows);
+            _batches = rows > 1 && conn.getMetaData().supportsBatchUpdates();
+            _inserts = inserts;
+        }
+
+        @Override
+        public int getStrategy() {
+            return _inserts.getStrategy();
+        }
+
+        @Override
+        public int getRowsPerExecution() {
+            return _rows;
+        }
+
+        @Override
+        public void add(final Object[] values) throws SQLException {
+            _pending.add(values);
+            if (_pending.size() >= _rows) {
+                flush();
+            }
+        }
+
+        @Override
+        public int getPendingRows() {
+            return _pending.size() + _inserts.getPendingRows();
+        }
+
+        @Override
+        public void flush() throws SQLException {
+            try {
+                final int[] updateCounts = updateBatch();
+                for (int i = 0; i < _pending.size(); ++i) {
+                    final Object[] values = _pending.get(i);
+                    int count = i < updateCounts.length ? updateCounts[i] : Statement.EXECUTE_FAILED;
+                    if (count == Statement.EXECUTE_FAILED || count == Statement.SUCCESS_NO_INFO) {
+                        // not known, if the row exists: update it once more on its own.
+                        count = updateRow(values, true);
+                    }
+                    if (count == 0) {
+                        _inserts.add(values);
+                    }
+                }
+            } finally {
+                _pending.clear();
+            }
+            _inserts.flush();
+        }
+
+        @Override
+        public boolean insert(final Object[] values) throws SQLException {
+            flush();
+            final int count = updateRow(values, false);
+            if (count == 0) {
+                return _inserts.insert(values);
+            }
+            return count > 0;
+        }
+
+        /**
+         * update the pending rows with a single batch and return the update count of each; if the batch fails, the counts
+         * of the rows up to the failing one, as far as the driver tells, or none, if it has been rolled back to its
+         * savepoint.
+         */
+        private int[] updateBatch() throws SQLException {
+            if (!_batches || _pending.size() < 2) {
+                return new int[0];
+            }
+            final PreparedStatement stmt = getUpdateStatement();
+            final Savepoint savepoint = setSavepoint();
+            try {
+                for (final Object[] values : _pending) {
+                    bindUpdate(stmt, values);
+                    stmt.addBatch();
+                }
+                final long start = System.nanoTime();
+                try {
+                    final int[] updateCounts = stmt.executeBatch();
+                    releaseSavepoint(savepoint);
+                    return updateCounts;
+                } finally {
+                    addExecuteTime(System.nanoTime() - start);
+                }
+            } catch (final BatchUpdateException e) {
+                if (savepoint != null) {
+                    rollback(savepoint);
+                    return new int[0];
+                }
+                return e.getUpdateCounts() != null ? e.getUpdateCounts() : new int[0];
+            } catch (final SQLException e) {
+                // no counts at all: each row is updated again.
+                rollback(savepoint);
+                return new int[0];
+            } finally {
+                stmt.clearBatch();
+            }
+        }
+
+        /**
+         * update a single row; returns the number of rows updated, or -1, if it failed and the failure handler did not
+         * throw.
+         *
+         * @param retry
+         *            whether the row is updated again after its batch failed; a failure is then rolled back to a
+         *            savepoint, so that the rows after it can still be updated.
+         */
+        private int updateRow(final Object[] values, final boolean retry) throws SQLException {
+            final PreparedStatement stmt = getUpdateStatement();
+            bindUpdate(stmt, values);
+            final Savepoint savepoint = retry ? setSavepoint() : null;
+            final long start = System.nanoTime();
+            try {
+                final int count = stmt.executeUpdate();
+                releaseSavepoint(savepoint);
+                return count;
+            } catch (final SQLException e) {
+                rollback(savepoint);
+                rowFailed(values, e);
+                return -1;
+            } finally {
+                addExecuteTime(System.nanoTime() - start);
+            }
+        }
+
+        private void bindUpdate(final PreparedStatement stmt, final Object[] values) throws SQLException {
+            int parameter = 1;
+            for (int i = 0; i < _setColumns.length; ++i) {
+                bindValue(stmt, parameter++, _setColumns[i], values[_setColumns[i]]);
+            }
+            for (int i = 0; i < _keyColumns.length; ++i) {
+                bindValue(stmt, parameter++, _keyColumns[i], values[_keyColumns[i]]);
+            }
+        }
+
+        private PreparedStatement getUpdateStatement() throws SQLException {
+            if (_updateStmt == null) {
+                _updateStmt = getConnection().prepareStatement(_update);
+            }
+            return _updateStmt;
+        }
+
+        @Override
+        public long getExecuteTime() {
+            return super.getExecuteTime() + _inserts.getExecuteTime();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            closeStatement(_updateStmt);
+            _updateStmt = null;
+            _inserts.close();
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -182,7 +182,7 @@ public final class SQLMetaDataBuilder {
         return table;
     }
 
-    private PrimaryKey getPrimaryKey(final DatabaseMetaData meta, final String tabName) throws SQLException {
+    public PrimaryKey getPrimaryKey(final DatabaseMetaData meta, final String tabName) throws SQLException {
         PrimaryKey result = null;
         final ResultSet rset = meta.getPrimaryKeys(null, null, tabName);
         if (rset != null) {
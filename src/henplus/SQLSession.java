@@ -39,6 +39,7 @@ public class SQLSession implements Interruptable {
 
     private final PropertyRegistry _propertyRegistry;
     private volatile boolean _interrupted;
+    private volatile int _insertStrategy;
 
     /**
      * creates a new SQL session. Open the database connection, initializes the readline library
@@ -51,6 +52,7 @@ public class SQLSession implements Interruptable {
         _username = user;
         _password = password;
         _propertyRegistry = new PropertyRegistry();
+        _insertStrategy = InsertStrategy.BATCH;
 
         Driver driver = null;
         // HenPlus.msg().println("connect to '" + url + "'");
@@ -91,6 +93,30 @@ public class SQLSession implements Interruptable {
         _propertyRegistry.registerProperty("auto-commit", new AutoCommitProperty());
         _propertyRegistry.registerProperty("read-only", new ReadOnlyProperty());
         _propertyRegistry.registerProperty("isolation-level", new IsolationLevelProperty(availableIsolations, currentIsolation));
+        _propertyRegistry.registerProperty("insert-strategy", new InsertStrategyProperty());
+    }
+
+    /**
+     * creates a new SQL session on a separate connection to the same database as the given session, with the same credentials
+     * and transaction settings. This is meant for commands that work on several connections in parallel; it does not print
+     * any connection information and has no properties registered, but uses the insert strategy of the given session.
+     */
+    public SQLSession(final SQLSession template) throws SQLException, IOException {
+        _statementCount = 0;
+        _conn = null;
+        _url = template._url;
+        _username = template._username;
+        _password = template._password;
+        _databaseInfo = template._databaseInfo;
+        _propertyRegistry = new PropertyRegistry();
+        _insertStrategy = template._insertStrategy;
+        connect();
+        try {
+            final Connection templateConn = template.getConnection();
+            _conn.setAutoCommit(templateConn.getAutoCommit());
+            _conn.setTransactionIsolation(templateConn.getTransactionIsolation());
+        } catch (final SQLException ignoreMe) {
+        }
     }
 
     private void printTransactionIsolation(final DatabaseMetaData meta, final int iLevel, final String descript, final int current)
@@ -111,6 +137,13 @@ public class SQLSession implements Interruptable {
         return _propertyRegistry;
     }
 
+    /**
+     * how commands that insert many rows send them to the database; one of the constants of {@link InsertStrategy}.
+     */
+    public int getInsertStrategy() {
+        return _insertStrategy;
+    }
+
     public String getDatabaseInfo() {
         return _databaseInfo;
     }
@@ -457,6 +490,43 @@ public class SQLSession implements Interruptable {
             return "sets the transaction isolation level";
         }
     }
+
+    private class InsertStrategyProperty extends EnumeratedPropertyHolder {
+
+        InsertStrategyProperty() {
+            super(InsertStrategy.getNames());
+            propertyValue = getDefaultValue();
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return InsertStrategy.getName(InsertStrategy.BATCH);
+        }
+
+        @Override
+        protected void enumeratedPropertyChanged(final int index, final String value) throws Exception {
+            _insertStrategy = index;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "how dump-in and import insert rows";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "\tHow commands that insert many rows, like dump-in and import,\n"
+                    + "\tsend them to the database:\n"
+                    + "\tsingle-row: execute an INSERT statement for each row.\n"
+                    + "\tbatch:      collect the rows of the INSERT statement in JDBC\n"
+                    + "\t            batches. This is the default.\n"
+                    + "\tvalues:     insert many rows with a single statement\n"
+                    + "\t            INSERT INTO t (..) VALUES (..),(..),..\n"
+                    + "\t            for drivers that gain little from batches.\n"
+                    + "\tThe rows per batch or statement are set by the command,\n"
+                    + "\tlike the property dump-in-batch-size.\n";
+        }
+    }
 }
 
 /*
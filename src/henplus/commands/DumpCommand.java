@@ -7,13 +7,39 @@ package henplus.commands;
 import henplus.AbstractCommand;
 import henplus.CommandDispatcher;
 import henplus.HenPlus;
+import henplus.InsertStrategy;
 import henplus.Interruptable;
+import henplus.PropertyRegistry;
 import henplus.SQLMetaData;
 import henplus.SQLMetaDataBuilder;
 import henplus.SQLSession;
 import henplus.SigIntHandler;
 import henplus.Version;
+import henplus.dump.BinaryDumpReader;
+import henplus.dump.BinaryDumpWriter;
+import henplus.dump.ColumnExtractor;
+import henplus.dump.DumpCheckpoint;
+import henplus.dump.DumpIndex;
+import henplus.dump.DumpLexer;
+import henplus.dump.DumpManifest;
+import henplus.dump.DumpStats;
+import henplus.dump.DumpWriter;
+import henplus.dump.FetchedRow;
+import henplus.dump.LobBuffer;
+import henplus.dump.MappedDumpLexer;
+import henplus.dump.ParallelGzipOutputStream;
+import henplus.dump.RowEstimator;
+import henplus.dump.RowRing;
+import henplus.dump.StatisticsRowEstimator;
+import henplus.dump.SubsetCollector;
+import henplus.io.ConfigurationContainer;
 import henplus.logging.Logger;
+import henplus.property.BooleanPropertyHolder;
+import henplus.property.EnumeratedPropertyHolder;
+import henplus.property.PropertyHolder;
+import henplus.sqlmodel.ColumnFkInfo;
+import henplus.sqlmodel.ColumnPkInfo;
+import henplus.sqlmodel.PrimaryKey;
 import henplus.sqlmodel.Table;
 import henplus.util.DependencyResolver;
 import henplus.util.DependencyResolver.ResolverResult;
@@ -24,17 +50,27 @@ import henplus.view.util.CancelWriter;
 import henplus.view.util.NameCompleter;
 import henplus.view.util.ProgressWriter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
@@ -47,17 +83,22 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Dump out and read that dump of a table; database-independently. This reads directly from the stream, so only needs not much
@@ -80,8 +121,45 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
     }
 
     private static final String FILE_ENCODING = "UTF-8";
-    private static final int DUMP_VERSION = 1;
+    /** text dumps; binary dumps are versioned on their own */
+    private static final int DUMP_VERSION = 3;
+    private static final int BINARY_DUMP_VERSION = 3;
+    /** from this version on, BLOBs in text dumps are base64 encoded */
+    private static final int BASE64_BLOB_VERSION = 3;
+    /** from this version on, LOBs in binary dumps are written in chunks; sections without LOBs can be read by version 2 */
+    private static final int CHUNKED_LOB_VERSION = 3;
+    private static final String[] DUMP_FORMATS = { "text", "binary" };
+    /** how dump-out gets the number of rows of a table: from statistics, counted if there are none, or counted */
+    private static final String[] ROW_COUNT_MODES = { "estimate", "fallback", "count" };
+    private static final int ROW_COUNT_ESTIMATE = 0;
+    private static final int ROW_COUNT_EXACT = 2;
+    private static final RowEstimator ROW_ESTIMATOR = new StatisticsRowEstimator();
     private static final String NULL_STR = "NULL";
+    /** the checksum of the data of a text dump section is written as 'crc32 xxxxxxxx' */
+    private static final String CHECKSUM_ALGORITHM = "crc32";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    /** dump-in reads up to this many rows, or two batches, ahead of the rows inserted; dump-out fetches this many ahead */
+    private static final int PIPELINE_ROWS = 1024;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final String WATERMARKS_FILENAME = "dump-watermarks";
+    /** dump-subset follows the rows referencing the root rows this far, unless given with -d */
+    private static final int DEFAULT_SUBSET_DEPTH = 2;
+    /** a table is only split into key ranges, if each of them gets at least this many rows */
+    private static final long MIN_PARTITION_ROWS = 10000;
+    /** product name prefixes of the databases with the window function NTILE, besides MySQL 8 */
+    private static final String[] NTILE_PRODUCTS = { "PostgreSQL", "Oracle", "Microsoft SQL Server", "DB2", "H2",
+            "MariaDB" };
+    /** swallows everything written to it */
+    private static final OutputStream DISCARD_OUTPUT = new OutputStream() {
+
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
     private static final Map<Integer, String> JDBCTYPE2TYPENAME = new HashMap<Integer, String>();
 
     // differentiated types by dump
@@ -115,19 +193,17 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
         // hope that, 'OTHER' can be read/written as String..
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.OTHER)), TYPES[HP_STRING]);
 
+        // LOBs are streamed.
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.LONGVARBINARY)), TYPES[HP_BLOB]);
-        // CLOB not supported .. try string.
-        JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.LONGVARCHAR)), TYPES[HP_STRING]);
+        JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.LONGVARCHAR)), TYPES[HP_CLOB]);
 
-        // not supported yet.
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.BLOB)), TYPES[HP_BLOB]);
         // just guessing, could be string maybe?
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.BINARY)), TYPES[HP_BLOB]);
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.VARBINARY)), TYPES[HP_BLOB]);
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.JAVA_OBJECT)), TYPES[HP_BLOB]);
 
-        // CLOB not supported .. try string.
-        JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.CLOB)), TYPES[HP_STRING]);
+        JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.CLOB)), TYPES[HP_CLOB]);
 
         // generic float.
         JDBCTYPE2TYPENAME.put(Integer.valueOf((Types.DOUBLE)), TYPES[HP_DOUBLE]);
@@ -156,11 +232,34 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
     private final ListUserObjectsCommand _tableCompleter;
     private final LoadCommand _fileOpener;
     private volatile boolean _running;
-
-    public DumpCommand(final ListUserObjectsCommand tc, final LoadCommand lc) {
+    private volatile int _batchSize;
+    private volatile boolean _binaryFormat;
+    private volatile int _compressionLevel;
+    private volatile int _rowCountMode;
+    private volatile boolean _writeStatsFile;
+    private volatile boolean _writeTextIndex;
+    private volatile DumpStats _stats; // of the last dump command.
+    private volatile boolean _writeRejects;
+    private volatile RejectDump _rejects; // of the running dump-in.
+    private volatile boolean _merge; // of the running dump-in.
+    private volatile File _tempDir;
+    private ConfigurationContainer _watermarks;
+
+    public DumpCommand(final ListUserObjectsCommand tc, final LoadCommand lc, final PropertyRegistry registry) {
         _tableCompleter = tc;
         _fileOpener = lc;
         _running = false;
+        _batchSize = DEFAULT_BATCH_SIZE;
+        _compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+        _writeRejects = true;
+        registry.registerProperty("dump-in-batch-size", new BatchSizeProperty());
+        registry.registerProperty("dump-out-format", new DumpFormatProperty());
+        registry.registerProperty("dump-out-compression", new CompressionLevelProperty());
+        registry.registerProperty("dump-out-row-count", new RowCountProperty());
+        registry.registerProperty("dump-out-text-index", new TextIndexProperty());
+        registry.registerProperty("dump-stats-file", new StatsFileProperty());
+        registry.registerProperty("dump-in-rejects", new RejectsProperty());
+        registry.registerProperty("dump-in-temp-dir", new TempDirProperty());
     }
 
     /**
@@ -168,7 +267,8 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
      */
     @Override
     public String[] getCommandList() {
-        return new String[] { "dump-out", "dump-in", "verify-dump", "dump-conditional", "dump-select" };
+        return new String[] { "dump-out", "dump-in", "verify-dump", "dump-conditional", "dump-select", "dump-incremental",
+                "dump-subset", "dump-stats" };
     }
 
     /**
@@ -180,11 +280,12 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
     }
 
     /**
-     * dump-in and verify-dump is complete as single-liner. dump-out and dump-conditional needs a semicolon.
+     * dump-in, dump-incremental, verify-dump and dump-stats is complete as single-liner. dump-out, dump-conditional and
+     * dump-subset need a semicolon.
      */
     @Override
     public boolean isComplete(final String command) {
-        if (command.startsWith("dump-in") || command.startsWith("verify-dump")) {
+        if (command.startsWith("dump-in") || command.startsWith("verify-dump") || command.startsWith("dump-stats")) {
             return true;
         }
         return command.endsWith(";");
@@ -195,6 +296,27 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
      */
     @Override
     public int execute(final SQLSession session, final String cmd, final String param) {
+        if ("dump-stats".equals(cmd)) {
+            if (new StringTokenizer(param).hasMoreTokens()) {
+                return SYNTAX_ERROR;
+            }
+            showStats();
+            return SUCCESS;
+        }
+        final DumpStats previous = _stats;
+        try {
+            return executeDump(session, cmd, param);
+        } finally {
+            _merge = false;
+            finishRejects();
+            final DumpStats stats = _stats;
+            if (stats != previous) {
+                finishStats(stats);
+            }
+        }
+    }
+
+    private int executeDump(final SQLSession session, final String cmd, final String param) {
         // final String FILE_ENCODING = System.getProperty("file.encoding");
         final StringTokenizer st = new StringTokenizer(param);
         final int argc = st.countTokens();
@@ -218,19 +340,20 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
             while (st.hasMoreElements()) {
                 statement.append(" ").append(st.nextToken());
             }
-            PrintStream out = null;
+            beginStats(cmd, fileName);
+            DumpWriter out = null;
             beginInterruptableSection();
             try {
-                out = openOutputStream(fileName, FILE_ENCODING);
+                out = openOutputStream(fileName);
                 final int result = dumpSelect(session, tabName, statement.toString(), out, FILE_ENCODING);
+                finishOutput(out);
+                out = null;
                 return result;
             } catch (final Exception e) {
                 Logger.error("failed: ", e);
                 return EXEC_FAILED;
             } finally {
-                if (out != null) {
-                    out.close();
-                }
+                closeOutput(out);
                 endInterruptableSection();
             }
         } else if ("dump-conditional".equals(cmd)) {
@@ -252,20 +375,94 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                     whereClause = whereClause.trim();
                 }
             }
-            PrintStream out = null;
+            beginStats(cmd, fileName);
+            DumpWriter out = null;
             beginInterruptableSection();
             try {
-                out = openOutputStream(fileName, FILE_ENCODING);
+                out = openOutputStream(fileName);
                 final int result = dumpTable(session, tabName, whereClause, out, FILE_ENCODING);
+                finishOutput(out);
+                out = null;
                 return result;
             } catch (final Exception e) {
                 Logger.error("failed: ", e);
                 e.printStackTrace();
                 return EXEC_FAILED;
             } finally {
-                if (out != null) {
-                    out.close();
+                closeOutput(out);
+                endInterruptableSection();
+            }
+        } else if ("dump-subset".equals(cmd)) {
+            if (session == null) {
+                Logger.error("not connected.");
+                return EXEC_FAILED;
+            }
+            if (argc < 2) {
+                return SYNTAX_ERROR;
+            }
+            int maxDepth = DEFAULT_SUBSET_DEPTH;
+            String fileName = st.nextToken();
+            if ("-d".equals(fileName)) {
+                if (argc < 4) {
+                    return SYNTAX_ERROR;
                 }
+                try {
+                    maxDepth = Integer.parseInt(st.nextToken());
+                } catch (final NumberFormatException e) {
+                    Logger.error("depth expected: %s", e.getMessage());
+                    return SYNTAX_ERROR;
+                }
+                if (maxDepth < 0) {
+                    Logger.error("depth must not be negative");
+                    return SYNTAX_ERROR;
+                }
+                fileName = st.nextToken();
+            }
+            final String tabName = st.nextToken();
+            String whereClause = null;
+            if (st.hasMoreTokens()) {
+                whereClause = st.nextToken("\n"); // till EOL
+                whereClause = whereClause.trim();
+                if (whereClause.toUpperCase().startsWith("WHERE")) {
+                    whereClause = whereClause.substring(5);
+                    whereClause = whereClause.trim();
+                }
+            }
+            beginStats(cmd, fileName);
+            DumpWriter out = null;
+            beginInterruptableSection();
+            try {
+                out = openOutputStream(fileName);
+                final int result = dumpSubset(session, tabName, whereClause, maxDepth, out);
+                finishOutput(out);
+                out = null;
+                return result;
+            } catch (final Exception e) {
+                Logger.error("failed: ", e);
+                return EXEC_FAILED;
+            } finally {
+                closeOutput(out);
+                endInterruptableSection();
+            }
+        } else if ("dump-incremental".equals(cmd)) {
+            if (session == null) {
+                Logger.error("not connected.");
+                return EXEC_FAILED;
+            }
+            if (argc != 3) {
+                return SYNTAX_ERROR;
+            }
+            final String fileName = st.nextToken();
+            final String tabName = st.nextToken();
+            final String column = st.nextToken();
+            beginStats(cmd, fileName);
+            beginInterruptableSection();
+            try {
+                return dumpIncremental(session, fileName, tabName, column);
+            } catch (final Exception e) {
+                Logger.error("failed: ", e);
+                return EXEC_FAILED;
+            } finally {
                 endInterruptableSection();
             }
         } else if ("dump-out".equals(cmd)) {
@@ -276,8 +473,38 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
             if (argc < 2) {
                 return SYNTAX_ERROR;
             }
-            final String fileName = (String) st.nextElement();
-            PrintStream out = null;
+            int workerCount = 1;
+            int partCount = 1;
+            String fileName = (String) st.nextElement();
+            while ("-j".equals(fileName) || "-p".equals(fileName)) {
+                final boolean workers = "-j".equals(fileName);
+                final String what = workers ? "workers" : "key ranges";
+                if (st.countTokens() < 3) {
+                    return SYNTAX_ERROR;
+                }
+                int value;
+                try {
+                    value = Integer.parseInt(st.nextToken());
+                } catch (final NumberFormatException e) {
+                    Logger.error("number of %s expected: %s", what, e.getMessage());
+                    return SYNTAX_ERROR;
+                }
+                if (value < 1) {
+                    Logger.error("number of %s must be at least 1", what);
+                    return SYNTAX_ERROR;
+                }
+                if (workers) {
+                    workerCount = value;
+                } else {
+                    partCount = value;
+                }
+                fileName = st.nextToken();
+            }
+            if (partCount > 1 && workerCount == 1) {
+                workerCount = partCount;
+            }
+            beginStats(cmd, fileName);
+            DumpWriter out = null;
             final String tabName = null;
             beginInterruptableSection();
             try {
@@ -285,7 +512,10 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                 final Set<String> alreadyDumped = new HashSet<String>(); // which tables got already
                 // dumped?
 
-                out = openOutputStream(fileName, FILE_ENCODING);
+                final File shardDirectory = getShardDirectory(fileName);
+                if (shardDirectory == null) {
+                    out = openOutputStream(fileName);
+                }
                 final Set<String> tableSet = new LinkedHashSet<String>();
 
                 /*
@@ -346,13 +576,18 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                 if (tableSequence.size() > 1) {
                     Logger.info("%s tables to dump.", tableSequence.size());
                 }
-                final Iterator<String> it = tableSequence.iterator();
-                while (_running && it.hasNext()) {
-                    final String table = it.next();
-                    if (!alreadyDumped.contains(table)) {
-                        final int result = dumpTable(session, table, null, out, FILE_ENCODING, alreadyDumped);
-                        if (result != SUCCESS) {
-                            dumpResult = result;
+                if (shardDirectory != null || workerCount > 1 && (tableSequence.size() > 1 || partCount > 1)) {
+                    dumpResult = dumpTablesParallel(session, tableSequence, fileName, out, workerCount, partCount,
+                            alreadyDumped);
+                } else {
+                    final Iterator<String> it = tableSequence.iterator();
+                    while (_running && it.hasNext()) {
+                        final String table = it.next();
+                        if (!alreadyDumped.contains(table)) {
+                            final int result = dumpTable(session, table, null, out, FILE_ENCODING, alreadyDumped);
+                            if (result != SUCCESS) {
+                                dumpResult = result;
+                            }
                         }
                     }
                 }
@@ -386,15 +621,17 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                     /* todo: print out, what constraint to disable */
                 }
 
+                if (out != null) {
+                    finishOutput(out);
+                    out = null;
+                }
                 return dumpResult;
             } catch (final Exception e) {
                 HenPlus.msg().println("dump table '" + tabName + "' failed: " + e.getMessage());
                 e.printStackTrace();
                 return EXEC_FAILED;
             } finally {
-                if (out != null) {
-                    out.close();
-                }
+                closeOutput(out);
                 endInterruptableSection();
             }
         } else if ("dump-in".equals(cmd)) {
@@ -402,1251 +639,5027 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                 HenPlus.msg().println("not connected. Only verify-dump possible.");
                 return EXEC_FAILED;
             }
-            if (argc < 1 || argc > 2) {
+            if (argc < 1) {
                 return SYNTAX_ERROR;
             }
-            final String fileName = (String) st.nextElement();
+            int workerCount = 0;
+            boolean resume = false;
+            boolean merge = false;
+            String fileName = (String) st.nextElement();
+            while ("-j".equals(fileName) || "-r".equals(fileName) || "-m".equals(fileName)) {
+                if ("-r".equals(fileName)) {
+                    resume = true;
+                } else if ("-m".equals(fileName)) {
+                    merge = true;
+                } else {
+                    if (!st.hasMoreTokens()) {
+                        return SYNTAX_ERROR;
+                    }
+                    try {
+                        workerCount = Integer.parseInt(st.nextToken());
+                    } catch (final NumberFormatException e) {
+                        Logger.error("number of workers expected: %s", e.getMessage());
+                        return SYNTAX_ERROR;
+                    }
+                    if (workerCount < 1) {
+                        Logger.error("number of workers must be at least 1");
+                        return SYNTAX_ERROR;
+                    }
+                }
+                if (!st.hasMoreTokens()) {
+                    return SYNTAX_ERROR;
+                }
+                fileName = st.nextToken();
+            }
+            final List<String> tables = new ArrayList<String>();
+            while (st.hasMoreTokens()) {
+                tables.add(st.nextToken());
+            }
             int commitPoint = -1;
-            if (argc == 2) {
+            if (!tables.isEmpty()) {
+                // a number at the end is the commit interval.
                 try {
-                    final String val = (String) st.nextElement();
-                    commitPoint = Integer.valueOf(val).intValue();
+                    commitPoint = Integer.valueOf(tables.get(tables.size() - 1)).intValue();
+                    tables.remove(tables.size() - 1);
                 } catch (final NumberFormatException e) {
-                    HenPlus.msg().println("commit point number expected: " + e);
+                    commitPoint = -1;
+                }
+            }
+            _merge = merge;
+            final File shardDirectory = getShardDirectory(fileName);
+            if (shardDirectory != null) {
+                if (resume) {
+                    Logger.error("resuming (-r) is not possible with a dump directory.");
                     return SYNTAX_ERROR;
                 }
+                beginStats(cmd, fileName);
+                beginRejects(fileName, false);
+                // the files of a directory are loaded in parallel by default.
+                return readShards(shardDirectory, session, commitPoint, workerCount > 0 ? workerCount : Runtime.getRuntime()
+                        .availableProcessors(), tables);
+            }
+            if (!tables.isEmpty() && (workerCount > 1 || resume)) {
+                Logger.error("tables cannot be selected together with -j or -r.");
+                return SYNTAX_ERROR;
+            }
+            if (workerCount > 1 && resume) {
+                Logger.error("resuming (-r) is not possible with parallel dump-in.");
+                return SYNTAX_ERROR;
+            }
+            beginStats(cmd, fileName);
+            beginRejects(fileName, resume);
+            if (!tables.isEmpty()) {
+                return readDumpTables(fileName, session, commitPoint, tables);
             }
-            return retryReadDump(fileName, session, commitPoint);
+            if (workerCount > 1) {
+                return readDumpParallel(fileName, session, commitPoint, workerCount);
+            }
+            return retryReadDump(fileName, session, commitPoint, resume);
         } else if ("verify-dump".equals(cmd)) {
-            if (argc != 1) {
+            if (argc < 1) {
                 return SYNTAX_ERROR;
             }
             final String fileName = (String) st.nextElement();
-            return retryReadDump(fileName, null, -1);
+            final List<String> tables = new ArrayList<String>();
+            while (st.hasMoreTokens()) {
+                tables.add(st.nextToken());
+            }
+            beginStats(cmd, fileName);
+            final File shardDirectory = getShardDirectory(fileName);
+            if (shardDirectory != null) {
+                return readShards(shardDirectory, null, -1, Runtime.getRuntime().availableProcessors(), tables);
+            }
+            if (!tables.isEmpty()) {
+                return readDumpTables(fileName, null, -1, tables);
+            }
+            return verifyDump(fileName);
         }
         return SYNTAX_ERROR;
     }
 
     /**
-     * reads a dump and does a retry if the file encoding does not match.
+     * start collecting the statistics of a dump command; they replace those of the last one.
      */
-    private int retryReadDump(final String fileName, final SQLSession session, final int commitPoint) {
-        LineNumberReader in = null;
-        final boolean hot = session != null;
-        beginInterruptableSection();
+    private void beginStats(final String cmd, final String fileName) {
+        _stats = new DumpStats(cmd, fileName, "dump-in".equals(cmd) || "verify-dump".equals(cmd));
+    }
+
+    private void finishStats(final DumpStats stats) {
+        stats.finish();
+        if (!_writeStatsFile) {
+            return;
+        }
+        final File file = new File(_fileOpener.openFile(stats.getFileName()).getPath() + "." + stats.getCommand()
+                + ".stats");
         try {
-            String fileEncoding = FILE_ENCODING;
-            boolean retryPossible = true;
-            do {
-                try {
-                    in = openInputReader(fileName, fileEncoding);
-                    while (skipWhite(in)) {
-                        final int result = readTableDump(in, fileEncoding, session, hot, commitPoint);
-                        retryPossible = false;
-                        if (!_running) {
-                            HenPlus.msg().println("interrupted.");
-                            return result;
-                        }
-                        if (result != SUCCESS) {
-                            return result;
-                        }
-                    }
-                } catch (final EncodingMismatchException e) {
-                    // did we already retry with another encoding?
-                    if (!fileEncoding.equals(FILE_ENCODING)) {
-                        throw new Exception("got file encoding problem twice");
-                    }
-                    fileEncoding = e.getEncoding();
-                    HenPlus.msg().println("got a different encoding; retry with " + fileEncoding);
-                }
-            } while (retryPossible);
-            return SUCCESS;
-        } catch (final Exception e) {
-            HenPlus.msg().println("failed: " + e.getMessage());
-            e.printStackTrace();
-            return EXEC_FAILED;
-        } finally {
+            stats.writeSummary(file);
+            Logger.info("dump statistics written to %s", file);
+        } catch (final IOException e) {
+            Logger.error("cannot write dump statistics to %s: %s", file, e.getMessage());
+        }
+    }
+
+    /**
+     * start writing the rows that cannot be inserted to <filename>.rejects.dump, if switched on. A resumed dump-in adds to
+     * the rejects of the run before.
+     */
+    private void beginRejects(final String fileName, final boolean resume) {
+        if (_writeRejects) {
+            final String rejectsName = _fileOpener.openFile(fileName).getPath() + ".rejects";
             try {
-                if (in != null) {
-                    in.close();
-                }
+                _rejects = new RejectDump(new File(rejectsName + ".dump"), new File(rejectsName + ".errors"), resume);
             } catch (final IOException e) {
-                HenPlus.msg().println("closing file failed.");
+                Logger.error("cannot read %s.errors, rows that cannot be inserted are not written: %s", rejectsName,
+                        e.getMessage());
             }
-            endInterruptableSection();
         }
     }
 
-    private PrintStream openOutputStream(final String fileName, final String encoding) throws IOException {
-        final File f = _fileOpener.openFile(fileName);
-        OutputStream outStream = new FileOutputStream(f);
-        if (fileName.endsWith(".gz")) {
-            outStream = new GZIPOutputStream(outStream, 4096);
+    private void finishRejects() {
+        final RejectDump rejects = _rejects;
+        if (rejects == null) {
+            return;
+        }
+        _rejects = null;
+        if (rejects.getRows() > 0) {
+            HenPlus.msg().println(rejects.getRows() + " rows that could not be inserted written to " + rejects.getFile()
+                    + ", their errors to " + rejects.getErrorFile() + "; load them with dump-in once the problem is fixed.");
         }
-        return new PrintStream(outStream, false, encoding);
     }
 
-    private LineNumberReader openInputReader(final String fileName, final String fileEncoding) throws IOException {
-        final File f = _fileOpener.openFile(fileName);
-        InputStream inStream = new FileInputStream(f);
-        if (fileName.endsWith(".gz")) {
-            inStream = new GZIPInputStream(inStream);
+    /**
+     * add the statistics of a table to those of the running command.
+     */
+    private void addTableStats(final DumpStats.Table table) {
+        final DumpStats stats = _stats;
+        if (stats != null) {
+            stats.add(table);
         }
-        final Reader fileIn = new InputStreamReader(inStream, fileEncoding);
-        return new LineNumberReader(fileIn);
     }
 
-    // to make the field-name and field-type nicely aligned
-    private void printWidth(final PrintStream out, final String s, final int width, final boolean comma) {
-        if (comma) {
-            out.print(", ");
+    private void showStats() {
+        final DumpStats stats = _stats;
+        if (stats == null) {
+            HenPlus.msg().println("no dump statistics yet.");
+            return;
         }
-        out.print("'");
-        out.print(s);
-        out.print("'");
-        for (int i = s.length(); i < width; ++i) {
-            out.print(' ');
+        final int[] phases = stats.getPhases();
+        final boolean output = phases[0] == DumpStats.QUERY;
+        final int timeColumn = output ? 4 : 3;
+        final ColumnMetaData[] columns = new ColumnMetaData[timeColumn + phases.length];
+        columns[0] = new ColumnMetaData("table");
+        columns[1] = new ColumnMetaData("rows", ColumnMetaData.ALIGN_RIGHT);
+        columns[2] = new ColumnMetaData("bytes", ColumnMetaData.ALIGN_RIGHT);
+        if (output) {
+            columns[3] = new ColumnMetaData("compressed", ColumnMetaData.ALIGN_RIGHT);
         }
+        for (int i = 0; i < phases.length; ++i) {
+            columns[timeColumn + i] = new ColumnMetaData(DumpStats.getPhaseName(phases[i]), ColumnMetaData.ALIGN_RIGHT);
+        }
+        final List<DumpStats.Table> tables = stats.getTables();
+        HenPlus.msg().println(stats.getCommand() + " " + stats.getFileName() + ": " + tables.size() + " tables in "
+                + TimeRenderer.renderTime(stats.getElapsedTime()));
+        final TableRenderer table = new TableRenderer(columns, HenPlus.out());
+        for (final DumpStats.Table tableStats : tables) {
+            table.addRow(createStatsRow(tableStats, phases, timeColumn));
+        }
+        if (tables.size() > 1) {
+            table.addRow(createStatsRow(stats.getTotal(), phases, timeColumn));
+        }
+        table.closeTable();
+        HenPlus.msg().println("Phases on different threads overlap; the longest one limits the throughput.");
     }
 
-    private int dumpTable(final SQLSession session, final String tabName, final String whereClause, final PrintStream dumpOut,
-            final String fileEncoding, final Set<String> alreadyDumped) throws Exception {
-        final int result = dumpTable(session, tabName, whereClause, dumpOut, fileEncoding);
-        alreadyDumped.add(tabName);
-        return result;
+    private static Column[] createStatsRow(final DumpStats.Table tableStats, final int[] phases, final int timeColumn) {
+        final Column[] row = new Column[timeColumn + phases.length];
+        row[0] = new Column(tableStats.getName());
+        row[1] = new Column(tableStats.getRows());
+        row[2] = new Column(tableStats.getBytes());
+        if (timeColumn > 3) {
+            row[3] = new Column(tableStats.getCompressedBytes());
+        }
+        for (int i = 0; i < phases.length; ++i) {
+            final long micros = tableStats.getTime(phases[i]) / 1000;
+            row[timeColumn + i] = new Column(TimeRenderer.renderTime(micros / 1000, micros % 1000));
+        }
+        return row;
     }
 
-    private int dumpSelect(final SQLSession session, final String exportTable, final String statement, final PrintStream dumpOut,
-            final String fileEncoding) throws Exception {
-        return dumpTable(session, new SelectDumpSource(session, exportTable, statement), dumpOut, fileEncoding);
+    /**
+     * reads a dump and does a retry if the file encoding does not match. When loading into a database, the progress is
+     * recorded in a checkpoint at every commit; with resume, the part of the dump already committed according to that
+     * checkpoint is skipped.
+     */
+    private int retryReadDump(final String fileName, final SQLSession session, final int commitPoint, final boolean resume) {
+        beginInterruptableSection();
+        try {
+            final File file = _fileOpener.openFile(fileName);
+            DumpCheckpoint checkpoint = null;
+            if (session != null) {
+                checkpoint = new DumpCheckpoint(file);
+                if (resume) {
+                    if (!checkpoint.exists()) {
+                        Logger.error("no checkpoint %s found to resume from.", checkpoint.getFile());
+                        return EXEC_FAILED;
+                    }
+                    checkpoint.load();
+                    Logger.info("resuming after %d complete table dumps and %d rows of '%s'.", checkpoint.getSections(),
+                            checkpoint.getRows(), checkpoint.getTable());
+                } else if (checkpoint.exists()) {
+                    Logger.info("overwriting checkpoint of an earlier dump-in; use dump-in -r to continue it.");
+                }
+            }
+            final int result = readDump(file, session, commitPoint, null, checkpoint, null);
+            if (checkpoint != null && result == SUCCESS && _running) {
+                checkpoint.delete();
+            }
+            return result;
+        } catch (final Exception e) {
+            HenPlus.msg().println("failed: " + e.getMessage());
+            e.printStackTrace();
+            return EXEC_FAILED;
+        } finally {
+            endInterruptableSection();
+        }
     }
 
-    private int dumpTable(final SQLSession session, String tabName, final String whereClause, final PrintStream dumpOut,
-            final String fileEncoding) throws Exception {
-
-        // asking for meta data is only possible with the correct
-        // table name.
-        boolean correctName = true;
-        if (tabName.startsWith("\"")) {
-            // tabName = stripQuotes(tabName);
-            correctName = false;
+    /**
+     * read only the table sections of the given tables. The index at the end of the dump tells where they are, so that
+     * everything else in the dump is not even read. A dump without an index is read from start to end, skipping the
+     * sections of all other tables.
+     */
+    private int readDumpTables(final String fileName, final SQLSession session, final int commitPoint,
+            final List<String> tables) {
+        beginInterruptableSection();
+        try {
+            final File file = _fileOpener.openFile(fileName);
+            final DumpIndex index = DumpIndex.read(file);
+            if (index == null) {
+                // read through the dump; the sections of the other tables are skipped without parsing them.
+                final TableSelection selection = new TableSelection(tables);
+                final int result = readDump(file, session, commitPoint, null, null, selection);
+                if (result != SUCCESS || !_running) {
+                    return result;
+                }
+                final List<String> missing = selection.getMissing();
+                if (!missing.isEmpty()) {
+                    Logger.error("table '%s' not found in dump.", missing.get(0));
+                    return EXEC_FAILED;
+                }
+                return SUCCESS;
+            }
+            for (final String table : tables) {
+                if (index.getSections(Collections.singletonList(table)).isEmpty()) {
+                    Logger.error("table '%s' not found in dump.", table);
+                    return EXEC_FAILED;
+                }
+            }
+            final boolean binary = BinaryDumpReader.isBinaryDump(file);
+            for (final DumpIndex.Section section : index.getSections(tables)) {
+                final int result = readDumpSection(file, binary, section.getOffset(), session, commitPoint, null);
+                if (!_running) {
+                    HenPlus.msg().println("interrupted.");
+                    return result;
+                }
+                if (result != SUCCESS) {
+                    return result;
+                }
+            }
+            return SUCCESS;
+        } catch (final Exception e) {
+            HenPlus.msg().println("failed: " + e.getMessage());
+            return EXEC_FAILED;
+        } finally {
+            endInterruptableSection();
         }
+    }
 
-        // separate schama and table.
-        String schema = null;
-        final int schemaDelim = tabName.indexOf('.');
-        if (schemaDelim > 0) {
-            schema = tabName.substring(0, schemaDelim);
-            tabName = tabName.substring(schemaDelim + 1);
+    /**
+     * verify a dump. If it has an index, its table sections are verified in parallel on all processors, each of them read
+     * from its offset on; otherwise, the dump is read from start to end.
+     */
+    private int verifyDump(final String fileName) {
+        final File file = _fileOpener.openFile(fileName);
+        final DumpIndex index;
+        try {
+            index = DumpIndex.read(file);
+        } catch (final IOException e) {
+            HenPlus.msg().println("failed: " + e.getMessage());
+            return EXEC_FAILED;
+        }
+        final int threadCount = index == null ? 1 : Math.min(Runtime.getRuntime().availableProcessors(), index.getSections()
+                .size());
+        if (threadCount < 2) {
+            return retryReadDump(fileName, null, -1, false);
         }
+        return verifyDumpParallel(file, index, threadCount);
+    }
 
-        if (correctName) {
-            final String alternative = _tableCompleter.correctTableName(tabName);
-            if (alternative != null && !alternative.equals(tabName)) {
-                tabName = alternative;
-                HenPlus.out().println("dumping table: '" + tabName + "' (corrected name)");
+    private int verifyDumpParallel(final File file, final DumpIndex index, final int threadCount) {
+        final long startTime = System.currentTimeMillis();
+        beginInterruptableSection();
+        try {
+            final boolean binary = BinaryDumpReader.isBinaryDump(file);
+            final Queue<ParallelLoadJob> queue = new ConcurrentLinkedQueue<ParallelLoadJob>();
+            final List<ParallelLoadJob> jobs = new ArrayList<ParallelLoadJob>();
+            for (final DumpIndex.Section section : index.getSections()) {
+                final ParallelLoadJob job = new ParallelLoadJob(section.getTable(), file, section.getOffset());
+                jobs.add(job);
+                queue.add(job);
+            }
+            Logger.info("verifying %d tables with %d threads.", jobs.size(), threadCount);
+            final List<ParallelVerifyWorker> workers = new ArrayList<ParallelVerifyWorker>();
+            for (int i = 0; i < threadCount; ++i) {
+                final ParallelVerifyWorker worker = new ParallelVerifyWorker(i + 1, queue, binary);
+                workers.add(worker);
+                worker.start();
             }
+            for (final ParallelVerifyWorker worker : workers) {
+                worker.join();
+            }
+            int result = SUCCESS;
+            long totalRows = 0;
+            int failed = 0;
+            for (final ParallelLoadJob job : jobs) {
+                totalRows += job.getRows();
+                if (job.getResult() != SUCCESS) {
+                    result = job.getResult();
+                    ++failed;
+                }
+            }
+            if (!_running) {
+                HenPlus.msg().println("interrupted.");
+            } else if (failed > 0) {
+                Logger.error("%d of %d tables failed to verify.", failed, jobs.size());
+            } else {
+                HenPlus.msg().println("ok. ");
+            }
+            final long execTime = System.currentTimeMillis() - startTime;
+            HenPlus.msg().print("(" + totalRows + " rows total; ");
+            TimeRenderer.printTime(execTime, HenPlus.msg());
+            HenPlus.msg().print(" total; ");
+            TimeRenderer.printFraction(execTime, totalRows, HenPlus.msg());
+            HenPlus.msg().println(" / row)");
+            return result;
+        } catch (final Exception e) {
+            HenPlus.msg().println("failed: " + e.getMessage());
+            return EXEC_FAILED;
+        } finally {
+            endInterruptableSection();
         }
-        final TableDumpSource tableSource = new TableDumpSource(schema, tabName, session);
-        tableSource.setWhereClause(whereClause);
-        return dumpTable(session, tableSource, dumpOut, fileEncoding);
     }
 
-    private int dumpTable(final SQLSession session, final DumpSource dumpSource, final PrintStream dumpOut,
-            final String fileEncoding) throws Exception {
-        final long startTime = System.currentTimeMillis();
-        final MetaProperty[] metaProps = dumpSource.getMetaProperties();
-        if (metaProps.length == 0) {
-            HenPlus.msg().println("No fields in " + dumpSource.getDescription() + " found.");
-            return EXEC_FAILED;
+    /**
+     * read the table section starting at the given offset of the file. If a job is given, this is part of a parallel
+     * verify-dump.
+     */
+    private int readDumpSection(final File file, final boolean binary, final long offset, final SQLSession session,
+            final int commitPoint, final ParallelLoadJob job) throws Exception {
+        String fileEncoding = FILE_ENCODING;
+        for (;;) {
+            if (!binary && isMappable(file, fileEncoding)) {
+                final DumpLexer reader = new MappedDumpLexer(file, offset);
+                try {
+                    return readTableDump(reader, fileEncoding, session, session != null, commitPoint, job, null, 0, 0, null);
+                } catch (final EncodingMismatchException e) {
+                    fileEncoding = e.getEncoding();
+                    HenPlus.msg().println("got a different encoding; retry with " + fileEncoding);
+                    continue;
+                } finally {
+                    reader.close();
+                }
+            }
+            final FileInputStream fileIn = new FileInputStream(file);
+            InputStream in = fileIn;
+            try {
+                fileIn.getChannel().position(offset);
+                if (file.getName().endsWith(".gz")) {
+                    // the section starts a gzip member of its own.
+                    in = new GZIPInputStream(in, 65536);
+                }
+                if (binary) {
+                    final BinaryDumpReader reader = new BinaryDumpReader(new BufferedInputStream(in, 65536));
+                    if (!reader.beginSection()) {
+                        throw new IOException("no table section at offset " + offset);
+                    }
+                    return readBinaryTableDump(reader, session, session != null, commitPoint, job, null, 0, 0, null);
+                }
+                final DumpLexer reader = new DumpLexer(new InputStreamReader(in, fileEncoding));
+                return readTableDump(reader, fileEncoding, session, session != null, commitPoint, job, null, 0, 0, null);
+            } catch (final EncodingMismatchException e) {
+                if (!fileEncoding.equals(FILE_ENCODING)) {
+                    throw new Exception("got file encoding problem twice");
+                }
+                fileEncoding = e.getEncoding();
+                HenPlus.msg().println("got a different encoding; retry with " + fileEncoding);
+            } finally {
+                in.close();
+            }
         }
+    }
 
-        HenPlus.msg().println("dump " + dumpSource.getTableName() + ":");
+    /**
+     * reads all table dumps contained in the given file; does a retry if the file encoding does not match. If a job is given,
+     * this is part of a parallel dump-in. If a checkpoint is given, the progress is recorded there and the sections and rows it
+     * lists as already loaded are skipped. If a selection is given, only the sections of the tables it selects are read.
+     */
+    private int readDump(final File file, final SQLSession session, final int commitPoint, final ParallelLoadJob job,
+            final DumpCheckpoint checkpoint, final TableSelection selection) throws Exception {
+        final int skipSections = checkpoint != null ? checkpoint.getSections() : 0;
+        final long skipRows = checkpoint != null ? checkpoint.getRows() : 0;
+        if (BinaryDumpReader.isBinaryDump(file)) {
+            return readBinaryDump(file, session, commitPoint, job, checkpoint, skipSections, skipRows, selection);
+        }
+        final boolean hot = session != null;
+        String fileEncoding = FILE_ENCODING;
+        boolean retryPossible = true;
+        do {
+            final DumpLexer in = openInputReader(file, fileEncoding);
+            try {
+                int section = 0;
+                while (in.skipWhite()) {
+                    if (section < skipSections) {
+                        in.expect('(');
+                        in.skipList();
+                        ++section;
+                        continue;
+                    }
+                    final int result = readTableDump(in, fileEncoding, session, hot, commitPoint, job, checkpoint, section,
+                            section == skipSections ? skipRows : 0, selection);
+                    ++section;
+                    retryPossible = false;
+                    if (!_running) {
+                        if (job == null) {
+                            HenPlus.msg().println("interrupted.");
+                        }
+                        return result;
+                    }
+                    if (result != SUCCESS) {
+                        return result;
+                    }
+                }
+                retryPossible = false;
+            } catch (final EncodingMismatchException e) {
+                // did we already retry with another encoding?
+                if (!fileEncoding.equals(FILE_ENCODING)) {
+                    throw new Exception("got file encoding problem twice");
+                }
+                fileEncoding = e.getEncoding();
+                HenPlus.msg().println("got a different encoding; retry with " + fileEncoding);
+            } finally {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    HenPlus.msg().println("closing file failed.");
+                }
+            }
+        } while (retryPossible);
+        return SUCCESS;
+    }
 
-        dumpOut.println("(tabledump '" + dumpSource.getTableName() + "'");
-        dumpOut.println("  (file-encoding '" + fileEncoding + "')");
-        dumpOut.println("  (dump-version " + DUMP_VERSION + " " + DUMP_VERSION + ")");
-        /*
-         * if (whereClause != null) { dumpOut.print("  (where-clause ");
-         * quoteString(dumpOut, whereClause); dumpOut.println(")"); }
-         */
-        dumpOut.println("  (henplus-version '" + Version.getVersion() + "')");
-        dumpOut.println("  (time '" + new Timestamp(System.currentTimeMillis()) + "')");
-        dumpOut.print("  (database-info ");
-        quoteString(dumpOut, session.getDatabaseInfo());
-        dumpOut.println(")");
+    /**
+     * reads all table dumps contained in a binary dump file.
+     */
+    private int readBinaryDump(final File file, final SQLSession session, final int commitPoint, final ParallelLoadJob job,
+            final DumpCheckpoint checkpoint, final int skipSections, final long skipRows, final TableSelection selection)
+            throws Exception {
+        final BinaryDumpReader in = new BinaryDumpReader(openBinaryInputStream(file));
+        try {
+            int section = 0;
+            while (in.beginSection()) {
+                if (section < skipSections) {
+                    in.skipSection();
+                    ++section;
+                    continue;
+                }
+                final int result = readBinaryTableDump(in, session, session != null, commitPoint, job, checkpoint, section,
+                        section == skipSections ? skipRows : 0, selection);
+                ++section;
+                if (!_running) {
+                    if (job == null) {
+                        HenPlus.msg().println("interrupted.");
+                    }
+                    return result;
+                }
+                if (result != SUCCESS) {
+                    return result;
+                }
+            }
+            return SUCCESS;
+        } finally {
+            try {
+                in.close();
+            } catch (final IOException e) {
+                HenPlus.msg().println("closing file failed.");
+            }
+        }
+    }
 
-        final long expectedRows = dumpSource.getExpectedRows();
-        dumpOut.println("  (estimated-rows '" + expectedRows + "')");
+    /**
+     * read a dump with several workers in parallel, each on its own connection. The tables are grouped in levels according to
+     * their foreign key dependencies: a table is in a higher level than all tables it references. All tables of a level are
+     * loaded at the same time and committed; only then the next level starts.
+     * <p>
+     * Each worker reads its table section directly from the dump, starting at the offset given by the index at the end of
+     * the dump; an uncompressed dump without an index is scanned for the offsets first. Only a compressed dump without an
+     * index is split into one temporary file per table, in the directory given by the property dump-in-temp-dir.
+     */
+    private int readDumpParallel(final String fileName, final SQLSession session, final int commitPoint, final int workerCount) {
+        final long startTime = System.currentTimeMillis();
+        Map<String, File> tableFiles = null;
+        beginInterruptableSection();
+        try {
+            /* 1) find the table sections */
+            final File file = _fileOpener.openFile(fileName);
+            DumpIndex index = DumpIndex.read(file);
+            if (index == null && !file.getName().endsWith(".gz")) {
+                Logger.info("no index in dump; looking for the tables..");
+                index = new DumpIndex();
+                splitDump(file, null, index);
+            }
+            final Map<String, List<ParallelLoadJob>> tableJobs = new LinkedHashMap<String, List<ParallelLoadJob>>();
+            if (index != null) {
+                for (final DumpIndex.Section section : index.getSections()) {
+                    getJobs(tableJobs, section.getTable()).add(
+                            new ParallelLoadJob(section.getTable(), file, section.getOffset()));
+                }
+            } else {
+                Logger.info("no index in compressed dump; splitting it into tables in %s..", getTempDir());
+                tableFiles = splitDump(file, getTempDir(), null);
+                for (final Map.Entry<String, File> tableFile : tableFiles.entrySet()) {
+                    getJobs(tableJobs, tableFile.getKey()).add(
+                            new ParallelLoadJob(tableFile.getKey(), tableFile.getValue()));
+                }
+            }
+            if (!_running) {
+                HenPlus.msg().println("interrupted.");
+                return EXEC_FAILED;
+            }
+            if (tableJobs.isEmpty()) {
+                Logger.info("no tables found in dump.");
+                return SUCCESS;
+            }
 
-        dumpOut.print("  (meta (");
-        for (int i = 0; i < metaProps.length; ++i) {
-            final MetaProperty p = metaProps[i];
-            printWidth(dumpOut, p.fieldName, p.renderWidth(), i != 0);
+            /* 2) group tables into dependency levels */
+            final List<List<ParallelLoadJob>> levels = new ArrayList<List<ParallelLoadJob>>();
+            for (final List<String> tables : getDependencyLevels(session, tableJobs.keySet())) {
+                final List<ParallelLoadJob> level = new ArrayList<ParallelLoadJob>();
+                for (final String table : tables) {
+                    level.addAll(tableJobs.get(table));
+                }
+                levels.add(level);
+            }
+            return loadLevels(session, levels, commitPoint, workerCount, startTime);
+        } catch (final Exception e) {
+            HenPlus.msg().println("failed: " + e.getMessage());
+            return EXEC_FAILED;
+        } finally {
+            if (tableFiles != null) {
+                for (final File tableFile : tableFiles.values()) {
+                    tableFile.delete();
+                }
+            }
+            endInterruptableSection();
         }
-        dumpOut.println(")");
-        dumpOut.print("\t(");
-        for (int i = 0; i < metaProps.length; ++i) {
-            final MetaProperty p = metaProps[i];
-            printWidth(dumpOut, p.typeName, p.renderWidth(), i != 0);
+    }
+
+    private static List<ParallelLoadJob> getJobs(final Map<String, List<ParallelLoadJob>> tableJobs, final String table) {
+        List<ParallelLoadJob> jobs = tableJobs.get(table);
+        if (jobs == null) {
+            jobs = new ArrayList<ParallelLoadJob>();
+            tableJobs.put(table, jobs);
         }
-        dumpOut.println("))");
+        return jobs;
+    }
 
-        dumpOut.print("  (data ");
-        ResultSet rset = null;
-        Statement stmt = null;
+    /**
+     * the directory for the temporary files of dump-in.
+     */
+    private File getTempDir() {
+        final File tempDir = _tempDir;
+        return tempDir != null ? tempDir : new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * read or verify a dump written into a directory with several workers in parallel. The files are loaded in the
+     * dependency levels given by the manifest; with tables given, only their files are read. Verifying also compares the
+     * checksum of each file with the manifest.
+     */
+    private int readShards(final File directory, final SQLSession session, final int commitPoint, final int workerCount,
+            final List<String> tables) {
+        final long startTime = System.currentTimeMillis();
+        beginInterruptableSection();
         try {
-            long rows = 0;
-            final ProgressWriter progressWriter = new ProgressWriter(expectedRows, HenPlus.msg());
-            rset = dumpSource.getResultSet();
-            stmt = dumpSource.getStatement();
-            boolean isFirst = true;
-            while (_running && rset.next()) {
-                ++rows;
-                progressWriter.update(rows);
-                if (!isFirst) {
-                    dumpOut.print("\n\t");
+            final DumpManifest manifest = DumpManifest.read(directory);
+            for (final String table : tables) {
+                if (manifest.getShards(Collections.singletonList(table)).isEmpty()) {
+                    Logger.error("table '%s' not found in dump.", table);
+                    return EXEC_FAILED;
                 }
-                isFirst = false;
-                dumpOut.print("(");
+            }
+            final List<List<ParallelLoadJob>> levels = new ArrayList<List<ParallelLoadJob>>();
+            for (final DumpManifest.Shard shard : tables.isEmpty() ? manifest.getShards() : manifest.getShards(tables)) {
+                while (levels.size() <= shard.getLevel()) {
+                    levels.add(new ArrayList<ParallelLoadJob>());
+                }
+                final ParallelLoadJob job = new ParallelLoadJob(shard.getTable(), new File(directory, shard.getFileName()));
+                if (session == null) {
+                    job.setChecksum(shard.getChecksum());
+                }
+                levels.get(shard.getLevel()).add(job);
+            }
+            final Iterator<List<ParallelLoadJob>> it = levels.iterator();
+            while (it.hasNext()) {
+                if (it.next().isEmpty()) {
+                    it.remove();
+                }
+            }
+            if (levels.isEmpty()) {
+                Logger.info("no tables found in dump.");
+                return SUCCESS;
+            }
+            return loadLevels(session, levels, commitPoint, workerCount, startTime);
+        } catch (final Exception e) {
+            HenPlus.msg().println("failed: " + e.getMessage());
+            return EXEC_FAILED;
+        } finally {
+            endInterruptableSection();
+        }
+    }
 
-                for (int i = 0; i < metaProps.length; ++i) {
-                    final int col = i + 1;
-                    final int thisType = metaProps[i].getType();
-                    switch (thisType) {
-                        case HP_INTEGER:
-                        case HP_NUMERIC:
-                        case HP_DOUBLE: {
-                            final String val = rset.getString(col);
-                            if (rset.wasNull()) {
-                                dumpOut.print(NULL_STR);
-                            } else {
-                                dumpOut.print(val);
-                            }
-                            break;
+    /**
+     * load the jobs level by level with several workers, each on its own connection; all jobs of a level are loaded at the
+     * same time and committed, only then the next level starts. Without a session, the jobs are verified.
+     */
+    private int loadLevels(final SQLSession session, final List<List<ParallelLoadJob>> levels, final int commitPoint,
+            final int workerCount, final long startTime) throws InterruptedException {
+        final List<SQLSession> workerSessions = new ArrayList<SQLSession>();
+        try {
+            int maxLevelSize = 0;
+            final Set<String> tables = new HashSet<String>();
+            for (final List<ParallelLoadJob> level : levels) {
+                maxLevelSize = Math.max(maxLevelSize, level.size());
+                for (final ParallelLoadJob job : level) {
+                    tables.add(job.getTable());
+                }
+            }
+
+            /* 1) open the worker connections */
+            final int connections = Math.min(workerCount, maxLevelSize);
+            for (int i = 0; i < connections && _running; ++i) {
+                try {
+                    workerSessions.add(session != null ? new SQLSession(session) : null);
+                } catch (final Exception e) {
+                    Logger.error("cannot open connection for worker %d: %s", i + 1, e.getMessage());
+                    break;
+                }
+            }
+            if (workerSessions.isEmpty()) {
+                Logger.error("no worker connection available.");
+                return EXEC_FAILED;
+            }
+            Logger.info("%s %d tables in %d dependency levels with %d workers.", session != null ? "loading" : "verifying",
+                    tables.size(), levels.size(), workerSessions.size());
+
+            /* 2) load level by level */
+            int result = SUCCESS;
+            long totalRows = 0;
+            long totalProblems = 0;
+            for (int i = 0; i < levels.size() && _running && result == SUCCESS; ++i) {
+                final List<ParallelLoadJob> jobs = levels.get(i);
+                final List<String> level = new ArrayList<String>();
+                for (final ParallelLoadJob job : jobs) {
+                    level.add(job.getTable());
+                }
+                HenPlus.msg().println("level " + i + ": " + level);
+                final Queue<ParallelLoadJob> queue = new ConcurrentLinkedQueue<ParallelLoadJob>(jobs);
+                final List<ParallelLoadWorker> workers = new ArrayList<ParallelLoadWorker>();
+                for (int w = 0; w < workerSessions.size() && w < jobs.size(); ++w) {
+                    final ParallelLoadWorker worker = new ParallelLoadWorker(w + 1, workerSessions.get(w), queue, commitPoint);
+                    workers.add(worker);
+                    worker.start();
+                }
+                for (final ParallelLoadWorker worker : workers) {
+                    worker.join();
+                }
+                for (final ParallelLoadJob job : jobs) {
+                    totalRows += job.getRows();
+                    totalProblems += job.getProblemRows();
+                    if (job.getResult() != SUCCESS) {
+                        result = job.getResult();
+                    }
+                }
+            }
+            if (result != SUCCESS) {
+                Logger.error("%s a table failed; stopped after that level.", session != null ? "loading" : "verifying");
+            }
+            if (!_running) {
+                HenPlus.msg().println("interrupted.");
+            }
+            final long execTime = System.currentTimeMillis() - startTime;
+            HenPlus.msg().print("(" + totalRows + " rows total / " + totalProblems + " with errors; ");
+            TimeRenderer.printTime(execTime, HenPlus.msg());
+            HenPlus.msg().print(" total; ");
+            TimeRenderer.printFraction(execTime, totalRows, HenPlus.msg());
+            HenPlus.msg().println(" / row)");
+            return result;
+        } finally {
+            for (final SQLSession workerSession : workerSessions) {
+                if (workerSession != null) {
+                    workerSession.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * determine the foreign key dependency levels of the given tables. Level 0 contains all tables that do not reference any
+     * other of the tables, level n+1 those that only reference tables up to level n. Tables within cycles are placed after the
+     * tables of the cycle that are resolved first. Tables without meta data are loaded last.
+     */
+    private List<List<String>> getDependencyLevels(final SQLSession session, final Set<String> tables) {
+        final SQLMetaData meta = new SQLMetaDataBuilder().getMetaData(session, tables.iterator());
+        final Map<String, Integer> tableLevels = new HashMap<String, Integer>();
+        int maxLevel = -1;
+        if (meta != null) {
+            final ResolverResult resolverResult = new DependencyResolver(meta.getTables()).sortTables();
+            for (final Table table : resolverResult.getTables()) {
+                int level = 0;
+                final Set<ColumnFkInfo> fks = table.getForeignKeys();
+                if (fks != null) {
+                    for (final ColumnFkInfo fk : fks) {
+                        if (fk.getPkTable() == null || fk.getPkTable().equalsIgnoreCase(table.getName())) {
+                            continue;
+                        }
+                        final Integer parentLevel = tableLevels.get(fk.getPkTable().toLowerCase());
+                        if (parentLevel != null) {
+                            level = Math.max(level, parentLevel.intValue() + 1);
                         }
+                    }
+                }
+                tableLevels.put(table.getName().toLowerCase(), Integer.valueOf(level));
+                maxLevel = Math.max(maxLevel, level);
+            }
+        }
+        final List<List<String>> result = new ArrayList<List<String>>();
+        for (final String table : tables) {
+            final Integer tableLevel = tableLevels.get(table.toLowerCase());
+            final int level = tableLevel != null ? tableLevel.intValue() : maxLevel + 1;
+            while (result.size() <= level) {
+                result.add(new ArrayList<String>());
+            }
+            result.get(level).add(table);
+        }
+        // no empty levels, if some tables had no meta data.
+        final Iterator<List<String>> it = result.iterator();
+        while (it.hasNext()) {
+            if (it.next().isEmpty()) {
+                it.remove();
+            }
+        }
+        return result;
+    }
 
-                        case HP_TIMESTAMP: {
-                            final Timestamp val = rset.getTimestamp(col);
-                            if (rset.wasNull()) {
-                                dumpOut.print(NULL_STR);
-                            } else {
-                                quoteString(dumpOut, val.toString());
+    /**
+     * split a dump into one temporary file per table in the given directory. This only looks at the raw bytes of the file
+     * and tracks parentheses and quoted strings to find the top level table dumps; the table name is taken from the
+     * beginning of each of them. Multiple dumps of the same table end up in the same file.
+     * <p>
+     * If sections are given, the uncompressed dump is not split, but the offset of each table dump is added to them.
+     */
+    private Map<String, File> splitDump(final File file, final File tempDir, final DumpIndex sections) throws IOException {
+        if (BinaryDumpReader.isBinaryDump(file)) {
+            return splitBinaryDump(file, tempDir, sections);
+        }
+        final Map<String, File> result = new LinkedHashMap<String, File>();
+        InputStream in = new FileInputStream(file);
+        OutputStream out = null;
+        try {
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 65536);
+            }
+            final byte[] buffer = new byte[65536];
+            final ByteArrayOutputStream header = new ByteArrayOutputStream();
+            int depth = 0;
+            boolean inQuote = false;
+            boolean escaped = false;
+            long position = 0;
+            long sectionStart = 0;
+            int len;
+            for (; _running && (len = in.read(buffer)) > 0; position += len) {
+                int segmentStart = 0;
+                for (int i = 0; i < len; ++i) {
+                    final byte b = buffer[i];
+                    boolean headerComplete = false;
+                    if (inQuote) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '\'') {
+                            inQuote = false;
+                            // the first string contains the table name.
+                            headerComplete = out == null;
+                        }
+                    } else if (b == '\'') {
+                        inQuote = true;
+                    } else if (b == '(') {
+                        if (depth == 0) {
+                            header.reset();
+                            sectionStart = position + i;
+                        }
+                        ++depth;
+                    } else if (b == ')') {
+                        if (depth == 0) {
+                            throw new IOException("unbalanced parenthesis in dump");
+                        }
+                        --depth;
+                        if (depth == 0) {
+                            if (out == null) {
+                                throw new IOException("table name expected at start of table dump");
                             }
-                            break;
+                            out.write(buffer, segmentStart, i + 1 - segmentStart);
+                            out.write('\n');
+                            out.close();
+                            out = null;
+                            segmentStart = i + 1;
+                            continue;
                         }
-
-                        case HP_TIME: {
-                            final Time val = rset.getTime(col);
-                            if (rset.wasNull()) {
-                                dumpOut.print(NULL_STR);
-                            } else {
-                                quoteString(dumpOut, val.toString());
+                    }
+                    if (depth == 0) {
+                        segmentStart = i + 1; // whitespace between the table dumps.
+                    } else if (out == null) {
+                        header.write(b);
+                        segmentStart = i + 1;
+                        if (headerComplete) {
+                            final String tableName = parseTableName(header.toString(FILE_ENCODING));
+                            if (tableName == null) {
+                                out = DISCARD_OUTPUT; // the index at the end of the dump.
+                                continue;
                             }
-                            break;
+                            if (sections != null) {
+                                sections.add(tableName, -1, sectionStart);
+                                out = DISCARD_OUTPUT;
+                                continue;
+                            }
+                            File tableFile = result.get(tableName);
+                            if (tableFile == null) {
+                                tableFile = File.createTempFile("henplus-dump-", ".tmp", tempDir);
+                                result.put(tableName, tableFile);
+                            }
+                            out = new BufferedOutputStream(new FileOutputStream(tableFile, true), 65536);
+                            header.writeTo(out);
                         }
+                    }
+                }
+                if (out != null && segmentStart < len) {
+                    out.write(buffer, segmentStart, len - segmentStart);
+                }
+            }
+            if (out != null || depth != 0) {
+                throw new IOException("unexpected end of dump");
+            }
+            return result;
+        } catch (final IOException e) {
+            for (final File tableFile : result.values()) {
+                tableFile.delete();
+            }
+            throw e;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * split a binary dump into one temporary file per table in the given directory. The blocks of each table section are
+     * copied without decoding them. If sections are given, the offset of each table section is added to them instead.
+     */
+    private Map<String, File> splitBinaryDump(final File file, final File tempDir, final DumpIndex sections)
+            throws IOException {
+        final Map<String, File> result = new LinkedHashMap<String, File>();
+        final BinaryDumpReader in = new BinaryDumpReader(openBinaryInputStream(file));
+        try {
+            long sectionStart = in.getPosition();
+            while (_running && in.beginSection()) {
+                final String tableName = in.readString();
+                if (sections != null) {
+                    in.skipSection();
+                    sections.add(tableName, -1, sectionStart);
+                    sectionStart = in.getPosition();
+                    continue;
+                }
+                File tableFile = result.get(tableName);
+                if (tableFile == null) {
+                    tableFile = File.createTempFile("henplus-dump-", ".tmp", tempDir);
+                    result.put(tableName, tableFile);
+                }
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream(tableFile, true), 65536);
+                try {
+                    in.copySection(out);
+                } finally {
+                    out.close();
+                }
+            }
+            return result;
+        } catch (final IOException e) {
+            for (final File tableFile : result.values()) {
+                tableFile.delete();
+            }
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * get the table name out of the beginning of a table dump: (tabledump 'name'. Returns null for the index of the dump.
+     */
+    private String parseTableName(final String header) throws IOException {
+        final DumpLexer in = new DumpLexer(new StringReader(header), header.length() + 1);
+        in.expect('(');
+        final String token = in.readToken();
+        if (DumpIndex.TOKEN.equals(token)) {
+            return null;
+        }
+        if (!"tabledump".equals(token)) {
+            throw in.error("'tabledump' expected");
+        }
+        return in.readString();
+    }
+
+    /**
+     * open the dump file for writing; the text format is always written in {@link #FILE_ENCODING}. Files ending with .gz
+     * are compressed on all processors.
+     */
+    private DumpWriter openOutputStream(final String fileName) throws IOException {
+        final File f = _fileOpener.openFile(fileName);
+        OutputStream outStream = new FileOutputStream(f);
+        if (fileName.endsWith(".gz")) {
+            outStream = new ParallelGzipOutputStream(outStream, _compressionLevel, Runtime.getRuntime().availableProcessors());
+        }
+        final DumpWriter result = new DumpWriter(outStream);
+        // older releases read the index at the end of an uncompressed text dump as a table.
+        if (_binaryFormat || fileName.endsWith(".gz") || _writeTextIndex) {
+            result.setIndex(new DumpIndex());
+        }
+        return result;
+    }
+
+    /**
+     * write the index of the sections at the end of the dump, close the output after a successful dump and report the
+     * compression, if any.
+     */
+    private void finishOutput(final DumpWriter out) throws IOException {
+        if (out.getIndex() != null && !out.getIndex().write(out, _binaryFormat)) {
+            Logger.info("too many table sections for an index in a gzip header; dump written without index.");
+        }
+        out.close();
+        if (out.getOutputStream() instanceof ParallelGzipOutputStream) {
+            final ParallelGzipOutputStream gzip = (ParallelGzipOutputStream) out.getOutputStream();
+            final long time = Math.max(1, gzip.getElapsedTime());
+            Logger.info("compressed %.1f MB to %.1f MB on %d thread%s; %.1f MB/s written", gzip.getBytesIn() / 1e6,
+                    gzip.getBytesOut() / 1e6, gzip.getThreads(), gzip.getThreads() == 1 ? "" : "s", gzip.getBytesOut() / 1e3
+                            / time);
+        }
+    }
+
+    /**
+     * close the output after a failure; the original problem has already been reported.
+     */
+    private void closeOutput(final DumpWriter out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (final IOException e) {
+            Logger.error("closing dump file failed: %s", e.getMessage());
+        }
+    }
+
+    private InputStream openBinaryInputStream(final File f) throws IOException {
+        InputStream inStream = new FileInputStream(f);
+        if (f.getName().endsWith(".gz")) {
+            inStream = new GZIPInputStream(inStream, 65536);
+        }
+        return new BufferedInputStream(inStream, 65536);
+    }
+
+    private DumpLexer openInputReader(final File f, final String fileEncoding) throws IOException {
+        if (isMappable(f, fileEncoding)) {
+            return new MappedDumpLexer(f, 0);
+        }
+        InputStream inStream = new FileInputStream(f);
+        if (f.getName().endsWith(".gz")) {
+            inStream = new GZIPInputStream(inStream);
+        }
+        final Reader fileIn = new InputStreamReader(inStream, fileEncoding);
+        return new DumpLexer(fileIn);
+    }
+
+    /**
+     * uncompressed dumps in UTF-8 are scanned directly in the file mapped into memory.
+     */
+    private static boolean isMappable(final File f, final String fileEncoding) {
+        return !f.getName().endsWith(".gz") && FILE_ENCODING.equals(fileEncoding);
+    }
+
+    // to make the field-name and field-type nicely aligned
+    private void printWidth(final DumpWriter out, final String s, final int width, final boolean comma) throws IOException {
+        if (comma) {
+            out.print(", ");
+        }
+        out.print('\'');
+        out.print(s);
+        out.print('\'');
+        for (int i = s.length(); i < width; ++i) {
+            out.print(' ');
+        }
+    }
+
+    private int dumpTable(final SQLSession session, final String tabName, final String whereClause, final DumpWriter dumpOut,
+            final String fileEncoding, final Set<String> alreadyDumped) throws Exception {
+        final int result = dumpTable(session, tabName, whereClause, dumpOut, fileEncoding);
+        alreadyDumped.add(tabName);
+        return result;
+    }
+
+    /**
+     * dump the tables with several workers in parallel, each on its own connection. Each table is dumped into a temporary file
+     * first; these are then appended to the output in the given table sequence, so that the result looks exactly like a
+     * sequential dump. The largest tables are scheduled first, so that they do not end up as the long tail at the end.
+     * <p>
+     * With more than one part, large tables are split into ranges of their primary key; each range is dumped as a table
+     * section of its own, so several workers scan the same table at once. dump-in reads these sections one after another
+     * into the same table.
+     * <p>
+     * Without an output, the dump is written into the directory of the given name instead: each table, or range of a table,
+     * into a file of its own, that the workers write directly. Once all are complete, a {@link DumpManifest} lists them in
+     * the order of their foreign key dependencies.
+     */
+    private int dumpTablesParallel(final SQLSession session, final List<String> tableSequence, final String fileName,
+            final DumpWriter out, final int workerCount, final int partCount, final Set<String> alreadyDumped)
+            throws Exception {
+        final long startTime = System.currentTimeMillis();
+        final File directory = out == null ? _fileOpener.openFile(fileName).getAbsoluteFile() : null;
+        final File tempDir = out == null ? directory : _fileOpener.openFile(fileName).getAbsoluteFile().getParentFile();
+
+        /* 1) determine the size of each table; this is the base for scheduling */
+        final List<ParallelDumpJob> jobs = new ArrayList<ParallelDumpJob>();
+        for (final String table : new LinkedHashSet<String>(tableSequence)) {
+            if (!_running) {
+                break;
+            }
+            if (alreadyDumped.contains(table)) {
+                continue;
+            }
+            final TableDumpSource source = createTableDumpSource(session, table);
+            final long expectedRows = source.getExpectedRows();
+            List<String> ranges = null;
+            if (partCount > 1 && expectedRows >= partCount * MIN_PARTITION_ROWS) {
+                ranges = getKeyRanges(session, source, partCount);
+            }
+            if (ranges == null) {
+                jobs.add(new ParallelDumpJob(source.getSchema(), source.getTableName(), expectedRows,
+                        source.isExpectedRowsExact(), null, 1, 1));
+                continue;
+            }
+            Logger.info("splitting '%s' into %d key ranges.", source.getTableName(), ranges.size());
+            for (int i = 0; i < ranges.size(); ++i) {
+                jobs.add(new ParallelDumpJob(source.getSchema(), source.getTableName(), expectedRows / ranges.size(), false,
+                        ranges.get(i), i + 1, ranges.size()));
+            }
+        }
+        final List<ParallelDumpJob> schedule = new ArrayList<ParallelDumpJob>(jobs);
+        Collections.sort(schedule, new Comparator<ParallelDumpJob>() {
+
+            @Override
+            public int compare(final ParallelDumpJob a, final ParallelDumpJob b) {
+                if (a.getExpectedRows() == b.getExpectedRows()) {
+                    return 0;
+                }
+                return a.getExpectedRows() > b.getExpectedRows() ? -1 : 1;
+            }
+        });
+        final Queue<ParallelDumpJob> queue = new ConcurrentLinkedQueue<ParallelDumpJob>(schedule);
+        final int connections = Math.min(workerCount, jobs.size());
+        final int compressThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, connections));
+        if (directory != null) {
+            createShardFiles(directory, jobs);
+        }
+
+        /* 2) open the worker connections */
+        final List<ParallelDumpWorker> workers = new ArrayList<ParallelDumpWorker>();
+        try {
+            for (int i = 0; i < connections && _running; ++i) {
+                try {
+                    workers.add(new ParallelDumpWorker(i + 1, new SQLSession(session), queue, tempDir, compressThreads));
+                } catch (final Exception e) {
+                    Logger.error("cannot open connection for worker %d: %s", i + 1, e.getMessage());
+                    break;
+                }
+            }
+            if (workers.isEmpty()) {
+                Logger.error("no worker connection available.");
+                return EXEC_FAILED;
+            }
+            if (jobs.size() > new HashSet<String>(tableSequence).size()) {
+                Logger.info("dumping %d table sections with %d workers.", jobs.size(), workers.size());
+            } else {
+                Logger.info("dumping %d tables with %d workers.", jobs.size(), workers.size());
+            }
+            for (final ParallelDumpWorker worker : workers) {
+                worker.start();
+            }
+
+            /* 3) collect the results in the order dump-in needs them */
+            int result = SUCCESS;
+            final byte[] buffer = new byte[65536];
+            for (final ParallelDumpJob job : jobs) {
+                job.awaitCompletion();
+                final File tempFile = job.getTempFile();
+                try {
+                    if (job.getResult() != SUCCESS) {
+                        result = job.getResult();
+                    } else {
+                        alreadyDumped.add(job.getTable());
+                    }
+                    if (job.getResult() == SUCCESS && _running && out != null && tempFile != null) {
+                        final long offset = out.startSection();
+                        final InputStream in = new FileInputStream(tempFile);
+                        try {
+                            int len;
+                            while ((len = in.read(buffer)) > 0) {
+                                out.write(buffer, 0, len);
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        if (out.getIndex() != null) {
+                            out.getIndex().add(job.getTable(), job.getRows(), offset);
+                        }
+                    }
+                } finally {
+                    if (tempFile != null) {
+                        tempFile.delete();
+                    }
+                }
+            }
+            joinWorkers(workers);
+            if (directory != null) {
+                if (result == SUCCESS && _running) {
+                    writeManifest(session, directory, jobs);
+                } else {
+                    Logger.error("dump into %s incomplete; no manifest written.", directory);
+                }
+            }
+
+            /* 4) summary */
+            long totalRows = 0;
+            for (final ParallelDumpWorker worker : workers) {
+                totalRows += worker.getRows();
+                HenPlus.msg().println(
+                        "worker " + worker.getNumber() + ": " + worker.getTables() + " tables, " + worker.getRows()
+                                + " rows; busy " + TimeRenderer.renderTime(worker.getBusyTime()));
+            }
+            final long execTime = System.currentTimeMillis() - startTime;
+            HenPlus.msg().print("dumped " + totalRows + " rows with " + workers.size() + " workers in ");
+            TimeRenderer.printTime(execTime, HenPlus.msg());
+            HenPlus.msg().print(" total; ");
+            TimeRenderer.printFraction(execTime, totalRows, HenPlus.msg());
+            HenPlus.msg().println(" / row");
+            return result;
+        } finally {
+            // on failure, the workers finish their current job and take no more, before their connections are closed.
+            queue.clear();
+            joinWorkers(workers);
+            for (final ParallelDumpJob job : jobs) {
+                final File tempFile = job.getTempFile();
+                if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                    Logger.error("cannot remove temporary file %s", tempFile);
+                }
+            }
+            for (final ParallelDumpWorker worker : workers) {
+                worker.closeSession();
+            }
+        }
+    }
+
+    /**
+     * wait until all workers are done. An interrupt does not stop waiting; the workers still use their connections.
+     */
+    private void joinWorkers(final List<? extends Thread> workers) {
+        boolean interrupted = false;
+        for (final Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * the directory to dump into or to read from, if the file name names one: an existing directory, a name ending with a
+     * slash, or the manifest of a directory. Returns null for a dump file.
+     */
+    private File getShardDirectory(final String fileName) {
+        final File file = _fileOpener.openFile(fileName).getAbsoluteFile();
+        if (file.isDirectory() || fileName.endsWith("/") || fileName.endsWith(File.separator)) {
+            return file;
+        }
+        if (DumpManifest.FILE_NAME.equals(file.getName())) {
+            return file.getParentFile();
+        }
+        return null;
+    }
+
+    /**
+     * assign each job of a dump into the directory its file: named after the table and part, with the extension .dump.gz
+     * if the dump is compressed. The manifest of an earlier dump is removed, so that it does not describe the files while
+     * they are overwritten.
+     */
+    private void createShardFiles(final File directory, final List<ParallelDumpJob> jobs) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create directory " + directory);
+        }
+        final File manifest = DumpManifest.getFile(directory);
+        if (manifest.exists() && !manifest.delete()) {
+            throw new IOException("cannot remove " + manifest);
+        }
+        final String extension = _compressionLevel > 0 ? ".dump.gz" : ".dump";
+        final Set<String> names = new HashSet<String>();
+        for (final ParallelDumpJob job : jobs) {
+            final StringBuilder name = new StringBuilder();
+            for (int i = 0; i < job.getTable().length(); ++i) {
+                final char c = job.getTable().charAt(i);
+                name.append(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' ? c : '_');
+            }
+            if (job.getParts() > 1) {
+                name.append('.').append(job.getPart());
+            }
+            // names that only differ in case or in replaced characters get a number.
+            String fileName = name.toString();
+            for (int n = 2; !names.add(fileName.toLowerCase()); ++n) {
+                fileName = name.toString() + "-" + n;
+            }
+            job.setShardFile(new File(directory, fileName + extension));
+        }
+    }
+
+    /**
+     * write the manifest of a complete dump into the directory; the shards are ordered by the foreign key dependency levels
+     * of their tables.
+     */
+    private void writeManifest(final SQLSession session, final File directory, final List<ParallelDumpJob> jobs)
+            throws IOException {
+        final Set<String> tables = new LinkedHashSet<String>();
+        for (final ParallelDumpJob job : jobs) {
+            tables.add(job.getTable());
+        }
+        final DumpManifest manifest = new DumpManifest();
+        final List<List<String>> levels = getDependencyLevels(session, tables);
+        for (int level = 0; level < levels.size(); ++level) {
+            for (final String table : levels.get(level)) {
+                for (final ParallelDumpJob job : jobs) {
+                    if (job.getTable().equals(table)) {
+                        manifest.add(table, job.getShardFile().getName(), level, job.getRows(), job.getChecksum());
+                    }
+                }
+            }
+        }
+        manifest.write(directory);
+        Logger.info("wrote %d files and %s into %s.", manifest.getShards().size(), DumpManifest.FILE_NAME, directory);
+    }
+
+    /**
+     * open a file of a dump into a directory for writing. Files ending with .gz are compressed on the given number of
+     * threads.
+     */
+    private DumpWriter openShardOutput(final File file, final int compressThreads) throws IOException {
+        OutputStream outStream = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            outStream = new ParallelGzipOutputStream(outStream, _compressionLevel, compressThreads);
+        }
+        return new DumpWriter(outStream);
+    }
+
+    /**
+     * dump the rows of the table whose value in the given column is above the high-water mark of the previous run; the first
+     * run dumps all rows. The new high-water mark is determined before the dump and only rows up to it are dumped, so rows
+     * written while dumping are part of the next run. It is stored only once the dump is complete.
+     */
+    private int dumpIncremental(final SQLSession session, final String fileName, final String tabName, final String column)
+            throws Exception {
+        final TableDumpSource source = createTableDumpSource(session, tabName);
+        int columnType = -1;
+        String columnName = null;
+        for (final MetaProperty p : source.getMetaProperties()) {
+            if (p.fieldName.equalsIgnoreCase(column)) {
+                columnName = p.fieldName;
+                columnType = p.getType();
+            }
+        }
+        if (columnName == null) {
+            Logger.error("column '%s' not found in table '%s'", column, source.getTableName());
+            return EXEC_FAILED;
+        }
+        if (columnType != HP_INTEGER && columnType != HP_NUMERIC && columnType != HP_DOUBLE && columnType != HP_DATE
+                && columnType != HP_TIME && columnType != HP_TIMESTAMP && columnType != HP_STRING) {
+            Logger.error("column '%s' of type %s cannot be used as high-water mark", columnName, TYPES[columnType]);
+            return EXEC_FAILED;
+        }
+
+        if (_watermarks == null) {
+            _watermarks = HenPlus.getInstance().createConfigurationContainer(WATERMARKS_FILENAME);
+        }
+        final Map<String, String> marks = _watermarks.readProperties();
+        final String key = session.getURL() + "|" + session.getUsername() + "|" + source.getTableName() + "|" + columnName;
+        final String lastMark = marks.get(key);
+
+        final String newMark = getHighWaterMark(session, source.getTableName(), columnName, columnType, lastMark);
+        final StringBuilder where = new StringBuilder();
+        if (lastMark != null) {
+            where.append(columnName).append(" > ").append(lastMark);
+        }
+        if (newMark != null) {
+            where.append(where.length() > 0 ? " AND " : "").append(columnName).append(" <= ").append(newMark);
+        } else if (lastMark == null) {
+            where.append("1 = 0"); // empty table.
+        }
+        if (lastMark != null) {
+            Logger.info("dumping rows of '%s' with %s.", source.getTableName(), where);
+        } else {
+            Logger.info("no high-water mark of '%s' known; dumping all rows.", source.getTableName());
+        }
+        source.setWhereClause(where.toString());
+
+        DumpWriter out = openOutputStream(fileName);
+        int result;
+        try {
+            result = dumpTable(session, source, out, FILE_ENCODING);
+            finishOutput(out);
+            out = null;
+        } finally {
+            closeOutput(out);
+        }
+        if (result == SUCCESS && _running && newMark != null) {
+            marks.put(key, newMark);
+            _watermarks.storeProperties(marks, true, "high-water marks of dump-incremental");
+            Logger.info("new high-water mark of '%s': %s", source.getTableName(), newMark);
+        }
+        return result;
+    }
+
+    /**
+     * the maximum value of the column, as SQL literal; null, if there are no rows above the last high-water mark.
+     */
+    private String getHighWaterMark(final SQLSession session, final String table, final String column, final int type,
+            final String lastMark) throws SQLException {
+        final Statement stmt = session.createStatement();
+        try {
+            final StringBuilder query = new StringBuilder("SELECT max(").append(column).append(") FROM ").append(table);
+            if (lastMark != null) {
+                query.append(" WHERE ").append(column).append(" > ").append(lastMark);
+            }
+            final ResultSet rset = stmt.executeQuery(query.toString());
+            try {
+                if (!rset.next()) {
+                    return null;
+                }
+                // temporal values use the JDBC escape syntax, which every driver translates.
+                switch (type) {
+                    case HP_INTEGER:
+                    case HP_NUMERIC: {
+                        final BigDecimal value = rset.getBigDecimal(1);
+                        return value == null ? null : value.toPlainString();
+                    }
+                    case HP_DOUBLE: {
+                        // the shortest digits that read back as the same double, without an exponent.
+                        final double value = rset.getDouble(1);
+                        if (rset.wasNull()) {
+                            return null;
+                        }
+                        if (Double.isNaN(value) || Double.isInfinite(value)) {
+                            throw new SQLException("'" + value + "' cannot be used as high-water mark of " + column);
+                        }
+                        return BigDecimal.valueOf(value).toPlainString();
+                    }
+                    case HP_DATE: {
+                        final java.sql.Date value = rset.getDate(1);
+                        return value == null ? null : "{d '" + value + "'}";
+                    }
+                    case HP_TIME: {
+                        final Time value = rset.getTime(1);
+                        return value == null ? null : "{t '" + value + "'}";
+                    }
+                    case HP_TIMESTAMP: {
+                        final Timestamp value = rset.getTimestamp(1);
+                        return value == null ? null : "{ts '" + value + "'}";
+                    }
+                    case HP_STRING: {
+                        final String value = rset.getString(1);
+                        return value == null ? null : "'" + value.replace("'", "''") + "'";
+                    }
+                    default: {
+                        final String value = rset.getString(1);
+                        return rset.wasNull() ? null : value;
+                    }
+                }
+            } finally {
+                rset.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * split the table into the given number of ranges of the leading column of its primary key. Numeric keys are split
+     * evenly between their minimum and maximum; string keys at quantiles computed by the database. Returns the where clauses
+     * of the ranges; the first and last range are open, so no row is missed. Returns null, if the table cannot be split.
+     */
+    private List<String> getKeyRanges(final SQLSession session, final TableDumpSource source, final int parts)
+            throws SQLException {
+        final String keyColumn = getLeadingKeyColumn(session, source);
+        if (keyColumn == null) {
+            Logger.info("'%s' has no primary key; dumped as a whole.", source.getTableName());
+            return null;
+        }
+        int keyType = -1;
+        for (final MetaProperty p : source.getMetaProperties()) {
+            if (p.fieldName.equalsIgnoreCase(keyColumn)) {
+                keyType = p.getType();
+            }
+        }
+        final List<String> bounds;
+        if (keyType == HP_INTEGER || keyType == HP_NUMERIC) {
+            bounds = getNumericKeyBounds(session, source.getTableName(), keyColumn, parts);
+        } else if (keyType == HP_STRING) {
+            if (!hasNtile(session.getConnection().getMetaData())) {
+                Logger.info("no quantiles of the string key of '%s' on this database; dumped as a whole.",
+                        source.getTableName());
+                return null;
+            }
+            bounds = getQuantileKeyBounds(session, source.getTableName(), keyColumn, parts);
+        } else {
+            Logger.info("primary key of '%s' cannot be split; dumped as a whole.", source.getTableName());
+            return null;
+        }
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        final List<String> result = new ArrayList<String>();
+        result.add(keyColumn + " < " + bounds.get(0));
+        for (int i = 1; i < bounds.size(); ++i) {
+            result.add(keyColumn + " >= " + bounds.get(i - 1) + " AND " + keyColumn + " < " + bounds.get(i));
+        }
+        result.add(keyColumn + " >= " + bounds.get(bounds.size() - 1));
+        return result;
+    }
+
+    /**
+     * the first column of the primary key of the table; null, if it has none.
+     */
+    private String getLeadingKeyColumn(final SQLSession session, final TableDumpSource source) throws SQLException {
+        final PrimaryKey pk = new SQLMetaDataBuilder().getPrimaryKey(session.getConnection().getMetaData(),
+                source.getTableName());
+        if (pk == null) {
+            return null;
+        }
+        String result = null;
+        int resultIndex = Integer.MAX_VALUE;
+        for (final Map.Entry<String, ColumnPkInfo> entry : pk.getColumns().entrySet()) {
+            if (entry.getValue().getColumnIndex() < resultIndex) {
+                result = entry.getKey();
+                resultIndex = entry.getValue().getColumnIndex();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * the inner bounds of evenly sized ranges between the minimum and maximum key.
+     */
+    private List<String> getNumericKeyBounds(final SQLSession session, final String table, final String keyColumn,
+            final int parts) throws SQLException {
+        final List<String> result = new ArrayList<String>();
+        BigDecimal min = null;
+        BigDecimal max = null;
+        final Statement stmt = session.createStatement();
+        try {
+            final ResultSet rset = stmt.executeQuery("SELECT min(" + keyColumn + "), max(" + keyColumn + ") FROM " + table);
+            if (rset.next()) {
+                min = rset.getBigDecimal(1);
+                max = rset.getBigDecimal(2);
+            }
+            rset.close();
+        } finally {
+            stmt.close();
+        }
+        if (min == null || max == null) {
+            return result;
+        }
+        final int scale = Math.max(0, Math.max(min.scale(), max.scale()));
+        final BigDecimal step = max.subtract(min).divide(BigDecimal.valueOf(parts), scale, RoundingMode.FLOOR);
+        BigDecimal last = min;
+        for (int i = 1; i < parts; ++i) {
+            final BigDecimal bound = min.add(step.multiply(BigDecimal.valueOf(i)));
+            if (bound.compareTo(last) > 0) {
+                result.add(bound.toPlainString());
+                last = bound;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * whether the database has the window function NTILE, that {@link #getQuantileKeyBounds} needs.
+     */
+    private static boolean hasNtile(final DatabaseMetaData meta) throws SQLException {
+        final String product = meta.getDatabaseProductName();
+        if (product == null) {
+            return false;
+        }
+        for (final String prefix : NTILE_PRODUCTS) {
+            if (product.startsWith(prefix)) {
+                return true;
+            }
+        }
+        // window functions came with MySQL 8.
+        return product.startsWith("MySQL") && meta.getDatabaseMajorVersion() >= 8;
+    }
+
+    /**
+     * the smallest key of each quantile but the first. The database computes them with NTILE; only one key per range is
+     * sent back, instead of all keys of the table.
+     */
+    private List<String> getQuantileKeyBounds(final SQLSession session, final String table, final String keyColumn,
+            final int parts) throws SQLException {
+        final List<String> result = new ArrayList<String>();
+        final Statement stmt = session.createStatement();
+        try {
+            final ResultSet rset = stmt.executeQuery("SELECT min(" + keyColumn + ") FROM (SELECT " + keyColumn + ", NTILE("
+                    + parts + ") OVER (ORDER BY " + keyColumn + ") AS henplus_part FROM " + table
+                    + ") henplus_parts GROUP BY henplus_part ORDER BY henplus_part");
+            String lastKey = null;
+            boolean first = true;
+            while (rset.next()) {
+                final String key = rset.getString(1);
+                if (first) {
+                    first = false;
+                    lastKey = key;
+                    continue;
+                }
+                // the leading column of a key of several columns may repeat.
+                if (key != null && !key.equals(lastKey)) {
+                    result.add("'" + key.replace("'", "''") + "'");
+                    lastKey = key;
+                }
+            }
+            rset.close();
+        } finally {
+            stmt.close();
+        }
+        return result;
+    }
+
+    /**
+     * dump the subset of the database that starts with the rows of the table selected by the where clause; see
+     * {@link SubsetCollector}. The tables are written in the order of their foreign keys, each as one section with the rows
+     * selected by their primary keys; see {@link SubsetDumpSource}.
+     */
+    private int dumpSubset(final SQLSession session, final String tabName, final String whereClause, final int maxDepth,
+            final DumpWriter dumpOut) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        Logger.info("Retrieving the foreign keys of all tables. This may take a while, please be patient.");
+        final SQLMetaData meta = new SQLMetaDataBuilder().getMetaData(session,
+                _tableCompleter.getTableNamesForSession(session));
+        final SubsetCollector collector = new SubsetCollector(session.getConnection(), maxDepth);
+        for (final Table table : meta.getTables()) {
+            collector.addTable(table.getName(), getSingleKeyColumn(table));
+        }
+        for (final Table table : meta.getTables()) {
+            // a foreign key of several columns does not reference a single key.
+            final Map<String, Integer> fkColumns = new HashMap<String, Integer>();
+            final Iterator<henplus.sqlmodel.Column> columns = table.getColumnIterator();
+            while (columns.hasNext()) {
+                final ColumnFkInfo fk = columns.next().getFkInfo();
+                if (fk != null && fk.getFkName() != null) {
+                    final Integer count = fkColumns.get(fk.getFkName());
+                    fkColumns.put(fk.getFkName(), Integer.valueOf(count != null ? count.intValue() + 1 : 1));
+                }
+            }
+            final Set<String> compositeKeys = new HashSet<String>();
+            final Iterator<henplus.sqlmodel.Column> it = table.getColumnIterator();
+            while (it.hasNext()) {
+                final henplus.sqlmodel.Column column = it.next();
+                final ColumnFkInfo fk = column.getFkInfo();
+                if (fk == null) {
+                    continue;
+                }
+                if (fk.getFkName() == null || fkColumns.get(fk.getFkName()).intValue() == 1) {
+                    collector.addReference(table.getName(), column.getName(), fk.getPkTable(), fk.getPkColumn());
+                } else if (compositeKeys.add(fk.getFkName())) {
+                    collector.addUnfollowedReference(table.getName(), fk.getFkName() + " -> " + fk.getPkTable());
+                }
+            }
+        }
+
+        String rootTable = tabName;
+        final String alternative = _tableCompleter.correctTableName(tabName);
+        if (alternative != null && !alternative.equals(tabName)) {
+            rootTable = alternative;
+            HenPlus.out().println("dumping subset of table: '" + rootTable + "' (corrected name)");
+        }
+        collector.start(rootTable, whereClause);
+        while (_running && collector.step()) {
+            // one breadth-first step after the other, so that it can be interrupted.
+        }
+        if (!_running) {
+            HenPlus.msg().println("interrupted.");
+            return EXEC_FAILED;
+        }
+        final List<String> subset = collector.getTables();
+        Logger.info("%d tables in the subset, collected with %d queries.", subset.size(), collector.getQueries());
+        int unfollowed = 0;
+        for (final String table : subset) {
+            for (final String reference : collector.getUnfollowedReferences(table)) {
+                Logger.error("'%s': foreign key %s not followed; only primary keys of a single integer column are.",
+                        table, reference);
+                ++unfollowed;
+            }
+        }
+
+        int dumpResult = SUCCESS;
+        final ResolverResult resolverResult = new DependencyResolver(meta.getTables()).sortTables();
+        for (final Table table : resolverResult.getTables()) {
+            if (!_running) {
+                break;
+            }
+            if (!subset.contains(table.getName())) {
+                continue;
+            }
+            final int result = dumpTable(session, new SubsetDumpSource(table.getName(), session,
+                    collector.getKeyColumn(table.getName()), collector.getKeys(table.getName()).toSortedArray()), dumpOut,
+                    FILE_ENCODING);
+            if (result != SUCCESS) {
+                dumpResult = result;
+            }
+        }
+        final long duration = System.currentTimeMillis() - startTime;
+        HenPlus.msg().print("Dumping the subset of " + subset.size() + " tables took ");
+        TimeRenderer.printTime(duration, HenPlus.msg());
+        HenPlus.msg().println();
+        if (unfollowed > 0) {
+            HenPlus.msg().println(" == Warning: " + unfollowed + " foreign keys not followed, see above; rows of the subset"
+                    + " may be missing and the dump may fail to load where they are enforced ==");
+        }
+        return dumpResult;
+    }
+
+    /**
+     * the primary key column of the table; null, if the key has several columns or there is none.
+     */
+    private static String getSingleKeyColumn(final Table table) {
+        String result = null;
+        final Iterator<henplus.sqlmodel.Column> it = table.getColumnIterator();
+        while (it.hasNext()) {
+            final henplus.sqlmodel.Column column = it.next();
+            if (column.isPartOfPk()) {
+                if (result != null) {
+                    return null;
+                }
+                result = column.getName();
+            }
+        }
+        return result;
+    }
+
+    private int dumpSelect(final SQLSession session, final String exportTable, final String statement, final DumpWriter dumpOut,
+            final String fileEncoding) throws Exception {
+        return dumpTable(session, new SelectDumpSource(session, exportTable, statement), dumpOut, fileEncoding);
+    }
+
+    private int dumpTable(final SQLSession session, final String tabName, final String whereClause, final DumpWriter dumpOut,
+            final String fileEncoding) throws Exception {
+        final TableDumpSource tableSource = createTableDumpSource(session, tabName);
+        tableSource.setWhereClause(whereClause);
+        return dumpTable(session, tableSource, dumpOut, fileEncoding);
+    }
+
+    private TableDumpSource createTableDumpSource(final SQLSession session, String tabName) {
+        // asking for meta data is only possible with the correct
+        // table name.
+        boolean correctName = true;
+        if (tabName.startsWith("\"")) {
+            // tabName = stripQuotes(tabName);
+            correctName = false;
+        }
+
+        // separate schama and table.
+        String schema = null;
+        final int schemaDelim = tabName.indexOf('.');
+        if (schemaDelim > 0) {
+            schema = tabName.substring(0, schemaDelim);
+            tabName = tabName.substring(schemaDelim + 1);
+        }
+
+        if (correctName) {
+            final String alternative = _tableCompleter.correctTableName(tabName);
+            if (alternative != null && !alternative.equals(tabName)) {
+                tabName = alternative;
+                HenPlus.out().println("dumping table: '" + tabName + "' (corrected name)");
+            }
+        }
+        final TableDumpSource result = new TableDumpSource(schema, tabName, session);
+        result.setRowCounting(_rowCountMode != ROW_COUNT_EXACT ? ROW_ESTIMATOR : null, _rowCountMode != ROW_COUNT_ESTIMATE);
+        return result;
+    }
+
+    private int dumpTable(final SQLSession session, final DumpSource dumpSource, final DumpWriter dumpOut,
+            final String fileEncoding) throws Exception {
+        return dumpTable(session, dumpSource, dumpOut, fileEncoding, null);
+    }
+
+    /**
+     * dump the given source. If a job is given, this dump is part of a parallel dump: no progress is shown and the number of
+     * rows dumped is recorded in the job.
+     */
+    private int dumpTable(final SQLSession session, final DumpSource dumpSource, final DumpWriter dumpOut,
+            final String fileEncoding, final ParallelDumpJob job) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        final DumpStats.Table tableStats = new DumpStats.Table(dumpSource.getTableName()
+                + (job != null ? job.getPartDescription() : ""));
+        tableStats.beginOutput(dumpOut);
+        long queryStart = System.nanoTime();
+        final MetaProperty[] metaProps = dumpSource.getMetaProperties();
+        tableStats.add(DumpStats.QUERY, System.nanoTime() - queryStart);
+        if (metaProps.length == 0) {
+            HenPlus.msg().println("No fields in " + dumpSource.getDescription() + " found.");
+            return EXEC_FAILED;
+        }
+
+        if (job == null) {
+            HenPlus.msg().println("dump " + dumpSource.getTableName() + ":");
+        }
+        // sections of a parallel dump are indexed when they are copied to the dump file.
+        final long sectionOffset = job == null && dumpOut.getIndex() != null ? dumpOut.startSection() : -1;
+        if (_binaryFormat) {
+            return dumpTableBinary(session, dumpSource, metaProps, dumpOut, startTime, job, sectionOffset, tableStats);
+        }
+
+        queryStart = System.nanoTime();
+        final long expectedRows = dumpSource.getExpectedRows();
+        tableStats.add(DumpStats.QUERY, System.nanoTime() - queryStart);
+        // with a job, the where clause is one of several key ranges of this table.
+        printTableHeader(dumpOut, dumpSource.getTableName(), fileEncoding, DUMP_VERSION, getCompatibleVersion(metaProps),
+                job != null ? job.getWhereClause() : null, session.getDatabaseInfo(), expectedRows, metaProps);
+
+        dumpOut.print("  (data");
+        dumpOut.beginChecksum();
+        dumpOut.print(" ");
+        ResultSet rset = null;
+        RowFetcher fetcher = null;
+        try {
+            long rows = 0;
+            final ProgressWriter progressWriter = job == null ? new ProgressWriter(expectedRows, HenPlus.msg()) : null;
+            queryStart = System.nanoTime();
+            rset = dumpSource.getResultSet();
+            tableStats.add(DumpStats.QUERY, System.nanoTime() - queryStart);
+            final ColumnExtractor[] extractors = createExtractors(metaProps);
+            fetcher = new RowFetcher(dumpSource, rset, metaProps, extractors, tableStats);
+            boolean isFirst = true;
+            long busyTime = 0;
+            FetchedRow row;
+            while ((row = fetcher.next()) != null) {
+                final long rowStart = System.nanoTime();
+                ++rows;
+                if (progressWriter != null) {
+                    progressWriter.update(rows);
+                }
+                if (!isFirst) {
+                    dumpOut.print("\n\t");
+                }
+                isFirst = false;
+                dumpOut.print("(");
+
+                for (int i = 0; i < extractors.length; ++i) {
+                    if (i > 0) {
+                        dumpOut.print(',');
+                    }
+                    if (row.isNull(i)) {
+                        dumpOut.print(NULL_STR);
+                    } else {
+                        extractors[i].print(dumpOut, row, i);
+                    }
+                }
+                dumpOut.print(')');
+                fetcher.release();
+                busyTime += System.nanoTime() - rowStart;
+            }
+            dumpOut.print(")");
+            final long checksum = dumpOut.endChecksum();
+            dumpOut.println();
+            dumpOut.println("  (rows " + rows + ")");
+            dumpOut.println("  (checksum '" + formatChecksum(checksum) + "'))\n");
+            tableStats.endOutput(dumpOut, busyTime);
+            finishTableDump(dumpSource, rows, expectedRows, startTime, progressWriter, dumpSource.getStatement(), job,
+                    dumpOut, sectionOffset, tableStats);
+        } catch (final Exception e) {
+            // HenPlus.msg().println(selectStmt.toString());
+            throw e; // handle later.
+        } finally {
+            if (fetcher != null) {
+                fetcher.close();
+            }
+            // the statement of the last query, if the source runs several.
+            closeDumpSource(rset, dumpSource.getStatement());
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * the oldest dump version able to read a text dump of the given columns: readers of older versions can still read the
+     * section, unless BLOBs are encoded.
+     */
+    private static int getCompatibleVersion(final MetaProperty[] metaProps) {
+        for (int i = 0; i < metaProps.length; ++i) {
+            if (metaProps[i].getType() == HP_BLOB) {
+                return BASE64_BLOB_VERSION;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * the oldest binary dump version able to read a section of the given columns: the LOBs are written in chunks.
+     */
+    private static int getBinaryCompatibleVersion(final MetaProperty[] metaProps) {
+        for (int i = 0; i < metaProps.length; ++i) {
+            if (metaProps[i].getType() == HP_BLOB || metaProps[i].getType() == HP_CLOB) {
+                return CHUNKED_LOB_VERSION;
+            }
+        }
+        return 2;
+    }
+
+    /**
+     * print the beginning of a table section of a text dump, up to the data.
+     */
+    private void printTableHeader(final DumpWriter dumpOut, final String tableName, final String fileEncoding,
+            final int dumpVersion, final int compatibleVersion, final String whereClause, final String databaseInfo,
+            final long estimatedRows, final MetaProperty[] metaProps) throws IOException {
+        dumpOut.println("(tabledump '" + tableName + "'");
+        dumpOut.println("  (file-encoding '" + fileEncoding + "')");
+        dumpOut.println("  (dump-version " + dumpVersion + " " + compatibleVersion + ")");
+        if (whereClause != null) {
+            dumpOut.print("  (where-clause ");
+            dumpOut.printQuoted(whereClause);
+            dumpOut.println(")");
+        }
+        dumpOut.println("  (henplus-version '" + Version.getVersion() + "')");
+        dumpOut.println("  (time '" + new Timestamp(System.currentTimeMillis()) + "')");
+        dumpOut.print("  (database-info ");
+        dumpOut.printQuoted(databaseInfo);
+        dumpOut.println(")");
+        dumpOut.println("  (estimated-rows '" + estimatedRows + "')");
+
+        dumpOut.print("  (meta (");
+        for (int i = 0; i < metaProps.length; ++i) {
+            final MetaProperty p = metaProps[i];
+            printWidth(dumpOut, p.fieldName, p.renderWidth(), i != 0);
+        }
+        dumpOut.println(")");
+        dumpOut.print("\t(");
+        for (int i = 0; i < metaProps.length; ++i) {
+            final MetaProperty p = metaProps[i];
+            printWidth(dumpOut, p.typeName, p.renderWidth(), i != 0);
+        }
+        dumpOut.println("))");
+    }
+
+    /**
+     * dump the given source in the binary format.
+     */
+    private int dumpTableBinary(final SQLSession session, final DumpSource dumpSource, final MetaProperty[] metaProps,
+            final DumpWriter dumpOut, final long startTime, final ParallelDumpJob job, final long sectionOffset,
+            final DumpStats.Table tableStats) throws Exception {
+        final BinaryDumpWriter out = new BinaryDumpWriter(dumpOut);
+        out.beginSection(BINARY_DUMP_VERSION, getBinaryCompatibleVersion(metaProps));
+        out.writeString(dumpSource.getTableName());
+        out.writeString(Version.getVersion());
+        out.writeString(new Timestamp(System.currentTimeMillis()).toString());
+        out.writeString(session.getDatabaseInfo());
+        long queryStart = System.nanoTime();
+        final long expectedRows = dumpSource.getExpectedRows();
+        tableStats.add(DumpStats.QUERY, System.nanoTime() - queryStart);
+        out.writeLong(expectedRows);
+        out.writeVarLong(metaProps.length);
+        for (int i = 0; i < metaProps.length; ++i) {
+            out.writeString(metaProps[i].fieldName);
+            out.writeString(metaProps[i].typeName);
+        }
+        out.endHeader();
+
+        ResultSet rset = null;
+        RowFetcher fetcher = null;
+        try {
+            long rows = 0;
+            final ProgressWriter progressWriter = job == null ? new ProgressWriter(expectedRows, HenPlus.msg()) : null;
+            queryStart = System.nanoTime();
+            rset = dumpSource.getResultSet();
+            tableStats.add(DumpStats.QUERY, System.nanoTime() - queryStart);
+            fetcher = new RowFetcher(dumpSource, rset, metaProps, createExtractors(metaProps), tableStats);
+            long busyTime = 0;
+            FetchedRow row;
+            while ((row = fetcher.next()) != null) {
+                final long rowStart = System.nanoTime();
+                ++rows;
+                if (progressWriter != null) {
+                    progressWriter.update(rows);
+                }
+                out.beginRow(metaProps.length);
+                // all NULLs first: a row with a large LOB is written in more than one block.
+                for (int i = 0; i < metaProps.length; ++i) {
+                    if (row.isNull(i)) {
+                        out.setNull(i);
+                    }
+                }
+                for (int i = 0; i < metaProps.length; ++i) {
+                    if (!row.isNull(i)) {
+                        writeValue(out, metaProps[i].getType(), row, i);
+                    }
+                }
+                out.endRow();
+                fetcher.release();
+                busyTime += System.nanoTime() - rowStart;
+            }
+            out.endSection(rows);
+            tableStats.endOutput(dumpOut, busyTime);
+            finishTableDump(dumpSource, rows, expectedRows, startTime, progressWriter, dumpSource.getStatement(), job,
+                    dumpOut, sectionOffset, tableStats);
+        } finally {
+            if (fetcher != null) {
+                fetcher.close();
+            }
+            closeDumpSource(rset, dumpSource.getStatement());
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * report the result of a table dump and add it to the index of the dump, if it started at the given section offset, and
+     * to the statistics.
+     */
+    private void finishTableDump(final DumpSource dumpSource, final long rows, final long expectedRows, final long startTime,
+            final ProgressWriter progressWriter, final Statement stmt, final ParallelDumpJob job, final DumpWriter dumpOut,
+            final long sectionOffset, final DumpStats.Table tableStats) throws SQLException {
+        final long execTime = System.currentTimeMillis() - startTime;
+        tableStats.addRows(rows);
+        addTableStats(tableStats);
+        if (sectionOffset >= 0) {
+            dumpOut.getIndex().add(dumpSource.getTableName(), rows, sectionOffset);
+        }
+        if (job != null) {
+            job.setRows(rows);
+        } else {
+            progressWriter.finish();
+            HenPlus.msg().print("(" + rows + " rows)\n");
+
+            HenPlus.msg().print("dumping '" + dumpSource.getTableName() + "' took ");
+            TimeRenderer.printTime(execTime, HenPlus.msg());
+            HenPlus.msg().print(" total; ");
+            TimeRenderer.printFraction(execTime, rows, HenPlus.msg());
+            HenPlus.msg().println(" / row");
+        }
+        if (dumpSource.isExpectedRowsExact() && rows != expectedRows) {
+            HenPlus.msg().println(
+                    " == Warning: 'select count(*)' in the" + " beginning resulted in " + expectedRows + " but the dump of '"
+                            + dumpSource.getTableName() + "' exported " + rows + " rows == ");
+        }
+
+        if (!_running) {
+            HenPlus.msg().println(" == INTERRUPTED. Wait for statement to cancel.. ==");
+            if (stmt != null) {
+                stmt.cancel();
+            }
+        }
+    }
+
+    private void closeDumpSource(final ResultSet rset, final Statement stmt) {
+        if (rset != null) {
+            try {
+                rset.close();
+            } catch (final Exception e) {
+            }
+        }
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (final Exception e) {
+            }
+        }
+    }
+
+    /**
+     * the extractors of the columns of a dump, chosen by their types. LOBs are streamed.
+     */
+    private static ColumnExtractor[] createExtractors(final MetaProperty[] metaProps) {
+        final ColumnExtractor[] result = new ColumnExtractor[metaProps.length];
+        for (int i = 0; i < metaProps.length; ++i) {
+            result[i] = createExtractor(metaProps[i]);
+        }
+        return result;
+    }
+
+    private static ColumnExtractor createExtractor(final MetaProperty metaProp) {
+        switch (metaProp.getType()) {
+            case HP_INTEGER:
+                return ColumnExtractor.LONG;
+            case HP_NUMERIC:
+                return ColumnExtractor.DECIMAL;
+            case HP_DOUBLE:
+                return metaProp.getJdbcType() == Types.REAL ? ColumnExtractor.FLOAT : ColumnExtractor.DOUBLE;
+            case HP_TIMESTAMP:
+                return ColumnExtractor.TIMESTAMP;
+            case HP_TIME:
+                return ColumnExtractor.TIME;
+            case HP_DATE:
+                return ColumnExtractor.DATE;
+            case HP_BLOB:
+                return ColumnExtractor.BINARY_STREAM;
+            case HP_CLOB:
+                return ColumnExtractor.CHARACTER_STREAM;
+            case HP_STRING:
+                return ColumnExtractor.STRING;
+            case HP_BOOLEAN:
+                return ColumnExtractor.BOOLEAN;
+            default:
+                throw new IllegalArgumentException("type " + TYPES[metaProp.getType()] + " not supported yet");
+        }
+    }
+
+    /**
+     * print a value as it has been read from a dump, e.g. of a row that could not be inserted.
+     */
+    private void printLoadedValue(final DumpWriter dumpOut, final Object val) throws IOException {
+        if (val == null) {
+            dumpOut.print(NULL_STR);
+        } else if (val instanceof LobBuffer) {
+            final LobBuffer lob = (LobBuffer) val;
+            if (lob.isCharacters()) {
+                final Reader in = lob.openReader();
+                try {
+                    dumpOut.printQuoted(in);
+                } finally {
+                    in.close();
+                }
+            } else {
+                final InputStream in = lob.openStream();
+                try {
+                    dumpOut.printBase64(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } else if (val instanceof byte[]) {
+            dumpOut.printBase64(new ByteArrayInputStream((byte[]) val));
+        } else if (val instanceof Long || val instanceof Integer) {
+            dumpOut.print(((Number) val).longValue());
+        } else if (val instanceof BigDecimal) {
+            dumpOut.print(((BigDecimal) val).toPlainString());
+        } else if (val instanceof Number) {
+            dumpOut.print(val.toString());
+        } else if (val instanceof Timestamp) {
+            dumpOut.printQuoted((Timestamp) val);
+        } else if (val instanceof Time) {
+            dumpOut.printQuoted((Time) val);
+        } else if (val instanceof java.sql.Date) {
+            dumpOut.printQuoted((java.sql.Date) val);
+        } else if (val instanceof Boolean) {
+            dumpOut.print(((Boolean) val).booleanValue());
+        } else {
+            dumpOut.printQuoted(val.toString());
+        }
+    }
+
+    /**
+     * write the value, that is not null, of a column of a row read by a {@link RowFetcher} to the current row of a binary
+     * dump.
+     */
+    private void writeValue(final BinaryDumpWriter out, final int type, final FetchedRow row, final int column)
+            throws IOException {
+        if (type == HP_INTEGER) {
+            out.writeLong(row.getLong(column));
+            return;
+        }
+        if (type == HP_DOUBLE) {
+            out.writeDouble(row.getDouble(column));
+            return;
+        }
+        final Object val = row.getValue(column);
+        switch (type) {
+
+            case HP_NUMERIC:
+                out.writeDecimal((BigDecimal) val);
+                break;
+
+            case HP_TIMESTAMP:
+                out.writeTimestamp((Timestamp) val);
+                break;
+
+            case HP_TIME:
+                out.writeTime((Time) val);
+                break;
+
+            case HP_DATE:
+                out.writeDate((java.sql.Date) val);
+                break;
+
+            case HP_BLOB: {
+                final InputStream in = (InputStream) val;
+                try {
+                    out.writeLob(in);
+                } finally {
+                    in.close();
+                }
+                break;
+            }
+
+            case HP_CLOB: {
+                final Reader in = (Reader) val;
+                try {
+                    out.writeLob(in);
+                } finally {
+                    in.close();
+                }
+                break;
+            }
+
+            case HP_STRING:
+                out.writeString((String) val);
+                break;
+
+            case HP_BOOLEAN:
+                out.writeBoolean(((Boolean) val).booleanValue());
+                break;
+
+            default:
+                throw new IllegalArgumentException("type " + TYPES[type] + " not supported yet");
+        }
+    }
+
+    private Number readNumber(final DumpLexer in) throws IOException {
+        switch (in.readNumber()) {
+            case DumpLexer.NUMBER_LONG: {
+                final long value = in.getLong();
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return Integer.valueOf((int) value);
+                }
+                return Long.valueOf(value);
+            }
+            case DumpLexer.NUMBER_DOUBLE:
+                return Double.valueOf(in.getDouble());
+            case DumpLexer.NUMBER_DECIMAL:
+                return in.getDecimal();
+            default:
+                return null;
+        }
+    }
+
+    private int readTableDump(final DumpLexer reader, final String fileEncoding, final SQLSession session,
+            final boolean hot, final int commitPoint, final ParallelLoadJob job, final DumpCheckpoint checkpoint,
+            final int section, final long skipRows, final TableSelection selection) throws IOException, SQLException,
+            InterruptedException {
+        MetaProperty[] metaProperty = null;
+        String tableName = null;
+        int dumpVersion = -1;
+        int compatibleVersion = -1;
+        String henplusVersion = null;
+        String databaseInfo = null;
+        String dumpTime = null;
+        String whereClause = null;
+        String token;
+        long expectedRows = -1;
+        long estimatedRows = -1;
+        long dataChecksum = -1;
+        boolean damaged = false;
+
+        reader.expect('(');
+        token = reader.readToken();
+        if (DumpIndex.TOKEN.equals(token)) {
+            reader.skipList(); // the index at the end of the dump.
+            return SUCCESS;
+        }
+        if (!"tabledump".equals(token)) {
+            throw reader.error("'tabledump' expected");
+        }
+        tableName = reader.readString();
+        if (selection != null && !selection.select(tableName)) {
+            reader.skipList(); // not selected; its data is skipped without converting any value.
+            return SUCCESS;
+        }
+        if (skipRows > 0 && !tableName.equals(checkpoint.getTable())) {
+            throw reader.error("checkpoint is for table '" + checkpoint.getTable() + "', but the dump continues with '"
+                    + tableName + "'");
+        }
+        final long startPosition = reader.getPosition();
+        final TableLoader loader = new TableLoader(tableName, commitPoint, job);
+        try {
+            loader.setCheckpoint(checkpoint, section);
+            final long startTime = System.currentTimeMillis();
+            while (_running) {
+                reader.skipWhite();
+                final int rawChar = reader.read();
+                if (rawChar == -1) {
+                    return SUCCESS; // EOF reached.
+                }
+                char inCh = (char) rawChar;
+                if (inCh == ')') {
+                    break;
+                }
+                if (inCh != '(') {
+                    throw reader.error("'(' or ')' expected");
+                }
+                token = reader.readToken();
+
+                if ("dump-version".equals(token)) {
+                    token = reader.readToken();
+                    try {
+                        dumpVersion = Integer.valueOf(token).intValue();
+                    } catch (final Exception e) {
+                        throw reader.error("expected dump version number");
+                    }
+                    token = reader.readToken();
+                    try {
+                        compatibleVersion = Integer.valueOf(token).intValue();
+                    } catch (final Exception e) {
+                        throw reader.error("expected compatible version number");
+                    }
+                    checkSupported(compatibleVersion);
+                    reader.expect(')');
+                } else if ("file-encoding".equals(token)) {
+                    token = reader.readString();
+                    if (!token.equals(fileEncoding)) {
+                        throw new EncodingMismatchException(token);
+                    }
+                    reader.expect(')');
+                } else if ("henplus-version".equals(token)) {
+                    token = reader.readString();
+                    henplusVersion = token;
+                    reader.expect(')');
+                } else if ("rows".equals(token)) {
+                    token = reader.readToken();
+                    expectedRows = Integer.valueOf(token).intValue();
+                    reader.expect(')');
+                } else if ("checksum".equals(token)) {
+                    token = reader.readString();
+                    // only complete data is checksummed; a checksum of another algorithm is ignored.
+                    if (dataChecksum >= 0 && token.startsWith(CHECKSUM_ALGORITHM + " ")) {
+                        damaged = !token.equals(formatChecksum(dataChecksum));
+                    }
+                    reader.expect(')');
+                } else if ("estimated-rows".equals(token)) {
+                    token = reader.readString();
+                    estimatedRows = Integer.valueOf(token).intValue();
+                    reader.expect(')');
+                } else if ("database-info".equals(token)) {
+                    databaseInfo = reader.readString();
+                    reader.expect(')');
+                } else if ("where-clause".equals(token)) {
+                    whereClause = reader.readString();
+                    reader.expect(')');
+                } else if ("time".equals(token)) {
+                    dumpTime = reader.readString();
+                    reader.expect(')');
+                } else if ("meta".equals(token)) {
+                    if (dumpVersion < 0 || compatibleVersion < 0) {
+                        throw reader.error("cannot read meta data without dump-version information");
+                    }
+                    metaProperty = parseMetaData(reader);
+                } else if ("data".equals(token)) {
+                    if (metaProperty == null) {
+                        throw reader.error("no meta-data available");
+                    }
+                    if (tableName == null) {
+                        throw reader.error("no table name known");
+                    }
+                    if (hot) {
+                        loader.setRejectHeader(dumpVersion, compatibleVersion, databaseInfo);
+                        loader.prepare(session, metaProperty);
+                    }
+                    final ProgressWriter progressWriter = job != null ? null : beginTableImport(hot, tableName,
+                            henplusVersion, databaseInfo, dumpTime, dumpVersion, whereClause, estimatedRows);
+                    reader.beginChecksum();
+                    while (_running) {
+                        reader.skipWhite();
+                        inCh = (char) reader.read();
+                        if (inCh == ')') {
+                            dataChecksum = reader.endChecksum();
+                            break;
+                        }
+                        if (inCh != '(') {
+                            throw reader.error("'(' or ')' expected");
+                        }
+                        // we are now at the beginning of the row.
+                        if (progressWriter != null) {
+                            progressWriter.update(loader.getRows() + 1);
+                        }
+                        if (loader.getRows() < skipRows) {
+                            // already committed before.
+                            reader.skipList();
+                            loader.skipRow();
+                            continue;
+                        }
+                        final Object[] values = loader.nextRow(metaProperty.length);
+                        for (int i = 0; i < metaProperty.length; ++i) {
+                            final int type = metaProperty[i].type;
+                            switch (type) {
+                                case HP_NUMERIC:
+                                case HP_DOUBLE:
+                                case HP_INTEGER:
+                                    values[i] = readNumber(reader);
+                                    break;
+
+                                case HP_TIMESTAMP: {
+                                    final String val = reader.readString();
+                                    metaProperty[i].updateMaxLength(val);
+                                    values[i] = val == null ? null : Timestamp.valueOf(val);
+                                    break;
+                                }
+
+                                case HP_TIME: {
+                                    final String val = reader.readString();
+                                    metaProperty[i].updateMaxLength(val);
+                                    values[i] = val == null ? null : Time.valueOf(val);
+                                    break;
+                                }
+
+                                case HP_DATE: {
+                                    final String val = reader.readString();
+                                    metaProperty[i].updateMaxLength(val);
+                                    values[i] = val == null ? null : java.sql.Date.valueOf(val);
+                                    break;
+                                }
+
+                                case HP_BLOB:
+                                    if (dumpVersion < BASE64_BLOB_VERSION) {
+                                        // older dumps have the BLOB as the driver returned it as String.
+                                        final String val = reader.readString();
+                                        metaProperty[i].updateMaxLength(val);
+                                        values[i] = val;
+                                        break;
+                                    }
+                                    values[i] = readLob(reader, metaProperty[i]);
+                                    break;
+
+                                case HP_CLOB:
+                                    values[i] = readLob(reader, metaProperty[i]);
+                                    break;
+
+                                case HP_STRING: {
+                                    final String val = reader.readString();
+                                    metaProperty[i].updateMaxLength(val);
+                                    values[i] = val;
+                                    break;
+                                }
+                                case HP_BOOLEAN:
+                                    final String val = reader.readToken();
+                                    metaProperty[i].updateMaxLength(1);
+                                    values[i] = NULL_STR.equals(val) ? null : Boolean.valueOf(val);
+                                    break;
+
+                                default:
+                                    throw new IllegalArgumentException("type " + TYPES[metaProperty[i].type]
+                                            + " not supported yet");
+                            }
+                            reader.expect(i + 1 < metaProperty.length ? ',' : ')');
+                        }
+                        loader.addRow(values);
+                    }
+                    if (progressWriter != null) {
+                        progressWriter.finish();
+                    }
+                } else {
+                    HenPlus.msg().println("ignoring unknown token " + token);
+                    dumpTime = reader.readString();
+                    reader.expect(')');
+                }
+            }
+
+            loader.setBytes(reader.getPosition() - startPosition);
+            return finishTableImport(loader, metaProperty, hot, expectedRows, damaged, startTime, job);
+        } finally {
+            loader.abort();
+        }
+    }
+
+    /**
+     * read a BLOB or CLOB value of a text dump. Values small enough are returned as byte[] or String; larger ones as a
+     * {@link LobBuffer} that holds them in a temporary file.
+     */
+    private Object readLob(final DumpLexer reader, final MetaProperty metaProperty) throws IOException {
+        final boolean characters = metaProperty.type == HP_CLOB;
+        final LobBuffer lob = new LobBuffer(characters, LobBuffer.DEFAULT_MEMORY_LIMIT, getTempDir());
+        final Writer out = characters ? lob.getCharWriter() : lob.getBase64Writer();
+        try {
+            if (!reader.readString(out)) {
+                lob.dispose();
+                return null;
+            }
+            out.close();
+        } catch (final IOException e) {
+            lob.dispose();
+            throw e;
+        }
+        metaProperty.updateMaxLength((int) Math.min(lob.getLength(), Integer.MAX_VALUE));
+        if (lob.isInMemory()) {
+            final Object result = characters ? (Object) lob.toString() : lob.toByteArray();
+            lob.dispose();
+            return result;
+        }
+        return lob;
+    }
+
+    /**
+     * read a BLOB or CLOB value of a binary dump, like {@link #readLob(DumpLexer, MetaProperty)}.
+     */
+    private Object readLob(final BinaryDumpReader in, final MetaProperty metaProperty) throws IOException {
+        final boolean characters = metaProperty.type == HP_CLOB;
+        final LobBuffer lob = new LobBuffer(characters, LobBuffer.DEFAULT_MEMORY_LIMIT, getTempDir());
+        try {
+            in.readLob(lob);
+        } catch (final IOException e) {
+            lob.dispose();
+            throw e;
+        }
+        metaProperty.updateMaxLength((int) Math.min(lob.getLength(), Integer.MAX_VALUE));
+        if (lob.isInMemory()) {
+            final Object result = characters ? (Object) lob.toString() : lob.toByteArray();
+            lob.dispose();
+            return result;
+        }
+        return lob;
+    }
+
+    /**
+     * read the table section of a binary dump the reader is positioned at.
+     */
+    private int readBinaryTableDump(final BinaryDumpReader in, final SQLSession session, final boolean hot,
+            final int commitPoint, final ParallelLoadJob job, final DumpCheckpoint checkpoint, final int section,
+            final long skipRows, final TableSelection selection) throws IOException, SQLException {
+        if (in.getCompatibleVersion() > BINARY_DUMP_VERSION) {
+            throw new IllegalArgumentException("incompatible dump-version");
+        }
+        final boolean chunkedLobs = in.getVersion() >= CHUNKED_LOB_VERSION;
+        final String tableName = in.readString();
+        if (selection != null && !selection.select(tableName)) {
+            in.skipSection();
+            return SUCCESS;
+        }
+        final String henplusVersion = in.readString();
+        final String dumpTime = in.readString();
+        final String databaseInfo = in.readString();
+        final long estimatedRows = in.readLong();
+        final MetaProperty[] metaProperty = new MetaProperty[(int) in.readVarLong()];
+        for (int i = 0; i < metaProperty.length; ++i) {
+            metaProperty[i] = new MetaProperty(in.readString());
+            metaProperty[i].setTypeName(in.readString());
+        }
+
+        if (skipRows > 0 && !tableName.equals(checkpoint.getTable())) {
+            throw new IOException("checkpoint is for table '" + checkpoint.getTable() + "', but the dump continues with '"
+                    + tableName + "'");
+        }
+        final long startPosition = in.getBytesRead();
+        final TableLoader loader = new TableLoader(tableName, commitPoint, job);
+        try {
+            loader.setCheckpoint(checkpoint, section);
+            final long startTime = System.currentTimeMillis();
+            if (hot) {
+                // rejected rows are written as text dump.
+                loader.setRejectHeader(DUMP_VERSION, getCompatibleVersion(metaProperty), databaseInfo);
+                loader.prepare(session, metaProperty);
+            }
+            final ProgressWriter progressWriter = job != null ? null : beginTableImport(hot, tableName, henplusVersion,
+                    databaseInfo, dumpTime, in.getVersion(), null, estimatedRows);
+            while (_running && in.nextRow(metaProperty.length)) {
+                if (progressWriter != null) {
+                    progressWriter.update(loader.getRows() + 1);
+                }
+                final Object[] values = loader.nextRow(metaProperty.length);
+                for (int i = 0; i < metaProperty.length; ++i) {
+                    if (in.isNull(i)) {
+                        values[i] = null;
+                        continue;
+                    }
+                    switch (metaProperty[i].type) {
+                        case HP_INTEGER:
+                            values[i] = Long.valueOf(in.readLong());
+                            break;
+                        case HP_NUMERIC:
+                            values[i] = in.readDecimal();
+                            break;
+                        case HP_DOUBLE:
+                            values[i] = Double.valueOf(in.readDouble());
+                            break;
+                        case HP_TIMESTAMP:
+                            values[i] = in.readTimestamp();
+                            break;
+                        case HP_TIME:
+                            values[i] = in.readTime();
+                            break;
+                        case HP_DATE:
+                            values[i] = in.readDate();
+                            break;
+                        case HP_BLOB: {
+                            if (chunkedLobs) {
+                                values[i] = readLob(in, metaProperty[i]);
+                                break;
+                            }
+                            final byte[] val = in.readBytes();
+                            if (val != null) {
+                                metaProperty[i].updateMaxLength(val.length);
+                            }
+                            values[i] = val;
+                            break;
+                        }
+                        case HP_CLOB:
+                            if (chunkedLobs) {
+                                values[i] = readLob(in, metaProperty[i]);
+                                break;
+                            }
+                            // fall through: written as string before.
+                        case HP_STRING: {
+                            final String val = in.readString();
+                            metaProperty[i].updateMaxLength(val);
+                            values[i] = val;
+                            break;
+                        }
+                        case HP_BOOLEAN:
+                            values[i] = Boolean.valueOf(in.readBoolean());
+                            metaProperty[i].updateMaxLength(1);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("type " + TYPES[metaProperty[i].type] + " not supported yet");
+                    }
+                    if (!hot && values[i] instanceof java.util.Date) {
+                        metaProperty[i].updateMaxLength(values[i].toString());
+                    }
+                }
+                if (loader.getRows() < skipRows) {
+                    loader.skipRow(); // already committed before.
+                } else {
+                    loader.addRow(values);
+                }
+            }
+            if (progressWriter != null) {
+                progressWriter.finish();
+            }
+            final boolean damaged = in.getRows() >= 0 && !in.isChecksumValid();
+            loader.setBytes(in.getBytesRead() - startPosition);
+            return finishTableImport(loader, metaProperty, hot, in.getRows(), damaged, startTime, job);
+        } finally {
+            loader.abort();
+        }
+    }
+
+    /**
+     * print what is going to be imported and start showing the progress.
+     */
+    private ProgressWriter beginTableImport(final boolean hot, final String tableName, final String henplusVersion,
+            final String databaseInfo, final String dumpTime, final int dumpVersion, final String whereClause,
+            final long estimatedRows) {
+        HenPlus.msg().println(
+                (hot ? "importing" : "verifying") + " table dump created with HenPlus " + henplusVersion
+                        + "\nfor table           : " + tableName + "\nfrom database       : " + databaseInfo
+                        + "\nat                  : " + dumpTime + "\ndump format version : " + dumpVersion);
+        if (whereClause != null) {
+            HenPlus.msg().println("projection          : " + whereClause);
+        }
+        _running = true;
+        return new ProgressWriter(estimatedRows, HenPlus.msg());
+    }
+
+    /**
+     * finish loading a table and report the result. A table whose data does not match the checksum of the dump fails.
+     */
+    private int finishTableImport(final TableLoader loader, final MetaProperty[] metaProperty, final boolean hot,
+            final long expectedRows, final boolean damaged, final long startTime, final ParallelLoadJob job)
+            throws SQLException {
+        final long importedRows = loader.getRows();
+        loader.finish();
+
+        if (!hot && job == null) {
+            printMetaDataInfo(metaProperty);
+        }
+        if (damaged) {
+            HenPlus.msg().println("ERROR: checksum mismatch for table " + loader.getTableName() + "; the dump is damaged.");
+        }
+
+        if (job != null) {
+            if (expectedRows >= 0 && expectedRows != importedRows) {
+                HenPlus.msg().println("WARNING: expected " + expectedRows + " but got " + importedRows + " rows for "
+                        + loader.getTableName());
+            }
+            job.addRows(importedRows, loader.getProblemRows());
+            return damaged ? EXEC_FAILED : SUCCESS;
+        }
+        if (expectedRows >= 0 && expectedRows != importedRows) {
+            HenPlus.msg().println("WARNING: expected " + expectedRows + " but got " + importedRows + " rows");
+        } else if (!damaged) {
+            HenPlus.msg().println("ok. ");
+        }
+        HenPlus.msg().print("(" + importedRows + " rows total");
+        if (hot) {
+            HenPlus.msg().print(" / " + loader.getProblemRows() + " with errors");
+        }
+        HenPlus.msg().print("; ");
+        final long execTime = System.currentTimeMillis() - startTime;
+        TimeRenderer.printTime(execTime, HenPlus.msg());
+        HenPlus.msg().print(" total; ");
+        TimeRenderer.printFraction(execTime, importedRows, HenPlus.msg());
+        HenPlus.msg().println(" / row)");
+        return damaged ? EXEC_FAILED : SUCCESS;
+    }
+
+    private static String formatChecksum(final long checksum) {
+        return String.format("%s %08x", CHECKSUM_ALGORITHM, checksum);
+    }
+
+    public MetaProperty[] parseMetaData(final DumpLexer in) throws IOException {
+        final List<MetaProperty> metaList = new ArrayList<MetaProperty>();
+        in.expect('(');
+        while (true) {
+            final String colName = in.readString();
+            metaList.add(new MetaProperty(colName));
+            in.skipWhite();
+            final char inCh = (char) in.read();
+            if (inCh == ')') {
+                break;
+            }
+            if (inCh != ',') {
+                throw in.error("',' or ')' expected");
+            }
+        }
+        in.expect('(');
+        final MetaProperty[] result = metaList.toArray(new MetaProperty[metaList.size()]);
+        for (int i = 0; i < result.length; ++i) {
+            final String typeName = in.readString();
+            result[i].setTypeName(typeName);
+            in.expect(i + 1 < result.length ? ',' : ')');
+        }
+        in.expect(')');
+        return result;
+    }
+
+    /**
+     * Reads the rows of a dump source for dump-out. The rows are fetched from the result set on a thread of their own into a
+     * {@link RowRing} of reused rows, while the calling thread formats and writes the rows fetched so far; .gz dumps are
+     * compressed on further threads by the {@link ParallelGzipOutputStream}. The fetching thread waits while it is
+     * {@link #PIPELINE_ROWS} rows ahead. LOB columns are streamed from the current row of the result set, so if a table has
+     * any, its rows are fetched on the calling thread one by one instead.
+     * <p>
+     * Values are read into {@link FetchedRow}s, integers and floating point numbers as primitives, so that a row allocates
+     * nothing for them. The time spent fetching and waiting for rows is added to the statistics of the table when the
+     * fetcher is closed. If the source selects its rows with several queries, the rows of the next one follow once a result
+     * set is done.
+     */
+    private class RowFetcher {
+
+        private final String _tableName;
+        private final DumpSource _source;
+        private ResultSet _rset;
+        private final ColumnExtractor[] _extractors;
+        private final DumpStats.Table _tableStats;
+        private RowRing<FetchedRow> _ring;
+        private Thread _fetcher;
+        private volatile Throwable _fetchError;
+        private FetchedRow _row;
+        private long _fetchTime;
+        private long _waitTime;
+
+        RowFetcher(final DumpSource source, final ResultSet rset, final MetaProperty[] metaProps,
+                final ColumnExtractor[] extractors, final DumpStats.Table tableStats) {
+            _tableName = source.getTableName();
+            _source = source;
+            _rset = rset;
+            _extractors = extractors;
+            _tableStats = tableStats;
+            boolean lobs = false;
+            for (int i = 0; i < metaProps.length; ++i) {
+                lobs |= metaProps[i].getType() == HP_BLOB || metaProps[i].getType() == HP_CLOB;
+            }
+            if (lobs) {
+                _row = new FetchedRow(metaProps.length);
+            } else {
+                startFetcher(PIPELINE_ROWS);
+            }
+        }
+
+        /**
+         * the next row; null, if there are no more rows or the dump has been interrupted. The row is valid until
+         * {@link #release()} is called.
+         */
+        public FetchedRow next() throws IOException, SQLException {
+            if (_ring == null) {
+                final long start = System.nanoTime();
+                try {
+                    if (!_running || !nextRow()) {
+                        return null;
+                    }
+                    fetchRow(_row);
+                    return _row;
+                } finally {
+                    _fetchTime += System.nanoTime() - start;
+                }
+            }
+            final FetchedRow row;
+            final long start = System.nanoTime();
+            try {
+                row = _ring.take();
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("interrupted while waiting for the database");
+            } finally {
+                _waitTime += System.nanoTime() - start;
+            }
+            if (row == null && _fetchError != null) {
+                throw getFetchError();
+            }
+            return row;
+        }
+
+        /**
+         * the row got from {@link #next()} has been written and may be reused.
+         */
+        public void release() {
+            if (_ring != null) {
+                _ring.release();
+            }
+        }
+
+        /**
+         * stop fetching, wait for the fetching thread to end and add the times to the statistics.
+         */
+        public void close() {
+            if (_fetcher != null) {
+                _ring.cancel();
+                try {
+                    _fetcher.join();
+                } catch (final InterruptedException e) {
+                    // the thread ends with its current row anyway.
+                }
+                _fetcher = null;
+            }
+            _tableStats.add(DumpStats.FETCH, _fetchTime);
+            _tableStats.add(DumpStats.WAIT, _waitTime);
+        }
+
+        private void startFetcher(final int capacity) {
+            _ring = new RowRing<FetchedRow>(FetchedRow.createRows(capacity, _extractors.length));
+            _fetcher = new Thread("fetch-" + _tableName) {
+                @Override
+                public void run() {
+                    try {
+                        long start = System.nanoTime();
+                        while (_running && nextRow()) {
+                            _fetchTime += System.nanoTime() - start;
+                            final FetchedRow row = _ring.claim();
+                            if (row == null) {
+                                return;
+                            }
+                            start = System.nanoTime();
+                            fetchRow(row);
+                            _ring.publish();
+                        }
+                        _fetchTime += System.nanoTime() - start;
+                        _ring.close();
+                    } catch (final Throwable e) {
+                        _fetchError = e;
+                        _ring.cancel();
+                    }
+                }
+            };
+            _fetcher.setDaemon(true);
+            _fetcher.start();
+        }
+
+        private SQLException getFetchError() {
+            if (_fetchError instanceof SQLException) {
+                return (SQLException) _fetchError;
+            }
+            final SQLException result = new SQLException("fetching rows failed: " + _fetchError);
+            result.initCause(_fetchError);
+            return result;
+        }
+
+        /**
+         * move to the next row, of the current or the next result set of the source.
+         */
+        private boolean nextRow() throws SQLException {
+            while (!_rset.next()) {
+                final ResultSet next = _source.nextResultSet();
+                if (next == null) {
+                    return false;
+                }
+                _rset = next;
+            }
+            return true;
+        }
+
+        private void fetchRow(final FetchedRow row) throws SQLException {
+            for (int i = 0; i < _extractors.length; ++i) {
+                _extractors[i].fetch(_rset, row, i);
+            }
+        }
+    }
+
+    /**
+     * Inserts the rows of one table dump, independent of the format they have been read from. Rows are sent in batches if the
+     * driver supports it; if a batch fails, the rows not inserted are retried one at a time so that each bad row is reported.
+     * Without a prepared statement (verify-dump), rows are only counted.
+     * <p>
+     * Rows are inserted on a thread of their own, so that reading the dump goes on while the database works. The reading
+     * thread fills the rows it gets from {@link #nextRow(int)} and passes them on with {@link #addRow(Object[])}; they are
+     * taken from a {@link RowRing} of reused rows, so that the reading thread waits if it gets too far ahead. If inserting
+     * fails, the error is thrown to the reading thread.
+     * <p>
+     * The time each thread spends is added to the statistics of the table when the loader is finished: reading is all the
+     * time of the reading thread except waiting for the inserting thread.
+     */
+    private class TableLoader {
+
+        private final String _tableName;
+        private final int _commitPoint;
+        private final ParallelLoadJob _job;
+        private final ProblemReporter _problems;
+        private MetaProperty[] _metaProperty;
+        private Connection _conn;
+        private InsertStrategy _inserts;
+        private long _rows;
+        private long _problemRows;
+        private DumpCheckpoint _checkpoint;
+        private int _section;
+        private final List<Closeable> _lobStreams = new ArrayList<Closeable>();
+        /** the rows inserted or skipped; only used by the inserting thread once it runs */
+        private long _insertedRows;
+        private RowRing<Object[]> _ring;
+        private Thread _inserter;
+        private volatile Throwable _insertError;
+        private Object[] _row;
+        private final long _startTime;
+        private long _bytes;
+        private long _waitTime;
+        private long _commitTime;
+        private RejectSection _rejectSection;
+
+        TableLoader(final String tableName, final int commitPoint, final ParallelLoadJob job) {
+            _tableName = tableName;
+            _commitPoint = commitPoint;
+            _job = job;
+            _problems = new ProblemReporter(job != null ? "[" + tableName + "] " : "");
+            _startTime = System.nanoTime();
+        }
+
+        public String getTableName() {
+            return _tableName;
+        }
+
+        public long getRows() {
+            return _rows;
+        }
+
+        public long getProblemRows() {
+            return _problemRows;
+        }
+
+        /**
+         * record the progress in the given checkpoint on each commit; this loader reads the table section with the given
+         * number, starting with zero.
+         */
+        public void setCheckpoint(final DumpCheckpoint checkpoint, final int section) {
+            _checkpoint = checkpoint;
+            _section = section;
+        }
+
+        /**
+         * write the rows that cannot be inserted to the reject dump of the running dump-in, if any, with the given header
+         * information of the table section they are read from.
+         */
+        public void setRejectHeader(final int dumpVersion, final int compatibleVersion, final String databaseInfo) {
+            final RejectDump rejects = _rejects;
+            if (rejects != null) {
+                _rejectSection = new RejectSection(rejects, _tableName, dumpVersion, compatibleVersion, databaseInfo);
+            }
+        }
+
+        /**
+         * the bytes of the dump read for this table, for the statistics.
+         */
+        public void setBytes(final long bytes) {
+            _bytes = bytes;
+        }
+
+        /**
+         * count a row that has been loaded before.
+         */
+        public void skipRow() {
+            ++_rows;
+            ++_insertedRows;
+        }
+
+        /**
+         * prepare inserting into the given columns with the insert strategy of the session.
+         */
+        public void prepare(final SQLSession session, final MetaProperty[] metaProperty) throws SQLException {
+            _metaProperty = metaProperty;
+            final String[] columns = new String[metaProperty.length];
+            for (int i = 0; i < metaProperty.length; ++i) {
+                columns[i] = metaProperty[i].fieldName;
+            }
+            if (_rejectSection != null) {
+                _rejectSection.setMetaProperty(metaProperty);
+            }
+            _conn = session.getConnection();
+            final InsertStrategy.RowBinder binder = new InsertStrategy.RowBinder() {
+                @Override
+                public void bindValue(final PreparedStatement stmt, final int parameter, final int column,
+                        final Object value) throws SQLException {
+                    TableLoader.this.bindValue(stmt, parameter, column, value);
+                }
+            };
+            final InsertStrategy.FailureHandler failureHandler = new InsertStrategy.FailureHandler() {
+                @Override
+                public void rowFailed(final Object[] values, final SQLException e) {
+                    String msg = e.getMessage();
+                    // oracle adds CR for some reason.
+                    if (msg != null) {
+                        msg = msg.trim();
+                    }
+                    _problems.report(msg);
+                    ++_problemRows;
+                    reject(values, msg);
+                }
+            };
+            if (_merge) {
+                _inserts = InsertStrategy.createMerge(session.getInsertStrategy(), _conn, _tableName, columns,
+                        getKeyColumns(columns), _batchSize, binder, failureHandler);
+            } else {
+                _inserts = InsertStrategy.create(session.getInsertStrategy(), _conn, _tableName, columns, _batchSize,
+                        binder, failureHandler);
+            }
+        }
+
+        /**
+         * the indexes of the columns of the primary key of the table, to update rows by.
+         */
+        private int[] getKeyColumns(final String[] columns) throws SQLException {
+            final PrimaryKey pk = new SQLMetaDataBuilder().getPrimaryKey(_conn.getMetaData(), _tableName);
+            if (pk == null || pk.getColumns().isEmpty()) {
+                throw new SQLException("cannot merge into " + _tableName + ": it has no primary key");
+            }
+            final int[] result = new int[pk.getColumns().size()];
+            int n = 0;
+            for (final String keyColumn : pk.getColumns().keySet()) {
+                for (int i = 0; i < columns.length; ++i) {
+                    if (keyColumn.equalsIgnoreCase(columns[i])) {
+                        result[n++] = i;
+                        break;
+                    }
+                }
+            }
+            if (n < result.length) {
+                throw new SQLException("cannot merge into " + _tableName + ": the dump lacks columns of its primary key "
+                        + pk.getColumns().keySet());
+            }
+            return result;
+        }
+
+        private void reject(final Object[] values, final String msg) {
+            if (_rejectSection == null) {
+                return;
+            }
+            try {
+                _rejectSection.add(values, msg);
+            } catch (final IOException e) {
+                Logger.error("cannot write rejected rows of %s: %s", _tableName, e.getMessage());
+                _rejectSection.discard();
+                _rejectSection = null;
+            }
+        }
+
+        private void finishRejectSection() {
+            if (_rejectSection == null) {
+                return;
+            }
+            try {
+                _rejectSection.finish();
+            } catch (final IOException e) {
+                Logger.error("cannot write rejected rows of %s: %s", _tableName, e.getMessage());
+                _rejectSection.discard();
+            }
+            _rejectSection = null;
+        }
+
+        /**
+         * the row to fill with the values of the next row of the dump; waits while the inserting thread is too far behind.
+         * Rows are reused, so all values are to be set.
+         */
+        public Object[] nextRow(final int columns) throws IOException, SQLException {
+            if (_inserts == null) {
+                if (_row == null || _row.length != columns) {
+                    _row = new Object[columns];
+                }
+                return _row;
+            }
+            if (_inserter == null) {
+                startInserter();
+            }
+            final Object[] row;
+            final long start = System.nanoTime();
+            try {
+                row = _ring.claim();
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("interrupted while waiting for the database");
+            } finally {
+                _waitTime += System.nanoTime() - start;
+            }
+            if (row == null) {
+                throw getInsertError();
+            }
+            return row;
+        }
+
+        /**
+         * pass on the row got from {@link #nextRow(int)}, filled with values.
+         */
+        public void addRow(final Object[] values) throws SQLException {
+            ++_rows;
+            if (_inserter != null) {
+                _ring.publish();
+            } else {
+                insertRow(values);
+            }
+        }
+
+        private void startInserter() {
+            _ring = RowRing.create(Math.max(PIPELINE_ROWS, 2 * _inserts.getRowsPerExecution()), _metaProperty.length);
+            _inserter = new Thread("insert-" + _tableName) {
+                @Override
+                public void run() {
+                    try {
+                        Object[] values;
+                        while ((values = _ring.take()) != null) {
+                            insertRow(values);
+                            if (_inserts.getPendingRows() == 0) {
+                                _ring.release();
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        _insertError = e;
+                        _ring.cancel();
+                    }
+                }
+            };
+            _inserter.setDaemon(true);
+            _inserter.start();
+        }
+
+        /**
+         * wait until the inserting thread has inserted all rows passed on, or with cancel, the row it is working on.
+         */
+        private void stopInserter(final boolean cancel) throws SQLException {
+            if (_inserter == null) {
+                return;
+            }
+            if (cancel) {
+                _ring.cancel();
+            } else {
+                _ring.close();
+            }
+            final long start = System.nanoTime();
+            try {
+                _inserter.join();
+            } catch (final InterruptedException e) {
+                _ring.cancel();
+                throw new SQLException("interrupted while waiting for the database");
+            } finally {
+                _inserter = null;
+                _waitTime += System.nanoTime() - start;
+            }
+            if (!cancel && _insertError != null) {
+                throw getInsertError();
+            }
+        }
+
+        private SQLException getInsertError() {
+            if (_insertError instanceof SQLException) {
+                return (SQLException) _insertError;
+            }
+            final SQLException result = new SQLException("inserting rows failed: " + _insertError);
+            result.initCause(_insertError);
+            return result;
+        }
+
+        private void insertRow(final Object[] values) throws SQLException {
+            ++_insertedRows;
+            if (hasLobBuffer(values)) {
+                // rows with large LOBs are inserted on their own, streamed from their temporary files.
+                try {
+                    if (_inserts != null) {
+                        _inserts.insert(values);
+                    }
+                } finally {
+                    releaseLobs(values);
+                }
+            } else if (_inserts != null) {
+                _inserts.add(values);
+            }
+
+            // commit every once in a while.
+            if (_conn != null && _commitPoint >= 0 && _insertedRows % _commitPoint == 0) {
+                if (_inserts != null) {
+                    _inserts.flush();
+                }
+                commit();
+                saveCheckpoint(_section, _tableName, _insertedRows);
+            }
+        }
+
+        /**
+         * insert the remaining rows and commit, if commit points are enabled. Parallel loads always commit per table.
+         */
+        public void finish() throws SQLException {
+            final long readTime = System.nanoTime() - _startTime - _waitTime;
+            try {
+                stopInserter(false);
+                if (_inserts != null) {
+                    _inserts.flush();
+                }
+                if (_conn != null && (_commitPoint >= 0 || _job != null)) {
+                    commit();
+                    saveCheckpoint(_section + 1, null, 0);
+                }
+            } finally {
+                _problems.finish();
+                finishRejectSection();
+                long insertTime = 0;
+                if (_inserts != null) {
+                    insertTime = _inserts.getExecuteTime();
+                    _inserts.close();
+                    _inserts = null;
+                }
+                final DumpStats.Table tableStats = new DumpStats.Table(_tableName);
+                tableStats.add(DumpStats.READ, readTime);
+                tableStats.add(DumpStats.WAIT, _waitTime);
+                tableStats.add(DumpStats.INSERT, insertTime);
+                tableStats.add(DumpStats.COMMIT, _commitTime);
+                tableStats.addRows(_rows);
+                tableStats.addBytes(_bytes, 0);
+                addTableStats(tableStats);
+            }
+        }
+
+        private void commit() throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                _conn.commit();
+            } finally {
+                _commitTime += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * stop after an error reading the dump: the rows not inserted yet are dropped. Nothing happens, if the loader has
+         * been finished.
+         */
+        public void abort() {
+            if (_inserter == null) {
+                return;
+            }
+            try {
+                stopInserter(true);
+            } catch (final SQLException e) {
+                // already failing.
+            }
+            for (final Object[] values : _ring.getPending()) {
+                releaseLobs(values);
+            }
+            if (_inserts != null) {
+                _inserts.close();
+                _inserts = null;
+            }
+            finishRejectSection();
+        }
+
+        private void saveCheckpoint(final int sections, final String table, final long rows) {
+            if (_checkpoint == null) {
+                return;
+            }
+            try {
+                _checkpoint.save(sections, table, rows);
+            } catch (final IOException e) {
+                Logger.error("cannot write checkpoint: %s", e.getMessage());
+                _checkpoint = null;
+            }
+        }
+
+        /**
+         * set a value of a row read from the dump as parameter of a statement.
+         */
+        private void bindValue(final PreparedStatement stmt, final int col, final int column, final Object value)
+                throws SQLException {
+            switch (_metaProperty[column].type) {
+                case HP_NUMERIC:
+                case HP_DOUBLE:
+                case HP_INTEGER: {
+                    final int type = _metaProperty[column].type;
+                    if (value == null) {
+                        if (type == HP_NUMERIC) {
+                            stmt.setNull(col, Types.NUMERIC);
+                        } else if (type == HP_INTEGER) {
+                            stmt.setNull(col, Types.INTEGER);
+                        } else if (type == HP_DOUBLE) {
+                            stmt.setNull(col, Types.DOUBLE);
+                        }
+                    } else if (value instanceof Integer) {
+                        stmt.setInt(col, ((Integer) value).intValue());
+                    } else if (value instanceof Long) {
+                        stmt.setLong(col, ((Long) value).longValue());
+                    } else if (value instanceof Double) {
+                        stmt.setDouble(col, ((Double) value).doubleValue());
+                    } else if (value instanceof BigDecimal) {
+                        stmt.setBigDecimal(col, (BigDecimal) value);
+                    }
+                    break;
+                }
+                case HP_TIMESTAMP:
+                    stmt.setTimestamp(col, (Timestamp) value);
+                    break;
+                case HP_TIME:
+                    stmt.setTime(col, (Time) value);
+                    break;
+                case HP_DATE:
+                    stmt.setDate(col, (java.sql.Date) value);
+                    break;
+                case HP_BOOLEAN:
+                    if (value == null) {
+                        stmt.setNull(col, Types.BOOLEAN);
+                    } else {
+                        stmt.setBoolean(col, ((Boolean) value).booleanValue());
+                    }
+                    break;
+                default:
+                    if (value instanceof byte[]) {
+                        stmt.setBytes(col, (byte[]) value);
+                    } else if (value instanceof LobBuffer) {
+                        bindLob(stmt, col, (LobBuffer) value);
+                    } else {
+                        stmt.setString(col, (String) value);
+                    }
+                    break;
+            }
+        }
+
+        private void bindLob(final PreparedStatement stmt, final int col, final LobBuffer lob) throws SQLException {
+            try {
+                if (lob.isCharacters()) {
+                    final Reader in = lob.openReader();
+                    _lobStreams.add(in);
+                    stmt.setCharacterStream(col, in, (int) lob.getLength());
+                } else {
+                    final InputStream in = lob.openStream();
+                    _lobStreams.add(in);
+                    stmt.setBinaryStream(col, in, (int) lob.getLength());
+                }
+            } catch (final IOException e) {
+                throw new SQLException("cannot read LOB from temporary file: " + e.getMessage());
+            }
+        }
+
+        private boolean hasLobBuffer(final Object[] values) {
+            for (int i = 0; i < values.length; ++i) {
+                if (values[i] instanceof LobBuffer) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * close the streams bound for the LOBs of the row and remove their temporary files.
+         */
+        private void releaseLobs(final Object[] values) {
+            for (final Closeable in : _lobStreams) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                }
+            }
+            _lobStreams.clear();
+            for (int i = 0; i < values.length; ++i) {
+                if (values[i] instanceof LobBuffer) {
+                    ((LobBuffer) values[i]).dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * The dump of the rows dump-in could not insert; loading it with dump-in retries just these rows. The rows of a table
+     * are collected in a temporary file and appended as a table section of their own once the table is done, so that
+     * tables loaded in parallel do not get mixed up.
+     * <p>
+     * The errors are written to a text file of their own, one line per row: the number of the row in the dump, the table and
+     * the error, separated by tabs. The dump itself stays readable by every HenPlus version that can read the dump the rows
+     * come from.
+     */
+    private static final class RejectDump {
+
+        private final File _file;
+        private final File _errorFile;
+        private long _rows;
+
+        /**
+         * @param append
+         *            whether to add to the rejected rows of a dump-in before; otherwise, they are removed.
+         */
+        RejectDump(final File file, final File errorFile, final boolean append) throws IOException {
+            _file = file;
+            _errorFile = errorFile;
+            if (!append) {
+                _file.delete();
+                _errorFile.delete();
+            } else if (_file.exists()) {
+                _rows = countLines(_errorFile);
+            }
+        }
+
+        public File getFile() {
+            return _file;
+        }
+
+        public File getErrorFile() {
+            return _errorFile;
+        }
+
+        public synchronized long getRows() {
+            return _rows;
+        }
+
+        /**
+         * append the given table section with the given number of rows and the errors of its rows, one per line, and remove
+         * both.
+         */
+        public synchronized void append(final File section, final long rows, final String table, final File errors)
+                throws IOException {
+            final BufferedReader errorIn = new BufferedReader(new InputStreamReader(new FileInputStream(errors),
+                    FILE_ENCODING));
+            try {
+                final Writer errorOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_errorFile, true),
+                        FILE_ENCODING));
+                try {
+                    long row = _rows;
+                    String error;
+                    while ((error = errorIn.readLine()) != null) {
+                        errorOut.write(++row + "\t" + table + "\t" + error + "\n");
+                    }
+                } finally {
+                    errorOut.close();
+                }
+            } finally {
+                errorIn.close();
+                errors.delete();
+            }
+            final InputStream in = new FileInputStream(section);
+            try {
+                final OutputStream out = new FileOutputStream(_file, true);
+                try {
+                    final byte[] buffer = new byte[65536];
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, len);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+                section.delete();
+            }
+            _rows += rows;
+        }
+
+        private static long countLines(final File file) throws IOException {
+            if (!file.exists()) {
+                return 0;
+            }
+            final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), FILE_ENCODING));
+            try {
+                long lines = 0;
+                while (in.readLine() != null) {
+                    ++lines;
+                }
+                return lines;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * The table section of the reject dump with the rows of a table that could not be inserted. It has the header of the
+     * section the rows are read from; the errors of the rows are collected apart for the error file of the reject dump.
+     */
+    private final class RejectSection {
+
+        private final RejectDump _dump;
+        private final String _tableName;
+        private final int _dumpVersion;
+        private final int _compatibleVersion;
+        private final String _databaseInfo;
+        private MetaProperty[] _metaProperty;
+        private File _file;
+        private DumpWriter _out;
+        private File _errorFile;
+        private Writer _errors;
+        private long _rows;
+
+        RejectSection(final RejectDump dump, final String tableName, final int dumpVersion, final int compatibleVersion,
+                final String databaseInfo) {
+            _dump = dump;
+            _tableName = tableName;
+            _dumpVersion = dumpVersion;
+            _compatibleVersion = compatibleVersion;
+            _databaseInfo = databaseInfo != null ? databaseInfo : "";
+        }
+
+        public void setMetaProperty(final MetaProperty[] metaProperty) {
+            _metaProperty = metaProperty;
+        }
+
+        /**
+         * add a row that could not be inserted with the given error. Values of LOBs that are kept in temporary files have
+         * to be added before they are disposed.
+         */
+        public void add(final Object[] values, final String error) throws IOException {
+            if (_out == null) {
+                _file = File.createTempFile("henplus-rejects", ".dump", getTempDir());
+                _out = new DumpWriter(new FileOutputStream(_file));
+                _errorFile = File.createTempFile("henplus-rejects", ".errors", getTempDir());
+                _errors = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_errorFile), FILE_ENCODING));
+                printTableHeader(_out, _tableName, FILE_ENCODING, _dumpVersion, _compatibleVersion, null, _databaseInfo,
+                        -1, _metaProperty);
+                _out.print("  (data");
+                _out.beginChecksum();
+                _out.print(" ");
+            } else {
+                _out.print("\n\t");
+            }
+            _out.print("(");
+            for (int i = 0; i < values.length; ++i) {
+                printLoadedValue(_out, values[i]);
+                _out.print(i + 1 < values.length ? "," : ")");
+            }
+            // one line per row.
+            _errors.write(error != null ? error.replace('\n', ' ').replace('\r', ' ') : "");
+            _errors.write('\n');
+            ++_rows;
+        }
+
+        /**
+         * end the section and append it to the reject dump, if there are rows.
+         */
+        public void finish() throws IOException {
+            if (_out == null) {
+                return;
+            }
+            _out.print(")");
+            final long checksum = _out.endChecksum();
+            _out.println();
+            _out.println("  (rows " + _rows + ")");
+            _out.println("  (checksum '" + formatChecksum(checksum) + "'))\n");
+            _out.close();
+            _out = null;
+            _errors.close();
+            _errors = null;
+            _dump.append(_file, _rows, _tableName, _errorFile);
+        }
+
+        /**
+         * remove the temporary files.
+         */
+        public void discard() {
+            if (_out != null) {
+                try {
+                    _out.close();
+                } catch (final IOException e) {
+                }
+                _out = null;
+                _file.delete();
+            }
+            if (_errors != null) {
+                try {
+                    _errors.close();
+                } catch (final IOException e) {
+                }
+                _errors = null;
+            }
+            if (_errorFile != null) {
+                _errorFile.delete();
+            }
+        }
+    }
+
+    /**
+     * The tables to read from a dump without an index. Remembers which of them the dump contained.
+     */
+    private static final class TableSelection {
+
+        private final List<String> _tables;
+        private final Set<String> _found;
+
+        TableSelection(final List<String> tables) {
+            _tables = tables;
+            _found = new HashSet<String>();
+        }
+
+        /**
+         * whether the table is selected; table names are compared ignoring case.
+         */
+        boolean select(final String table) {
+            for (final String selected : _tables) {
+                if (selected.equalsIgnoreCase(table)) {
+                    _found.add(selected);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * the selected tables not found in the dump so far.
+         */
+        List<String> getMissing() {
+            final List<String> result = new ArrayList<String>();
+            for (final String table : _tables) {
+                if (!_found.contains(table)) {
+                    result.add(table);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Collapses consecutive identical problem messages of a table load into one line. Each line is printed as a whole, so that
+     * reports of tables loaded in parallel do not get mixed up.
+     */
+    private static final class ProblemReporter {
+
+        private final String _prefix;
+        private String _lastProblem;
+        private long _problemCount;
+
+        ProblemReporter(final String prefix) {
+            _prefix = prefix;
+        }
+
+        void report(final String msg) {
+            if (msg == null) {
+                return;
+            }
+            if (msg.equals(_lastProblem)) {
+                ++_problemCount;
+            } else {
+                finish();
+                _problemCount = 1;
+                _lastProblem = msg;
+            }
+        }
+
+        void finish() {
+            if (_problemCount > 0) {
+                HenPlus.msg().println(
+                        _prefix + "Problem: " + _lastProblem + (_problemCount > 1 ? "   (" + _problemCount + " times)" : ""));
+            }
+            _lastProblem = null;
+            _problemCount = 0;
+        }
+    }
+
+    public void checkSupported(final int version) throws IllegalArgumentException {
+        if (version <= 0 || version > DUMP_VERSION) {
+            throw new IllegalArgumentException("incompatible dump-version");
+        }
+    }
+
+    private void printMetaDataInfo(final MetaProperty[] prop) {
+        HenPlus.out().println();
+        META_HEADERS[0].resetWidth();
+        META_HEADERS[1].resetWidth();
+        final TableRenderer table = new TableRenderer(META_HEADERS, HenPlus.out());
+        for (int i = 0; i < prop.length; ++i) {
+            final Column[] row = new Column[3];
+            row[0] = new Column(prop[i].getFieldName());
+            row[1] = new Column(prop[i].getTypeName());
+            row[2] = new Column(prop[i].getMaxLength());
+            table.addRow(row);
+        }
+        table.closeTable();
+    }
+
+    // -- Interruptable interface
+    @Override
+    public synchronized void interrupt() {
+        _running = false;
+    }
+
+    private void beginInterruptableSection() {
+        _running = true;
+        SigIntHandler.getInstance().pushInterruptable(this);
+    }
+
+    private void endInterruptableSection() {
+        SigIntHandler.getInstance().popInterruptable();
+    }
+
+    /**
+     * complete the table name.
+     */
+    @Override
+    public Iterator<String> complete(final CommandDispatcher disp, final String partialCommand, String lastWord) {
+        final StringTokenizer st = new StringTokenizer(partialCommand);
+        final String cmd = (String) st.nextElement();
+        int argc = st.countTokens();
+        if (lastWord.length() > 0) {
+            argc--;
+        }
+
+        if ("dump-stats".equals(cmd)) {
+            return null;
+        } else if ("dump-conditional".equals(cmd) || "dump-incremental".equals(cmd) || "dump-subset".equals(cmd)) {
+            if ("dump-subset".equals(cmd) && argc >= 2 && partialCommand.trim().split("\\s+")[1].equals("-d")) {
+                st.nextElement(); // discard option.
+                st.nextElement();
+                argc -= 2;
+            }
+            if (argc == 0) {
+                return new FileCompletionIterator(partialCommand, lastWord);
+            } else if (argc == 1) {
+                if (lastWord.startsWith("\"")) {
+                    lastWord = lastWord.substring(1);
+                }
+                return _tableCompleter.completeTableName(HenPlus.getInstance().getCurrentSession(), lastWord);
+            } else if (argc > 1) {
+                st.nextElement(); // discard filename.
+                final String table = (String) st.nextElement();
+                final Collection<String> columns = _tableCompleter.columnsFor(table);
+                final NameCompleter compl = new NameCompleter(columns);
+                return compl.getAlternatives(lastWord);
+            }
+        } else if ("dump-out".equals(cmd)) {
+            final StringTokenizer options = new StringTokenizer(partialCommand);
+            options.nextElement(); // discard command.
+            while (argc >= 2 && options.hasMoreElements()) {
+                final String option = (String) options.nextElement();
+                if (!"-j".equals(option) && !"-p".equals(option)) {
+                    break;
+                }
+                options.nextElement();
+                st.nextElement(); // discard option.
+                st.nextElement();
+                argc -= 2;
+            }
+            // this is true for dump-out und verify-dump
+            if (argc == 0) {
+                return new FileCompletionIterator(partialCommand, lastWord);
+            }
+            if (argc > 0) {
+                if (lastWord.startsWith("\"")) {
+                    lastWord = lastWord.substring(1);
+                }
+                final HashSet<String> alreadyGiven = new HashSet<String>();
+                /*
+                 * do not complete the tables we already gave on the
+                 * commandline.
+                 */
+                while (st.hasMoreElements()) {
+                    alreadyGiven.add(st.nextToken());
+                }
+
+                final Iterator<String> it = _tableCompleter.completeTableName(HenPlus.getInstance().getCurrentSession(), lastWord);
+
+                return new Iterator<String>() {
+
+                    String table = null;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (it.hasNext()) {
+                            table = (String) it.next();
+                            if (alreadyGiven.contains(table)) {
+                                continue;
+                            }
+                            return true;
+                        }
+                        return false;
+                    }
+
+                    @Override
+                    public String next() {
+                        return table;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("no!");
+                    }
+                };
+            }
+        } else {
+            if (argc == 0) {
+                return new FileCompletionIterator(partialCommand, lastWord);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * return a descriptive string.
+     */
+    @Override
+    public String getShortDescription() {
+        return "handle table dumps";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        if ("dump-out".equals(cmd)) {
+            return cmd + " [-j <workers>] [-p <key-ranges>] (<filename> | <directory>/) (<tablename> | <prefix>* | *)+;";
+        } else if ("dump-conditional".equals(cmd)) {
+            return cmd + " <filename> <tablename> [<where-clause>]";
+        } else if ("dump-select".equals(cmd)) {
+            return cmd + " <filename> <exported-tablename> select ...";
+        } else if ("dump-incremental".equals(cmd)) {
+            return cmd + " <filename> <tablename> <column>";
+        } else if ("dump-subset".equals(cmd)) {
+            return cmd + " [-d <depth>] <filename> <tablename> [<where-clause>]";
+        } else if ("dump-in".equals(cmd)) {
+            return cmd + " [-j <workers>] [-r] [-m] (<filename> | <directory>) [<tablename>...] [<commit-intervall>]";
+        } else if ("verify-dump".equals(cmd)) {
+            return cmd + " (<filename> | <directory>) [<tablename>...]";
+        }
+        return cmd;
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc = null;
+        if ("dump-out".equals(cmd)) {
+            dsc = "\tDump out the contents of the table(s) given to the file\n"
+                    + "\twith the given name. If the filename ends with '.gz', the\n"
+                    + "\tcontent is gzip'ed automatically .. that saves space.\n"
+                    + "\tCompression runs on all processors; its level is set\n"
+                    + "\twith the property 'dump-out-compression'.\n" + "\n"
+                    + "\tFor the selection of the tables you want to dump-out,\n"
+                    + "\tyou are able to use wildcards (*) to match all tables or\n" + "\ta specific set of tables.\n"
+                    + "\tE.g. you might specify \"*\" to match all tables, or\"tb_*\"\n"
+                    + "\tto match all tables starting with \"tb_\".\n" + "\n"
+                    + "\tWith the option -j <workers>, several tables are dumped\n"
+                    + "\tin parallel, each worker on its own connection to the\n"
+                    + "\tdatabase. The largest tables are dumped first; the\n"
+                    + "\tresulting file is the same as without this option.\n" + "\n"
+                    + "\tWith the option -p <key-ranges>, large tables are split\n"
+                    + "\tinto that many ranges of the first column of their primary\n"
+                    + "\tkey, that are dumped in parallel. Each range is written as\n"
+                    + "\ttable dump of its own; dump-in reads them one after\n"
+                    + "\tanother. Only the first column of the key is split, even\n"
+                    + "\tif the key has several columns. Numeric keys are split\n"
+                    + "\tbetween their minimum and maximum. String keys are split\n"
+                    + "\tat quantiles the database computes with the window\n"
+                    + "\tfunction NTILE; on databases without it, such tables are\n"
+                    + "\tdumped as a whole.\n" + "\n"
+                    + "\tGiven a directory instead of a file (an existing one, or a\n"
+                    + "\tname ending with '/'), each table, or key range of a table,\n"
+                    + "\tis written into a file of its own, <table>.dump.gz; with\n"
+                    + "\t'dump-out-compression' 0, <table>.dump uncompressed. The\n"
+                    + "\tworkers write these files directly. Once all tables are\n"
+                    + "\tdumped, the file 'dump.manifest' lists the files with their\n"
+                    + "\ttable, rows and CRC32 checksum in the order of the foreign\n"
+                    + "\tkey dependencies of the tables.\n" + "\n"
+                    + "\tThe number of rows of each table, for the progress display\n"
+                    + "\tand to plan parallel dumps, is estimated from statistics of\n"
+                    + "\tthe database; see the property 'dump-out-row-count'.\n" + "\n"
+                    + "\tThe dump-format allows to read in the data back into\n"
+                    + "\tthe database ('dump-in' command). And unlike pure SQL-insert\n"
+                    + "\tstatements, this works even across databases.\n"
+                    + "\tSo you can make a dump of your MySQL database and read it\n"
+                    + "\tback into Oracle, for instance. To achive this database\n"
+                    + "\tindependence, the data is stored in a canonical form\n"
+                    + "\t(e.g. the Time/Date). The file itself is human readable\n"
+                    + "\tand uses less space than simple SQL-inserts:\n" + "\t----------------\n" + "\t  (tabledump 'student'\n"
+                    + "\t    (dump-version 1 1)\n" + "\t    (henplus-version 0.3.3)\n"
+                    + "\t    (database-info 'MySQL - 3.23.47')\n" + "\t    (meta ('name',   'sex',    'student_id')\n"
+                    + "\t          ('STRING', 'STRING', 'INTEGER'   ))\n" + "\t    (data ('Megan','F',1)\n"
+                    + "\t          ('Joseph','M',2)\n" + "\t          ('Kyle','M',3)\n" + "\t          ('Mac Donald\\'s','M',4))\n"
+                    + "\t    (rows 4))\n" + "\t----------------\n\n"
+                    + "\tWith the property 'dump-out-format' set to 'binary', a\n"
+                    + "\tcompact binary format is written instead, that is much\n"
+                    + "\tfaster to read back.\n\n" + "\tTODOs\n" + "\tThis format contains only the data, no\n"
+                    + "\tcanonical 'create table' statement - so the table must\n"
+                    + "\talready exist at import time. Both these features will\n" + "\tbe in later versions of HenPlus.";
+        } else if ("dump-conditional".equals(cmd)) {
+            dsc = "\tLike dump-out, but dump only the rows of a single table\n" + "\tthat match the where clause.";
+        } else if ("dump-incremental".equals(cmd)) {
+            dsc = "\tLike dump-out for a single table, but dump only the rows\n"
+                    + "\tadded since the last dump-incremental of that table. The\n"
+                    + "\tcolumn given must only grow, like an id from a sequence\n"
+                    + "\tor the time of the last update. Its maximum value is\n"
+                    + "\tremembered per connection and table in the file\n"
+                    + "\t'dump-watermarks' in the config directory; the next run\n"
+                    + "\tdumps only the rows above it. The first run dumps all\n"
+                    + "\trows. The resulting dumps can be read in one after another\n"
+                    + "\twith dump-in.";
+        } else if ("dump-subset".equals(cmd)) {
+            dsc = "\tDump the rows of a table that match the where clause\n"
+                    + "\ttogether with the rows of other tables they belong to,\n"
+                    + "\tfollowing the foreign keys: the rows referencing them, and\n"
+                    + "\tall rows referenced by any row dumped. The result is a\n"
+                    + "\tdump of a few tables' worth of consistent data, that can\n"
+                    + "\tbe read in with dump-in without violating a foreign key,\n"
+                    + "\tlike a customer with all its orders for a test database.\n\n"
+                    + "\tRows referencing the selected rows are followed up to the\n"
+                    + "\tdepth given with -d (default 2): with a depth of 1, the\n"
+                    + "\tdump contains the orders of the customer, with 2 the items\n"
+                    + "\tof these orders as well. Rows that are only referenced\n"
+                    + "\t(the products of the items) are added, but not all other\n"
+                    + "\trows referencing them.\n\n"
+                    + "\tRows are identified by their primary key, that must be a\n"
+                    + "\tsingle integer column; other tables are not followed. The\n"
+                    + "\tkeys are looked up and the rows dumped with queries of up\n"
+                    + "\tto 1000 keys in an IN (..) list; the rows of a table are\n"
+                    + "\twritten as one table dump. Foreign keys that cannot be\n"
+                    + "\tfollowed, like those of several columns, are reported\n"
+                    + "\twith a warning: rows they reference may be missing.";
+        } else if ("dump-in".equals(cmd)) {
+            dsc = "\tRead back in the data that has been dumped out with the\n"
+                    + "\t'dump-out' command. If the filename ends with '.gz',\n"
+                    + "\tthen the content is assumed to be gzipped and is\n"
+                    + "\tunpacked on the fly. Text and binary dumps are\n"
+                    + "\trecognized automatically. The 'dump-in' command fills\n"
+                    + "\texisting tables, it does not create missing ones!\n\n"
+                    + "\tExisting content ist not deleted before, dump-in just\n" + "\tinserts all data found in the dump.\n\n"
+                    + "\tInternally, the import uses a prepared statement that is\n"
+                    + "\tfed with the typed data according to the meta data (see\n"
+                    + "\tdump-out for the file format). This evens out differences\n"
+                    + "\tbetween databases and of course enhances speed compared\n" + "\tto non-prepared statements.\n\n"
+                    + "\tThe import is done in the current transaction, unless\n"
+                    + "\tyou specify the commit-interval. The commit-interval specify\n"
+                    + "\tthe number of inserts, that are executed before an commit\n"
+                    + "\tis done. For a large amount of data this option is\n"
+                    + "\tnecessary, since otherwise your rollback-segments\n" + "\tmight get a problem ;-)\n\n"
+                    + "\tThe rows are sent to the database in JDBC batches, or\n"
+                    + "\tas set with the session property 'insert-strategy'; the\n"
+                    + "\tnumber of rows per batch or statement is set with the\n"
+                    + "\tproperty 'dump-in-batch-size'.\n\n"
+                    + "\tWith the option -j <workers>, the tables of the dump are\n"
+                    + "\tloaded in parallel, each worker on its own connection.\n"
+                    + "\tThe tables are loaded in the order of their foreign key\n"
+                    + "\tdependencies: all tables that do not depend on each other\n"
+                    + "\tare loaded at the same time, and each of them is committed\n"
+                    + "\tas soon as it is complete. Referenced tables are always\n"
+                    + "\tcommitted before the tables referencing them are loaded.\n"
+                    + "\tThe workers read their tables directly from the dump;\n"
+                    + "\tsee property dump-in-temp-dir for old compressed dumps.\n\n"
+                    + "\tWith the option -m (merge), rows that exist already are\n"
+                    + "\tupdated by their primary key instead, and only the others\n"
+                    + "\tinserted. This refreshes a table without deleting it\n"
+                    + "\tfirst. The statement of the database for this is used, if\n"
+                    + "\tknown (INSERT .. ON CONFLICT for PostgreSQL, .. ON\n"
+                    + "\tDUPLICATE KEY UPDATE for MySQL, MERGE .. KEY for H2);\n"
+                    + "\totherwise, the rows are updated in batches and those not\n"
+                    + "\tfound inserted.\n\n"
+                    + "\tRows that cannot be inserted are written to the dump\n"
+                    + "\t<filename>.rejects.dump, their errors to the text file\n"
+                    + "\t<filename>.rejects.errors; dump-in of the dump retries\n"
+                    + "\tjust these rows. See the property 'dump-in-rejects'.\n\n"
+                    + "\tWith a commit-interval, each commit is recorded in the\n"
+                    + "\tfile <filename>.checkpoint, that is removed once the\n"
+                    + "\twhole dump is read. If dump-in fails, the option -r\n"
+                    + "\tresumes after the rows committed last; the part of the\n"
+                    + "\tdump read before is skipped without inserting it again.\n\n"
+                    + "\tGiven table names after the filename, only these tables\n"
+                    + "\tare read. dump-out writes an index of the tables at the\n"
+                    + "\tend of binary and .gz dumps, and of uncompressed text\n"
+                    + "\tdumps if the property dump-out-text-index is switched\n"
+                    + "\ton; with it, dump-in goes straight to the\n"
+                    + "\tsections of these tables and reads nothing else. A dump\n"
+                    + "\twithout an index is read from start to end, but the\n"
+                    + "\tdata of all other tables is skipped without parsing it.\n\n"
+                    + "\tA directory written by dump-out is read according to its\n"
+                    + "\tmanifest: the files of all tables that do not depend on each\n"
+                    + "\tother are loaded at the same time, by default with as many\n"
+                    + "\tworkers as there are processors. Tables can be selected here\n"
+                    + "\ttogether with -j.";
+        } else if ("verify-dump".equals(cmd)) {
+            dsc = "\tLike dump-in, but a 'dry run'. Won't change anything\n"
+                    + "\tbut parses the whole file to determine whether it has\n"
+                    + "\tsyntax errors or is damaged. Any syntax errors are\n"
+                    + "\treported as it were a 'dump-in'. Problems that might\n"
+                    + "\toccur in a 'real' import in the database (that might\n"
+                    + "\tdetect, that the import would create duplicate keys for\n"
+                    + "\tinstance) can not be determined, of course.\n\n"
+                    + "\tdump-out stores a CRC32 checksum of the data of each\n"
+                    + "\ttable; verify-dump reports tables whose data does not\n"
+                    + "\tmatch it. The tables of a dump with an index are verified\n"
+                    + "\tin parallel, on as many threads as there are processors.\n"
+                    + "\tThe files of a dump directory are verified in parallel as\n"
+                    + "\twell; their checksums are compared with the manifest.\n\n"
+                    + "\tGiven table names after the filename, only these tables\n"
+                    + "\tare verified, as with dump-in.";
+        } else if ("dump-stats".equals(cmd)) {
+            dsc = "\tShow where the time of the last dump-out, dump-conditional,\n"
+                    + "\tdump-select, dump-incremental, dump-in or verify-dump went.\n"
+                    + "\tFor each table, the rows, the bytes of its data and the\n"
+                    + "\ttime spent in each phase are shown. Writing dumps, these\n"
+                    + "\tare query, fetch (reading the result set), wait (for the\n"
+                    + "\trows to be fetched), format, write and compress; reading\n"
+                    + "\tdumps, read (and parse), wait (for the rows to be\n"
+                    + "\tinserted), insert and commit. Phases that run on threads\n"
+                    + "\tof their own overlap; the longest one is the bottleneck.\n\n"
+                    + "\tWith the property 'dump-stats-file' switched on, each dump\n"
+                    + "\tcommand writes its statistics as tab separated values to\n"
+                    + "\t<filename>.<command>.stats next to the dump.";
+        }
+        return dsc;
+    }
+
+    /**
+     * A source for dumps.
+     */
+    private interface DumpSource {
+
+        MetaProperty[] getMetaProperties() throws SQLException;
+
+        String getDescription();
+
+        String getTableName();
+
+        Statement getStatement() throws SQLException;
+
+        ResultSet getResultSet() throws SQLException;
+
+        /**
+         * the result set of the next query, for a source that selects its rows with several; null, if there is none. The
+         * statement of the query before is closed first; {@link #getStatement()} returns the one of the last query.
+         */
+        ResultSet nextResultSet() throws SQLException;
+
+        long getExpectedRows();
+
+        /**
+         * whether the expected rows have been counted, rather than estimated.
+         */
+        boolean isExpectedRowsExact();
+    }
+
+    private static class SelectDumpSource implements DumpSource {
+
+        private final SQLSession _session;
+        private final String _sqlStat;
+        private final String _exportTable;
+        private MetaProperty[] _meta;
+        private Statement _workingStatement;
+        private ResultSet _resultSet;
+
+        SelectDumpSource(final SQLSession session, final String exportTable, final String sqlStat) {
+            _session = session;
+            _sqlStat = sqlStat;
+            _exportTable = exportTable;
+        }
+
+        @Override
+        public MetaProperty[] getMetaProperties() throws SQLException {
+            if (_meta != null) {
+                return _meta;
+            }
+            final ResultSet rset = getResultSet();
+
+            final ResultSetMetaData rsMeta = rset.getMetaData();
+            final int cols = rsMeta.getColumnCount();
+            _meta = new MetaProperty[cols];
+            for (int i = 0; i < cols; ++i) {
+                _meta[i] = new MetaProperty(rsMeta.getColumnName(i + 1), rsMeta.getColumnType(i + 1));
+            }
+            return _meta;
+        }
+
+        @Override
+        public String getDescription() {
+            return _sqlStat;
+        }
+
+        @Override
+        public String getTableName() {
+            return _exportTable;
+        }
+
+        @Override
+        public Statement getStatement() throws SQLException {
+            return _workingStatement;
+        }
+
+        @Override
+        public ResultSet getResultSet() throws SQLException {
+            if (_resultSet != null) {
+                return _resultSet;
+            }
+            _workingStatement = _session.createStatement();
+            try {
+                _workingStatement.setFetchSize(1000);
+            } catch (final Exception e) {
+                // ignore
+            }
+            _resultSet = _workingStatement.executeQuery(_sqlStat);
+            return _resultSet;
+        }
+
+        @Override
+        public ResultSet nextResultSet() {
+            return null;
+        }
+
+        @Override
+        public long getExpectedRows() {
+            return -1;
+        }
+
+        @Override
+        public boolean isExpectedRowsExact() {
+            return false;
+        }
+    }
+
+    private static class TableDumpSource implements DumpSource {
+
+        private final SQLSession _session;
+        private final String _table;
+        private final String _schema;
+        private MetaProperty[] _meta;
+        private Statement _workingStatement;
+        private String _whereClause;
+        private long _expectedRows;
+        private boolean _expectedRowsKnown;
+        private boolean _expectedRowsExact;
+        private RowEstimator _estimator;
+        private boolean _countRows;
+
+        TableDumpSource(final String schema, final String table, final SQLSession session) {
+            _session = session;
+            _schema = schema;
+            _table = table;
+        }
+
+        public String getSchema() {
+            return _schema;
+        }
+
+        /**
+         * set the number of expected rows, if it already has been determined elsewhere.
+         *
+         * @param exact
+         *            whether the rows have been counted.
+         */
+        public void setExpectedRows(final long expectedRows, final boolean exact) {
+            _expectedRows = expectedRows;
+            _expectedRowsExact = exact && expectedRows >= 0;
+            _expectedRowsKnown = true;
+        }
+
+        /**
+         * how to determine the expected rows: by the estimator, if one is given, and by counting them, if there is no
+         * estimate and counting is allowed. A table with a where clause is only counted.
+         */
+        public void setRowCounting(final RowEstimator estimator, final boolean countRows) {
+            _estimator = estimator;
+            _countRows = countRows;
+        }
+
+        @Override
+        public String getDescription() {
+            return "table '" + _table + "'";
+        }
+
+        @Override
+        public String getTableName() {
+            return _table;
+        }
+
+        public void setWhereClause(final String whereClause) {
+            _whereClause = whereClause;
+        }
 
-                        case HP_DATE: {
-                            final java.sql.Date val = rset.getDate(col);
-                            if (rset.wasNull()) {
-                                dumpOut.print(NULL_STR);
-                            } else {
-                                quoteString(dumpOut, val.toString());
-                            }
-                            break;
-                        }
+        @Override
+        public Statement getStatement() {
+            return _workingStatement;
+        }
 
-                        case HP_BLOB: // we try our best by reading BLOB/CLOB
-                        case HP_CLOB: // as String (known not to work on Oracle)
-                        case HP_STRING: {
-                            final String val = rset.getString(col);
-                            if (rset.wasNull()) {
-                                dumpOut.print(NULL_STR);
-                            } else {
-                                quoteString(dumpOut, val);
-                            }
-                            break;
-                        }
-                        case HP_BOOLEAN:
-                            final boolean val = rset.getBoolean(col);
-                            if (rset.wasNull()) {
-                                dumpOut.print(NULL_STR);
-                            } else {
-                                dumpOut.print(val);
-                            }
-                            break;
+        @Override
+        public MetaProperty[] getMetaProperties() throws SQLException {
+            if (_meta != null) {
+                return _meta;
+            }
 
-                        default:
-                            throw new IllegalArgumentException("type " + TYPES[thisType] + " not supported yet");
+            final List<MetaProperty> metaList = new ArrayList<MetaProperty>();
+            final Connection conn = _session.getConnection();
+            ResultSet rset = null;
+            try {
+                /*
+                 * if the same column is in more than one schema defined, then
+                 * oracle seems to write them out twice..
+                 */
+                final Set<String> doubleCheck = new HashSet<String>();
+                final DatabaseMetaData meta = conn.getMetaData();
+                rset = meta.getColumns(conn.getCatalog(), _schema, _table, null);
+                while (rset.next()) {
+                    final String columnName = rset.getString(4);
+                    if (doubleCheck.contains(columnName)) {
+                        continue;
                     }
-                    if (metaProps.length > col) {
-                        dumpOut.print(",");
-                    } else {
-                        dumpOut.print(")");
+                    doubleCheck.add(columnName);
+                    metaList.add(new MetaProperty(columnName, rset.getInt(5)));
+                }
+            } finally {
+                if (rset != null) {
+                    try {
+                        rset.close();
+                    } catch (final Exception e) {
                     }
                 }
             }
-            progressWriter.finish();
-            dumpOut.println(")");
-            dumpOut.println("  (rows " + rows + "))\n");
-
-            HenPlus.msg().print("(" + rows + " rows)\n");
-            final long execTime = System.currentTimeMillis() - startTime;
-
-            HenPlus.msg().print("dumping '" + dumpSource.getTableName() + "' took ");
-            TimeRenderer.printTime(execTime, HenPlus.msg());
-            HenPlus.msg().print(" total; ");
-            TimeRenderer.printFraction(execTime, rows, HenPlus.msg());
-            HenPlus.msg().println(" / row");
-            if (expectedRows >= 0 && rows != expectedRows) {
-                HenPlus.msg().println(
-                        " == Warning: 'select count(*)' in the" + " beginning resulted in " + expectedRows
-                                + " but the dump exported " + rows + " rows == ");
-            }
+            _meta = metaList.toArray(new MetaProperty[metaList.size()]);
+            return _meta;
+        }
 
-            if (!_running) {
-                HenPlus.msg().println(" == INTERRUPTED. Wait for statement to cancel.. ==");
-                if (stmt != null) {
-                    stmt.cancel();
+        @Override
+        public ResultSet getResultSet() throws SQLException {
+            final StringBuilder selectStmt = new StringBuilder("SELECT ");
+            for (int i = 0; i < _meta.length; ++i) {
+                final MetaProperty p = _meta[i];
+                if (i != 0) {
+                    selectStmt.append(", ");
                 }
+                selectStmt.append(p.fieldName);
             }
-        } catch (final Exception e) {
-            // HenPlus.msg().println(selectStmt.toString());
-            throw e; // handle later.
-        } finally {
-            if (rset != null) {
-                try {
-                    rset.close();
-                } catch (final Exception e) {
-                }
+
+            selectStmt.append(" FROM ").append(_table);
+            if (_whereClause != null) {
+                selectStmt.append(" WHERE ").append(_whereClause);
             }
-            if (stmt != null) {
-                try {
-                    stmt.close();
-                } catch (final Exception e) {
-                }
+            _workingStatement = _session.createStatement();
+            try {
+                _workingStatement.setFetchSize(1000);
+            } catch (final Exception e) {
+                // ignore
             }
+            return _workingStatement.executeQuery(selectStmt.toString());
         }
-        return SUCCESS;
-    }
 
-    private Number readNumber(final LineNumberReader in) throws IOException {
-        String token = readToken(in);
-        // separated sign.
-        if (token.length() == 1 && (token.equals("+") || token.equals("-"))) {
-            token += readToken(in);
-        }
-        if (token.equals(NULL_STR)) {
+        @Override
+        public ResultSet nextResultSet() throws SQLException {
             return null;
         }
-        try {
-            if (token.indexOf('.') > 0) {
-                return Double.valueOf(token);
-            }
-            if (token.length() < 10) {
-                return Integer.valueOf(token);
-            } else if (token.length() < 19) {
-                return Long.valueOf(token);
-            } else {
-                return new BigDecimal(token);
+
+        @Override
+        public long getExpectedRows() {
+            if (!_expectedRowsKnown) {
+                final long estimate = _whereClause == null ? estimateRows() : -1;
+                if (estimate < 0 && _countRows) {
+                    setExpectedRows(countRows(), true);
+                } else {
+                    setExpectedRows(estimate, false);
+                }
             }
-        } catch (final NumberFormatException e) {
-            raiseException(in, "Number format " + token + ": " + e.getMessage());
+            return _expectedRows;
         }
-        return null;
-    }
-
-    private int readTableDump(final LineNumberReader reader, final String fileEncoding, final SQLSession session,
-            final boolean hot, final int commitPoint) throws IOException, SQLException, InterruptedException {
-        MetaProperty[] metaProperty = null;
-        String tableName = null;
-        int dumpVersion = -1;
-        int compatibleVersion = -1;
-        String henplusVersion = null;
-        String databaseInfo = null;
-        String dumpTime = null;
-        String whereClause = null;
-        String token;
-        long importedRows = -1;
-        long expectedRows = -1;
-        long estimatedRows = -1;
-        long problemRows = -1;
-        Connection conn = null;
-        PreparedStatement stmt = null;
 
-        expect(reader, '(');
-        token = readToken(reader);
-        if (!"tabledump".equals(token)) {
-            raiseException(reader, "'tabledump' expected");
+        @Override
+        public boolean isExpectedRowsExact() {
+            return _expectedRowsExact;
         }
-        tableName = readString(reader);
-        final long startTime = System.currentTimeMillis();
-        while (_running) {
-            skipWhite(reader);
-            final int rawChar = reader.read();
-            if (rawChar == -1) {
-                return SUCCESS; // EOF reached.
-            }
-            char inCh = (char) rawChar;
-            if (inCh == ')') {
-                break;
+
+        private long estimateRows() {
+            if (_estimator == null) {
+                return -1;
             }
-            if (inCh != '(') {
-                raiseException(reader, "'(' or ')' expected");
+            try {
+                return _estimator.estimateRows(_session.getConnection(), _schema, _table);
+            } catch (final SQLException e) {
+                Logger.info("no row estimate for '%s': %s", _table, e.getMessage());
+                return -1;
             }
-            token = readToken(reader);
+        }
 
-            if ("dump-version".equals(token)) {
-                token = readToken(reader);
-                try {
-                    dumpVersion = Integer.valueOf(token).intValue();
-                } catch (final Exception e) {
-                    raiseException(reader, "expected dump version number");
+        private long countRows() {
+            final CancelWriter selectInfo = new CancelWriter(HenPlus.msg());
+            Statement stmt = null;
+            ResultSet rset = null;
+            try {
+                selectInfo.print("determining number of rows...");
+                stmt = _session.createStatement();
+                final StringBuilder countStmt = new StringBuilder("SELECT count(*) from ");
+                countStmt.append(_table);
+                if (_whereClause != null) {
+                    countStmt.append(" WHERE ");
+                    countStmt.append(_whereClause);
                 }
-                token = readToken(reader);
-                try {
-                    compatibleVersion = Integer.valueOf(token).intValue();
-                } catch (final Exception e) {
-                    raiseException(reader, "expected compatible version number");
-                }
-                checkSupported(compatibleVersion);
-                expect(reader, ')');
-            } else if ("file-encoding".equals(token)) {
-                token = readString(reader);
-                if (!token.equals(fileEncoding)) {
-                    throw new EncodingMismatchException(token);
-                }
-                expect(reader, ')');
-            } else if ("henplus-version".equals(token)) {
-                token = readString(reader);
-                henplusVersion = token;
-                expect(reader, ')');
-            } else if ("rows".equals(token)) {
-                token = readToken(reader);
-                expectedRows = Integer.valueOf(token).intValue();
-                expect(reader, ')');
-            } else if ("estimated-rows".equals(token)) {
-                token = readString(reader);
-                estimatedRows = Integer.valueOf(token).intValue();
-                expect(reader, ')');
-            } else if ("database-info".equals(token)) {
-                databaseInfo = readString(reader);
-                expect(reader, ')');
-            } else if ("where-clause".equals(token)) {
-                whereClause = readString(reader);
-                expect(reader, ')');
-            } else if ("time".equals(token)) {
-                dumpTime = readString(reader);
-                expect(reader, ')');
-            } else if ("meta".equals(token)) {
-                if (dumpVersion < 0 || compatibleVersion < 0) {
-                    raiseException(reader, "cannot read meta data without dump-version information");
-                }
-                metaProperty = parseMetaData(reader);
-            } else if ("data".equals(token)) {
-                if (metaProperty == null) {
-                    raiseException(reader, "no meta-data available");
-                }
-                if (tableName == null) {
-                    raiseException(reader, "no table name known");
-                }
-                if (hot) {
-                    final StringBuilder prep = new StringBuilder("INSERT INTO ");
-                    prep.append(tableName);
-                    prep.append(" (");
-                    for (int i = 0; i < metaProperty.length; ++i) {
-                        prep.append(metaProperty[i].fieldName);
-                        if (i + 1 < metaProperty.length) {
-                            prep.append(",");
-                        }
-                    }
-                    prep.append(") VALUES (");
-                    for (int i = 0; i < metaProperty.length; ++i) {
-                        prep.append("?");
-                        if (i + 1 < metaProperty.length) {
-                            prep.append(",");
-                        }
+                rset = stmt.executeQuery(countStmt.toString());
+                rset.next();
+                return rset.getLong(1);
+            } catch (final Exception e) {
+                return -1;
+            } finally {
+                if (rset != null) {
+                    try {
+                        rset.close();
+                    } catch (final Exception e) {
                     }
-                    prep.append(")");
-                    // HenPlus.msg().println(prep.toString());
-                    conn = session.getConnection();
-                    stmt = conn.prepareStatement(prep.toString());
                 }
-
-                HenPlus.msg().println(
-                        (hot ? "importing" : "verifying") + " table dump created with HenPlus " + henplusVersion
-                                + "\nfor table           : " + tableName + "\nfrom database       : " + databaseInfo
-                                + "\nat                  : " + dumpTime + "\ndump format version : " + dumpVersion);
-                if (whereClause != null) {
-                    HenPlus.msg().println("projection          : " + whereClause);
-                }
-
-                final ProgressWriter progressWriter = new ProgressWriter(estimatedRows, HenPlus.msg());
-                importedRows = 0;
-                problemRows = 0;
-                _running = true;
-                while (_running) {
-                    skipWhite(reader);
-                    inCh = (char) reader.read();
-                    if (inCh == ')') {
-                        break;
+                if (stmt != null) {
+                    try {
+                        stmt.close();
+                    } catch (final Exception e) {
                     }
-                    if (inCh != '(') {
-                        raiseException(reader, "'(' or ')' expected");
-                    }
-                    // we are now at the beginning of the row.
-                    ++importedRows;
-                    progressWriter.update(importedRows);
-                    for (int i = 0; i < metaProperty.length; ++i) {
-                        final int col = i + 1;
-                        final int type = metaProperty[i].type;
-                        switch (type) {
-                            case HP_NUMERIC:
-                            case HP_DOUBLE:
-                            case HP_INTEGER: {
-                                final Number number = readNumber(reader);
-                                if (stmt != null) {
-                                    if (number == null) {
-                                        if (type == HP_NUMERIC) {
-                                            stmt.setNull(col, Types.NUMERIC);
-                                        } else if (type == HP_INTEGER) {
-                                            stmt.setNull(col, Types.INTEGER);
-                                        } else if (type == HP_DOUBLE) {
-                                            stmt.setNull(col, Types.DOUBLE);
-                                        }
-                                    } else {
-                                        if (number instanceof Integer) {
-                                            stmt.setInt(col, number.intValue());
-                                        } else if (number instanceof Long) {
-                                            stmt.setLong(col, number.longValue());
-                                        } else if (number instanceof Double) {
-                                            stmt.setDouble(col, number.doubleValue());
-                                        } else if (number instanceof BigDecimal) {
-                                            stmt.setBigDecimal(col, (BigDecimal) number);
-                                        }
-                                    }
-                                }
-                                break;
-                            }
-
-                            case HP_TIMESTAMP: {
-                                final String val = readString(reader);
-                                metaProperty[i].updateMaxLength(val);
-                                if (stmt != null) {
-                                    if (val == null) {
-                                        stmt.setTimestamp(col, null);
-                                    } else {
-                                        stmt.setTimestamp(col, Timestamp.valueOf(val));
-                                    }
-                                }
-                                break;
-                            }
+                }
+                selectInfo.cancel();
+            }
+        }
+    }
 
-                            case HP_TIME: {
-                                final String val = readString(reader);
-                                metaProperty[i].updateMaxLength(val);
-                                if (stmt != null) {
-                                    if (val == null) {
-                                        stmt.setTime(col, null);
-                                    } else {
-                                        stmt.setTime(col, Time.valueOf(val));
-                                    }
-                                }
-                                break;
-                            }
+    /**
+     * The rows of a table in the subset of dump-subset, selected by their primary keys with queries of up to
+     * {@link SubsetCollector#IN_LIST_SIZE} keys each. The rows of all queries are written as one table section.
+     */
+    private static class SubsetDumpSource extends TableDumpSource {
 
-                            case HP_DATE: {
-                                final String val = readString(reader);
-                                metaProperty[i].updateMaxLength(val);
-                                if (stmt != null) {
-                                    if (val == null) {
-                                        stmt.setDate(col, null);
-                                    } else {
-                                        stmt.setDate(col, java.sql.Date.valueOf(val));
-                                    }
-                                }
-                                break;
-                            }
+        private final String _keyColumn;
+        private final long[] _keys;
+        private int _start;
 
-                            case HP_BLOB: // we try our best by reading BLOB/CLOB
-                            case HP_CLOB: // as String (known not to work on Oracle
-                            case HP_STRING: {
-                                final String val = readString(reader);
-                                metaProperty[i].updateMaxLength(val);
-                                if (stmt != null) {
-                                    stmt.setString(col, val);
-                                }
-                                break;
-                            }
-                            case HP_BOOLEAN:
-                                final String val = readToken(reader);
-                                metaProperty[i].updateMaxLength(1);
-                                if (stmt != null) {
-                                    stmt.setBoolean(col, Boolean.valueOf(val));
-                                }
-                                break;
+        SubsetDumpSource(final String table, final SQLSession session, final String keyColumn, final long[] keys) {
+            super(null, table, session);
+            _keyColumn = keyColumn;
+            _keys = keys;
+            setExpectedRows(keys.length, false);
+        }
 
-                            default:
-                                throw new IllegalArgumentException("type " + TYPES[metaProperty[i].type] + " not supported yet");
-                        }
-                        expect(reader, i + 1 < metaProperty.length ? ',' : ')');
-                    }
-                    try {
-                        if (stmt != null) {
-                            stmt.execute();
-                        }
-                    } catch (final SQLException e) {
-                        String msg = e.getMessage();
-                        // oracle adds CR for some reason.
-                        if (msg != null) {
-                            msg = msg.trim();
-                        }
-                        reportProblem(msg);
-                        ++problemRows;
-                    }
+        @Override
+        public ResultSet getResultSet() throws SQLException {
+            _start = 0;
+            return selectNextKeys();
+        }
 
-                    // commit every once in a while.
-                    if (hot && commitPoint >= 0 && importedRows % commitPoint == 0) {
-                        conn.commit();
-                    }
-                }
-                progressWriter.finish();
-            } else {
-                HenPlus.msg().println("ignoring unknown token " + token);
-                dumpTime = readString(reader);
-                expect(reader, ')');
+        @Override
+        public ResultSet nextResultSet() throws SQLException {
+            if (_start >= _keys.length) {
+                return null;
             }
+            getStatement().close();
+            return selectNextKeys();
         }
 
-        // return final count.
-        finishProblemReports();
+        private ResultSet selectNextKeys() throws SQLException {
+            final int end = Math.min(_keys.length, _start + SubsetCollector.IN_LIST_SIZE);
+            setWhereClause(SubsetCollector.appendInList(new StringBuilder(), _keyColumn, _keys, _start, end).toString());
+            _start = end;
+            return super.getResultSet();
+        }
+    }
 
-        if (!hot) {
-            printMetaDataInfo(metaProperty);
+    /**
+     * A table to be dumped by one of the workers of a parallel dump.
+     */
+    private static class ParallelDumpJob {
+
+        private final String _schema;
+        private final String _table;
+        private final long _expectedRows;
+        private final boolean _expectedRowsExact;
+        private final String _whereClause;
+        private final int _part;
+        private final int _parts;
+        private final CountDownLatch _done;
+        private volatile File _tempFile;
+        private volatile File _shardFile;
+        private volatile long _checksum;
+        private volatile int _result;
+        private volatile long _rows;
+
+        /**
+         * @param expectedRowsExact
+         *            whether the expected rows have been counted.
+         * @param whereClause
+         *            the key range to dump, if this is one of several parts of the table; null for the whole table.
+         */
+        ParallelDumpJob(final String schema, final String table, final long expectedRows, final boolean expectedRowsExact,
+                final String whereClause, final int part, final int parts) {
+            _schema = schema;
+            _table = table;
+            _expectedRows = expectedRows;
+            _expectedRowsExact = expectedRowsExact;
+            _whereClause = whereClause;
+            _part = part;
+            _parts = parts;
+            _done = new CountDownLatch(1);
+            _result = EXEC_FAILED;
         }
 
-        // final commit, if commitPoints are enabled.
-        if (hot && commitPoint >= 0) {
-            conn.commit();
+        public String getSchema() {
+            return _schema;
         }
 
-        // we're done.
-        if (stmt != null) {
-            try {
-                stmt.close();
-            } catch (final Exception e) {
-            }
+        public String getTable() {
+            return _table;
         }
 
-        if (expectedRows >= 0 && expectedRows != importedRows) {
-            HenPlus.msg().println("WARNING: expected " + expectedRows + " but got " + importedRows + " rows");
-        } else {
-            HenPlus.msg().println("ok. ");
+        public long getExpectedRows() {
+            return _expectedRows;
         }
-        HenPlus.msg().print("(" + importedRows + " rows total");
-        if (hot) {
-            HenPlus.msg().print(" / " + problemRows + " with errors");
+
+        public boolean isExpectedRowsExact() {
+            return _expectedRowsExact;
         }
-        HenPlus.msg().print("; ");
-        final long execTime = System.currentTimeMillis() - startTime;
-        TimeRenderer.printTime(execTime, HenPlus.msg());
-        HenPlus.msg().print(" total; ");
-        TimeRenderer.printFraction(execTime, importedRows, HenPlus.msg());
-        HenPlus.msg().println(" / row)");
-        return SUCCESS;
-    }
 
-    public MetaProperty[] parseMetaData(final LineNumberReader in) throws IOException {
-        final List<MetaProperty> metaList = new ArrayList<MetaProperty>();
-        expect(in, '(');
-        while (true) {
-            final String colName = readString(in);
-            metaList.add(new MetaProperty(colName));
-            skipWhite(in);
-            final char inCh = (char) in.read();
-            if (inCh == ')') {
-                break;
-            }
-            if (inCh != ',') {
-                raiseException(in, "',' or ')' expected");
-            }
+        public String getWhereClause() {
+            return _whereClause;
+        }
+
+        /**
+         * describes the part for messages; empty, if the whole table is dumped.
+         */
+        public String getPartDescription() {
+            return _parts > 1 ? " part " + _part + "/" + _parts : "";
         }
-        expect(in, '(');
-        final MetaProperty[] result = metaList.toArray(new MetaProperty[metaList.size()]);
-        for (int i = 0; i < result.length; ++i) {
-            final String typeName = readString(in);
-            result[i].setTypeName(typeName);
-            expect(in, i + 1 < result.length ? ',' : ')');
+
+        public int getPart() {
+            return _part;
         }
-        expect(in, ')');
-        return result;
-    }
 
-    String lastProblem = null;
-    long problemCount = 0;
+        public int getParts() {
+            return _parts;
+        }
 
-    private void reportProblem(final String msg) {
-        if (msg == null) {
-            return;
+        public File getTempFile() {
+            return _tempFile;
         }
-        if (msg.equals(lastProblem)) {
-            ++problemCount;
-        } else {
-            finishProblemReports();
-            problemCount = 1;
-            HenPlus.msg().print("Problem: " + msg);
-            lastProblem = msg;
+
+        public void setTempFile(final File tempFile) {
+            _tempFile = tempFile;
         }
-    }
 
-    private void finishProblemReports() {
-        if (problemCount > 1) {
-            HenPlus.msg().print("   (" + problemCount + " times)");
+        /**
+         * the file this job writes in a dump into a directory; null, if it writes a temporary file.
+         */
+        public File getShardFile() {
+            return _shardFile;
         }
-        if (problemCount > 0) {
-            HenPlus.msg().println();
+
+        public void setShardFile(final File shardFile) {
+            _shardFile = shardFile;
         }
-        lastProblem = null;
-        problemCount = 0;
-    }
 
-    public void checkSupported(final int version) throws IllegalArgumentException {
-        if (version <= 0 || version > DUMP_VERSION) {
-            throw new IllegalArgumentException("incompatible dump-version");
+        /**
+         * the CRC32 checksum of the shard file once it is written.
+         */
+        public long getChecksum() {
+            return _checksum;
         }
-    }
 
-    public void expect(final LineNumberReader in, final char ch) throws IOException {
-        skipWhite(in);
-        final char inCh = (char) in.read();
-        if (ch != inCh) {
-            raiseException(in, "'" + ch + "' expected");
+        public void setChecksum(final long checksum) {
+            _checksum = checksum;
         }
-    }
 
-    private void quoteString(final PrintStream out, final String in) {
-        final StringBuilder buf = new StringBuilder();
-        buf.append("'");
-        final int len = in.length();
-        for (int i = 0; i < len; ++i) {
-            final char c = in.charAt(i);
-            if (c == '\'' || c == '\\') {
-                buf.append("\\");
-            }
-            buf.append(c);
+        public int getResult() {
+            return _result;
         }
-        buf.append("'");
-        out.print(buf.toString());
-    }
 
-    /**
-     * skip whitespace. return false, if EOF reached.
-     */
-    private boolean skipWhite(final Reader in) throws IOException {
-        in.mark(1);
-        int c;
-        while ((c = in.read()) > 0) {
-            if (!Character.isWhitespace((char) c)) {
-                in.reset();
-                return true;
-            }
-            in.mark(1);
+        public long getRows() {
+            return _rows;
         }
-        return false;
-    }
 
-    private String readToken(final LineNumberReader in) throws IOException {
-        skipWhite(in);
-        final StringBuilder token = new StringBuilder();
-        in.mark(1);
-        int c;
-        while ((c = in.read()) > 0) {
-            final char ch = (char) c;
-            if (Character.isWhitespace(ch) || ch == ';' || ch == ',' || ch == '(' || ch == ')') {
-                in.reset();
-                break;
-            }
-            token.append(ch);
-            in.mark(1);
+        public void setRows(final long rows) {
+            _rows = rows;
+        }
+
+        public void finish(final int result) {
+            _result = result;
+            _done.countDown();
+        }
+
+        public void awaitCompletion() throws InterruptedException {
+            _done.await();
         }
-        return token.toString();
     }
 
     /**
-     * read a string. This is either NULL without quotes or a quoted string.
+     * A worker of a parallel dump. Takes the next job from the queue and dumps it into a temporary file, or its shard file
+     * in a dump into a directory, using its own connection until the queue is empty. Jobs taken after an interrupt are
+     * finished without being dumped, so that nobody waits for them.
      */
-    private String readString(final LineNumberReader in) throws IOException {
-        int nullParseState = 0;
-        int c;
-        while ((c = in.read()) > 0) {
-            final char ch = (char) c;
-            // unless we already parse the NULL string, skip whitespaces.
-            if (nullParseState == 0 && Character.isWhitespace(ch)) {
-                continue;
-            }
-            if (ch == '\'') {
-                break; // -> opening string.
-            }
-            if (Character.toUpperCase(ch) == NULL_STR.charAt(nullParseState)) {
-                ++nullParseState;
-                if (nullParseState == NULL_STR.length()) {
-                    return null;
-                }
-                continue;
-            }
-            raiseException(in, "unecpected character '" + ch + "'");
+    private class ParallelDumpWorker extends Thread {
+
+        private final int _number;
+        private final SQLSession _session;
+        private final Queue<ParallelDumpJob> _queue;
+        private final File _tempDir;
+        private final int _compressThreads;
+        private int _tables;
+        private long _rows;
+        private long _busyTime;
+
+        /**
+         * @param compressThreads
+         *            the threads compressing each .gz shard file.
+         */
+        ParallelDumpWorker(final int number, final SQLSession session, final Queue<ParallelDumpJob> queue,
+                final File tempDir, final int compressThreads) {
+            super("dump-worker-" + number);
+            _number = number;
+            _session = session;
+            _queue = queue;
+            _tempDir = tempDir;
+            _compressThreads = compressThreads;
         }
 
-        // ok, we found an opening quote.
-        final StringBuilder result = new StringBuilder();
-        while ((c = in.read()) > 0) {
-            if (c == '\\') {
-                c = in.read();
-                if (c < 0) {
-                    raiseException(in, "excpected character after backslash escape");
+        @Override
+        public void run() {
+            ParallelDumpJob job;
+            while ((job = _queue.poll()) != null) {
+                if (!_running) {
+                    job.finish(EXEC_FAILED);
+                    continue;
+                }
+                final long startTime = System.currentTimeMillis();
+                int result = EXEC_FAILED;
+                DumpWriter out = null;
+                try {
+                    final File shardFile = job.getShardFile();
+                    if (shardFile != null) {
+                        out = openShardOutput(shardFile, _compressThreads);
+                    } else {
+                        final File tempFile = File.createTempFile("henplus-dump-", ".tmp", _tempDir);
+                        job.setTempFile(tempFile);
+                        out = new DumpWriter(new FileOutputStream(tempFile));
+                    }
+                    final TableDumpSource source = new TableDumpSource(job.getSchema(), job.getTable(), _session);
+                    source.setWhereClause(job.getWhereClause());
+                    source.setExpectedRows(job.getExpectedRows(), job.isExpectedRowsExact());
+                    result = dumpTable(_session, source, out, FILE_ENCODING, job);
+                    out.close();
+                    out = null;
+                    if (shardFile != null) {
+                        job.setChecksum(DumpManifest.checksum(shardFile));
+                    }
+                    if (result == SUCCESS) {
+                        final long execTime = System.currentTimeMillis() - startTime;
+                        ++_tables;
+                        _rows += job.getRows();
+                        HenPlus.msg().println(
+                                "worker " + _number + ": dumped '" + job.getTable() + "'" + job.getPartDescription() + " ("
+                                        + job.getRows() + " rows) in " + TimeRenderer.renderTime(execTime));
+                    }
+                } catch (final Exception e) {
+                    HenPlus.msg().println(
+                            "worker " + _number + ": dump table '" + job.getTable() + "'" + job.getPartDescription() + " failed: "
+                                    + e.getMessage());
+                } finally {
+                    closeOutput(out);
+                    _busyTime += System.currentTimeMillis() - startTime;
+                    job.finish(result);
                 }
-                result.append((char) c);
-                continue;
-            }
-            final char ch = (char) c;
-            if (ch == '\'') {
-                break; // End Of String.
             }
-            result.append((char) c);
         }
-        return result.toString();
-    }
 
-    /**
-     * convenience method to throw Exceptions containing the line number.
-     */
-    private void raiseException(final LineNumberReader in, final String msg) throws IOException {
-        throw new IOException("line " + (in.getLineNumber() + 1) + ": " + msg);
-    }
+        public int getNumber() {
+            return _number;
+        }
 
-    private void printMetaDataInfo(final MetaProperty[] prop) {
-        HenPlus.out().println();
-        META_HEADERS[0].resetWidth();
-        META_HEADERS[1].resetWidth();
-        final TableRenderer table = new TableRenderer(META_HEADERS, HenPlus.out());
-        for (int i = 0; i < prop.length; ++i) {
-            final Column[] row = new Column[3];
-            row[0] = new Column(prop[i].getFieldName());
-            row[1] = new Column(prop[i].getTypeName());
-            row[2] = new Column(prop[i].getMaxLength());
-            table.addRow(row);
+        public int getTables() {
+            return _tables;
         }
-        table.closeTable();
-    }
 
-    // -- Interruptable interface
-    @Override
-    public synchronized void interrupt() {
-        _running = false;
-    }
+        public long getRows() {
+            return _rows;
+        }
 
-    private void beginInterruptableSection() {
-        _running = true;
-        SigIntHandler.getInstance().pushInterruptable(this);
-    }
+        public long getBusyTime() {
+            return _busyTime;
+        }
 
-    private void endInterruptableSection() {
-        SigIntHandler.getInstance().popInterruptable();
+        public void closeSession() {
+            _session.close();
+        }
     }
 
     /**
-     * complete the table name.
+     * A table to be loaded by one of the workers of a parallel dump-in.
      */
-    @Override
-    public Iterator<String> complete(final CommandDispatcher disp, final String partialCommand, String lastWord) {
-        final StringTokenizer st = new StringTokenizer(partialCommand);
-        final String cmd = (String) st.nextElement();
-        int argc = st.countTokens();
-        if (lastWord.length() > 0) {
-            argc--;
+    private static class ParallelLoadJob {
+
+        private final String _table;
+        private final File _file;
+        private final long _offset;
+        private volatile int _result;
+        private volatile long _rows;
+        private volatile long _problemRows;
+        private long _checksum;
+
+        ParallelLoadJob(final String table, final File file) {
+            this(table, file, -1);
         }
 
-        if ("dump-conditional".equals(cmd)) {
-            if (argc == 0) {
-                return new FileCompletionIterator(partialCommand, lastWord);
-            } else if (argc == 1) {
-                if (lastWord.startsWith("\"")) {
-                    lastWord = lastWord.substring(1);
-                }
-                return _tableCompleter.completeTableName(HenPlus.getInstance().getCurrentSession(), lastWord);
-            } else if (argc > 1) {
-                st.nextElement(); // discard filename.
-                final String table = (String) st.nextElement();
-                final Collection<String> columns = _tableCompleter.columnsFor(table);
-                final NameCompleter compl = new NameCompleter(columns);
-                return compl.getAlternatives(lastWord);
-            }
-        } else if ("dump-out".equals(cmd)) {
-            // this is true for dump-out und verify-dump
-            if (argc == 0) {
-                return new FileCompletionIterator(partialCommand, lastWord);
-            }
-            if (argc > 0) {
-                if (lastWord.startsWith("\"")) {
-                    lastWord = lastWord.substring(1);
-                }
-                final HashSet<String> alreadyGiven = new HashSet<String>();
-                /*
-                 * do not complete the tables we already gave on the
-                 * commandline.
-                 */
-                while (st.hasMoreElements()) {
-                    alreadyGiven.add(st.nextToken());
-                }
+        ParallelLoadJob(final String table, final File file, final long offset) {
+            _table = table;
+            _file = file;
+            _offset = offset;
+            _result = EXEC_FAILED;
+            _checksum = -1;
+        }
 
-                final Iterator<String> it = _tableCompleter.completeTableName(HenPlus.getInstance().getCurrentSession(), lastWord);
+        public String getTable() {
+            return _table;
+        }
 
-                return new Iterator<String>() {
+        public File getFile() {
+            return _file;
+        }
 
-                    String table = null;
+        /**
+         * the position of the table section in the file; -1, if the whole file is read.
+         */
+        public long getOffset() {
+            return _offset;
+        }
 
-                    @Override
-                    public boolean hasNext() {
-                        while (it.hasNext()) {
-                            table = (String) it.next();
-                            if (alreadyGiven.contains(table)) {
-                                continue;
-                            }
-                            return true;
-                        }
-                        return false;
-                    }
+        public int getResult() {
+            return _result;
+        }
 
-                    @Override
-                    public String next() {
-                        return table;
-                    }
+        public void setResult(final int result) {
+            _result = result;
+        }
 
-                    @Override
-                    public void remove() {
-                        throw new UnsupportedOperationException("no!");
-                    }
-                };
-            }
-        } else {
-            if (argc == 0) {
-                return new FileCompletionIterator(partialCommand, lastWord);
-            }
+        public long getRows() {
+            return _rows;
+        }
+
+        public long getProblemRows() {
+            return _problemRows;
+        }
+
+        /**
+         * the CRC32 checksum the file is expected to have; -1, if it is not checked.
+         */
+        public long getChecksum() {
+            return _checksum;
+        }
+
+        public void setChecksum(final long checksum) {
+            _checksum = checksum;
+        }
+
+        public void addRows(final long rows, final long problemRows) {
+            _rows += rows;
+            _problemRows += problemRows;
         }
-        return null;
     }
 
     /**
-     * return a descriptive string.
+     * A worker of a parallel dump-in. Takes the next table of the current dependency level from the queue and loads it with
+     * its own connection; the table is committed when it is completely loaded. Without a connection, it verifies the tables
+     * of a dump directory.
      */
-    @Override
-    public String getShortDescription() {
-        return "handle table dumps";
-    }
+    private class ParallelLoadWorker extends Thread {
 
-    @Override
-    public String getSynopsis(final String cmd) {
-        if ("dump-out".equals(cmd)) {
-            return cmd + " <filename> (<tablename> | <prefix>* | *)+;";
-        } else if ("dump-conditional".equals(cmd)) {
-            return cmd + " <filename> <tablename> [<where-clause>]";
-        } else if ("dump-select".equals(cmd)) {
-            return cmd + " <filename> <exported-tablename> select ...";
-        } else if ("dump-in".equals(cmd)) {
-            return cmd + " <filename> [<commit-intervall>]";
-        } else if ("verify-dump".equals(cmd)) {
-            return cmd + " <filename>";
+        private final int _number;
+        private final SQLSession _session;
+        private final Queue<ParallelLoadJob> _queue;
+        private final int _commitPoint;
+
+        ParallelLoadWorker(final int number, final SQLSession session, final Queue<ParallelLoadJob> queue, final int commitPoint) {
+            super("load-worker-" + number);
+            _number = number;
+            _session = session;
+            _queue = queue;
+            _commitPoint = commitPoint;
         }
-        return cmd;
-    }
 
-    @Override
-    public String getLongDescription(final String cmd) {
-        String dsc = null;
-        if ("dump-out".equals(cmd)) {
-            dsc = "\tDump out the contents of the table(s) given to the file\n"
-                    + "\twith the given name. If the filename ends with '.gz', the\n"
-                    + "\tcontent is gzip'ed automatically .. that saves space.\n" + "\n"
-                    + "\tFor the selection of the tables you want to dump-out,\n"
-                    + "\tyou are able to use wildcards (*) to match all tables or\n" + "\ta specific set of tables.\n"
-                    + "\tE.g. you might specify \"*\" to match all tables, or\"tb_*\"\n"
-                    + "\tto match all tables starting with \"tb_\".\n" + "\n"
-                    + "\tThe dump-format allows to read in the data back into\n"
-                    + "\tthe database ('dump-in' command). And unlike pure SQL-insert\n"
-                    + "\tstatements, this works even across databases.\n"
-                    + "\tSo you can make a dump of your MySQL database and read it\n"
-                    + "\tback into Oracle, for instance. To achive this database\n"
-                    + "\tindependence, the data is stored in a canonical form\n"
-                    + "\t(e.g. the Time/Date). The file itself is human readable\n"
-                    + "\tand uses less space than simple SQL-inserts:\n" + "\t----------------\n" + "\t  (tabledump 'student'\n"
-                    + "\t    (dump-version 1 1)\n" + "\t    (henplus-version 0.3.3)\n"
-                    + "\t    (database-info 'MySQL - 3.23.47')\n" + "\t    (meta ('name',   'sex',    'student_id')\n"
-                    + "\t          ('STRING', 'STRING', 'INTEGER'   ))\n" + "\t    (data ('Megan','F',1)\n"
-                    + "\t          ('Joseph','M',2)\n" + "\t          ('Kyle','M',3)\n" + "\t          ('Mac Donald\\'s','M',4))\n"
-                    + "\t    (rows 4))\n" + "\t----------------\n\n" + "\tTODOs\n" + "\tThis format contains only the data, no\n"
-                    + "\tcanonical 'create table' statement - so the table must\n"
-                    + "\talready exist at import time. Both these features will\n" + "\tbe in later versions of HenPlus.";
-        } else if ("dump-conditional".equals(cmd)) {
-            dsc = "\tLike dump-out, but dump only the rows of a single table\n" + "\tthat match the where clause.";
-        } else if ("dump-in".equals(cmd)) {
-            dsc = "\tRead back in the data that has been dumped out with the\n"
-                    + "\t'dump-out' command. If the filename ends with '.gz',\n"
-                    + "\tthen the content is assumed to be gzipped and is\n"
-                    + "\tunpacked on the fly. The 'dump-in' command fills\n"
-                    + "\texisting tables, it does not create missing ones!\n\n"
-                    + "\tExisting content ist not deleted before, dump-in just\n" + "\tinserts all data found in the dump.\n\n"
-                    + "\tInternally, the import uses a prepared statement that is\n"
-                    + "\tfed with the typed data according to the meta data (see\n"
-                    + "\tdump-out for the file format). This evens out differences\n"
-                    + "\tbetween databases and of course enhances speed compared\n" + "\tto non-prepared statements.\n\n"
-                    + "\tThe import is done in the current transaction, unless\n"
-                    + "\tyou specify the commit-interval. The commit-interval specify\n"
-                    + "\tthe number of inserts, that are executed before an commit\n"
-                    + "\tis done. For a large amount of data this option is\n"
-                    + "\tnecessary, since otherwise your rollback-segments\n" + "\tmight get a problem ;-)";
-        } else if ("verify-dump".equals(cmd)) {
-            dsc = "\tLike dump-in, but a 'dry run'. Won't change anything\n"
-                    + "\tbut parses the whole file to determine whether it has\n"
-                    + "\tsyntax errors or is damaged. Any syntax errors are\n"
-                    + "\treported as it were a 'dump-in'. Problems that might\n"
-                    + "\toccur in a 'real' import in the database (that might\n"
-                    + "\tdetect, that the import would create duplicate keys for\n"
-                    + "\tinstance) can not be determined, of course.";
+        @Override
+        public void run() {
+            final String action = _session != null ? "load" : "verify";
+            ParallelLoadJob job;
+            while (_running && (job = _queue.poll()) != null) {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    if (job.getChecksum() >= 0 && DumpManifest.checksum(job.getFile()) != job.getChecksum()) {
+                        HenPlus.msg().println("worker " + _number + ": checksum of " + job.getFile()
+                                + " does not match the manifest.");
+                    } else if (job.getOffset() >= 0) {
+                        job.setResult(readDumpSection(job.getFile(), BinaryDumpReader.isBinaryDump(job.getFile()),
+                                job.getOffset(), _session, _commitPoint, job));
+                    } else {
+                        job.setResult(readDump(job.getFile(), _session, _commitPoint, job, null, null));
+                    }
+                } catch (final Exception e) {
+                    HenPlus.msg().println("worker " + _number + ": " + action + " table '" + job.getTable() + "' failed: "
+                            + e.getMessage());
+                }
+                if (job.getResult() != SUCCESS || !_running) {
+                    if (_session != null) {
+                        try {
+                            _session.getConnection().rollback();
+                        } catch (final SQLException ignoreMe) {
+                            /* autocommit or nothing to roll back */
+                        }
+                    }
+                    if (!_running) {
+                        job.setResult(EXEC_FAILED);
+                    }
+                    continue;
+                }
+                final long execTime = System.currentTimeMillis() - startTime;
+                final StringBuilder msg = new StringBuilder();
+                msg.append("worker ").append(_number).append(_session != null ? ": loaded '" : ": verified '");
+                msg.append(job.getTable()).append("' (");
+                msg.append(job.getRows()).append(" rows / ").append(job.getProblemRows()).append(" with errors) in ");
+                msg.append(TimeRenderer.renderTime(execTime));
+                HenPlus.msg().println(msg.toString());
+            }
         }
-        return dsc;
     }
 
     /**
-     * A source for dumps.
+     * A thread of a parallel verify-dump. Takes the next table section from the queue and reads it on its own from its
+     * offset in the dump file.
      */
-    private interface DumpSource {
+    private class ParallelVerifyWorker extends Thread {
 
-        MetaProperty[] getMetaProperties() throws SQLException;
+        private final int _number;
+        private final Queue<ParallelLoadJob> _queue;
+        private final boolean _binary;
 
-        String getDescription();
+        ParallelVerifyWorker(final int number, final Queue<ParallelLoadJob> queue, final boolean binary) {
+            super("verify-worker-" + number);
+            _number = number;
+            _queue = queue;
+            _binary = binary;
+        }
 
-        String getTableName();
+        @Override
+        public void run() {
+            ParallelLoadJob job;
+            while (_running && (job = _queue.poll()) != null) {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    job.setResult(readDumpSection(job.getFile(), _binary, job.getOffset(), null, -1, job));
+                } catch (final Exception e) {
+                    HenPlus.msg().println("worker " + _number + ": verify table '" + job.getTable() + "' failed: "
+                            + e.getMessage());
+                }
+                if (job.getResult() != SUCCESS || !_running) {
+                    continue;
+                }
+                final long execTime = System.currentTimeMillis() - startTime;
+                HenPlus.msg().println("worker " + _number + ": verified '" + job.getTable() + "' (" + job.getRows()
+                        + " rows) in " + TimeRenderer.renderTime(execTime));
+            }
+        }
+    }
 
-        Statement getStatement() throws SQLException;
+    private class BatchSizeProperty extends PropertyHolder {
 
-        ResultSet getResultSet() throws SQLException;
+        public BatchSizeProperty() {
+            super(String.valueOf(DEFAULT_BATCH_SIZE));
+        }
 
-        long getExpectedRows();
-    }
+        @Override
+        protected String propertyChanged(String newValue) throws Exception {
+            newValue = newValue.trim();
+            int newIntValue;
+            try {
+                newIntValue = Integer.parseInt(newValue);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("cannot parse '" + newValue + "' as integer");
+            }
+            if (newIntValue < 1) {
+                throw new IllegalArgumentException("value cannot be less than 1");
+            }
+            _batchSize = newIntValue;
+            return newValue;
+        }
 
-    private static class SelectDumpSource implements DumpSource {
+        @Override
+        public String getDefaultValue() {
+            return String.valueOf(DEFAULT_BATCH_SIZE);
+        }
 
-        private final SQLSession _session;
-        private final String _sqlStat;
-        private final String _exportTable;
-        private MetaProperty[] _meta;
-        private Statement _workingStatement;
-        private ResultSet _resultSet;
+        @Override
+        public String getShortDescription() {
+            return "number of rows dump-in sends to the database at once";
+        }
 
-        SelectDumpSource(final SQLSession session, final String exportTable, final String sqlStat) {
-            _session = session;
-            _sqlStat = sqlStat;
-            _exportTable = exportTable;
+        @Override
+        public String getLongDescription() {
+            return "\tThe number of rows dump-in collects and sends to the\n"
+                    + "\tdatabase with a single JDBC batch, or with a single\n"
+                    + "\tmulti-row INSERT with the session property\n"
+                    + "\t'insert-strategy' set to values. This saves a round\n"
+                    + "\ttrip to the database for each row. If a batch fails,\n"
+                    + "\tits rows are inserted one by one, so that each failing\n"
+                    + "\trow is reported. Set to 1 to insert row by row; this is\n"
+                    + "\talso done if the driver does not support batches.";
+        }
+    }
+
+    private class CompressionLevelProperty extends PropertyHolder {
+
+        public CompressionLevelProperty() {
+            super(String.valueOf(DEFAULT_COMPRESSION_LEVEL));
         }
 
         @Override
-        public MetaProperty[] getMetaProperties() throws SQLException {
-            if (_meta != null) {
-                return _meta;
+        protected String propertyChanged(String newValue) throws Exception {
+            newValue = newValue.trim();
+            int newIntValue;
+            try {
+                newIntValue = Integer.parseInt(newValue);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("cannot parse '" + newValue + "' as integer");
             }
-            final ResultSet rset = getResultSet();
-
-            final ResultSetMetaData rsMeta = rset.getMetaData();
-            final int cols = rsMeta.getColumnCount();
-            _meta = new MetaProperty[cols];
-            for (int i = 0; i < cols; ++i) {
-                _meta[i] = new MetaProperty(rsMeta.getColumnName(i + 1), rsMeta.getColumnType(i + 1));
+            if (newIntValue < 0 || newIntValue > 9) {
+                throw new IllegalArgumentException("value must be between 0 and 9");
             }
-            return _meta;
+            _compressionLevel = newIntValue;
+            return newValue;
         }
 
         @Override
-        public String getDescription() {
-            return _sqlStat;
+        public String getDefaultValue() {
+            return String.valueOf(DEFAULT_COMPRESSION_LEVEL);
         }
 
         @Override
-        public String getTableName() {
-            return _exportTable;
+        public String getShortDescription() {
+            return "gzip compression level of dumps written to .gz files";
         }
 
         @Override
-        public Statement getStatement() throws SQLException {
-            return _workingStatement;
+        public String getLongDescription() {
+            return "\tThe compression level from 0 (none) to 9 (best) of dump\n"
+                    + "\tfiles whose name ends with .gz. The file is cut into\n"
+                    + "\tblocks that are compressed in parallel on all\n"
+                    + "\tprocessors; the result is a multi-member gzip file\n"
+                    + "\tthat gunzip and dump-in read as usual. The files of a dump\n"
+                    + "\tinto a directory are compressed with this level; with 0,\n"
+                    + "\tthey are written uncompressed.";
+        }
+    }
+
+    private class DumpFormatProperty extends EnumeratedPropertyHolder {
+
+        public DumpFormatProperty() {
+            super(DUMP_FORMATS);
+            propertyValue = DUMP_FORMATS[0];
         }
 
         @Override
-        public ResultSet getResultSet() throws SQLException {
-            if (_resultSet != null) {
-                return _resultSet;
-            }
-            _workingStatement = _session.createStatement();
-            try {
-                _workingStatement.setFetchSize(1000);
-            } catch (final Exception e) {
-                // ignore
-            }
-            _resultSet = _workingStatement.executeQuery(_sqlStat);
-            return _resultSet;
+        protected void enumeratedPropertyChanged(final int index, final String value) {
+            _binaryFormat = index == 1;
         }
 
         @Override
-        public long getExpectedRows() {
-            return -1;
+        public String getDefaultValue() {
+            return DUMP_FORMATS[0];
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "format of the files written by dump-out";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "\tThe format dump-out, dump-conditional and dump-select\n"
+                    + "\twrite. 'text' is the human readable format that can be\n"
+                    + "\tread by all versions of HenPlus. 'binary' is a compact\n"
+                    + "\tformat that is much faster to read back. dump-in and\n"
+                    + "\tverify-dump recognize the format automatically.";
         }
     }
 
-    private static class TableDumpSource implements DumpSource {
+    private class RowCountProperty extends EnumeratedPropertyHolder {
 
-        private final SQLSession _session;
-        private final String _table;
-        private final String _schema;
-        private MetaProperty[] _meta;
-        private Statement _workingStatement;
-        private String _whereClause;
+        public RowCountProperty() {
+            super(ROW_COUNT_MODES);
+            propertyValue = ROW_COUNT_MODES[ROW_COUNT_ESTIMATE];
+        }
 
-        TableDumpSource(final String schema, final String table, final SQLSession session) {
-            _session = session;
-            _schema = schema;
-            _table = table;
+        @Override
+        protected void enumeratedPropertyChanged(final int index, final String value) {
+            _rowCountMode = index;
         }
 
         @Override
-        public String getDescription() {
-            return "table '" + _table + "'";
+        public String getDefaultValue() {
+            return ROW_COUNT_MODES[ROW_COUNT_ESTIMATE];
         }
 
         @Override
-        public String getTableName() {
-            return _table;
+        public String getShortDescription() {
+            return "how dump-out determines the number of rows of a table";
         }
 
-        public void setWhereClause(final String whereClause) {
-            _whereClause = whereClause;
+        @Override
+        public String getLongDescription() {
+            return "\tdump-out needs the number of rows of a table for its\n"
+                    + "\tprogress display and to split tables for parallel dumps.\n"
+                    + "\t'estimate' takes it from the statistics the database\n"
+                    + "\tkeeps for its optimizer, which costs next to nothing; if\n"
+                    + "\tthere are none, the number is unknown. 'fallback' runs a\n"
+                    + "\t'select count(*)' then, and 'count' always does.\n"
+                    + "\tA count is exact, but scans the whole table. Tables dumped\n"
+                    + "\twith a where clause are only counted.";
+        }
+    }
+
+    private class TextIndexProperty extends BooleanPropertyHolder {
+
+        public TextIndexProperty() {
+            super(false);
+            propertyValue = "off";
         }
 
         @Override
-        public Statement getStatement() {
-            return _workingStatement;
+        public void booleanPropertyChanged(final boolean switchOn) {
+            _writeTextIndex = switchOn;
         }
 
         @Override
-        public MetaProperty[] getMetaProperties() throws SQLException {
-            if (_meta != null) {
-                return _meta;
-            }
+        public String getDefaultValue() {
+            return "off";
+        }
 
-            final List<MetaProperty> metaList = new ArrayList<MetaProperty>();
-            final Connection conn = _session.getConnection();
-            ResultSet rset = null;
-            try {
-                /*
-                 * if the same column is in more than one schema defined, then
-                 * oracle seems to write them out twice..
-                 */
-                final Set<String> doubleCheck = new HashSet<String>();
-                final DatabaseMetaData meta = conn.getMetaData();
-                rset = meta.getColumns(conn.getCatalog(), _schema, _table, null);
-                while (rset.next()) {
-                    final String columnName = rset.getString(4);
-                    if (doubleCheck.contains(columnName)) {
-                        continue;
-                    }
-                    doubleCheck.add(columnName);
-                    metaList.add(new MetaProperty(columnName, rset.getInt(5)));
-                }
-            } finally {
-                if (rset != null) {
-                    try {
-                        rset.close();
-                    } catch (final Exception e) {
-                    }
-                }
-            }
-            _meta = metaList.toArray(new MetaProperty[metaList.size()]);
-            return _meta;
+        @Override
+        public String getShortDescription() {
+            return "end uncompressed text dumps with an index";
         }
 
         @Override
-        public ResultSet getResultSet() throws SQLException {
-            final StringBuilder selectStmt = new StringBuilder("SELECT ");
-            for (int i = 0; i < _meta.length; ++i) {
-                final MetaProperty p = _meta[i];
-                if (i != 0) {
-                    selectStmt.append(", ");
-                }
-                selectStmt.append(p.fieldName);
-            }
+        public String getLongDescription() {
+            return "\tBinary and .gz dumps always end with an index of their\n"
+                    + "\ttables, that lets dump-in and verify-dump go straight\n"
+                    + "\tto a table. In .gz dumps it is hidden in a gzip header.\n"
+                    + "\tUncompressed text dumps only get it, if this is switched\n"
+                    + "\ton: HenPlus 0.9.8 and older load all tables of such a\n"
+                    + "\tdump, but then fail at the index.";
+        }
+    }
 
-            selectStmt.append(" FROM ").append(_table);
-            if (_whereClause != null) {
-                selectStmt.append(" WHERE ").append(_whereClause);
-            }
-            _workingStatement = _session.createStatement();
-            try {
-                _workingStatement.setFetchSize(1000);
-            } catch (final Exception e) {
-                // ignore
-            }
-            return _workingStatement.executeQuery(selectStmt.toString());
+    private class StatsFileProperty extends BooleanPropertyHolder {
+
+        public StatsFileProperty() {
+            super(false);
+            propertyValue = "off";
         }
 
         @Override
-        public long getExpectedRows() {
-            final CancelWriter selectInfo = new CancelWriter(HenPlus.msg());
-            Statement stmt = null;
-            ResultSet rset = null;
-            try {
-                selectInfo.print("determining number of rows...");
-                stmt = _session.createStatement();
-                final StringBuilder countStmt = new StringBuilder("SELECT count(*) from ");
-                countStmt.append(_table);
-                if (_whereClause != null) {
-                    countStmt.append(" WHERE ");
-                    countStmt.append(_whereClause);
-                }
-                rset = stmt.executeQuery(countStmt.toString());
-                rset.next();
-                return rset.getLong(1);
-            } catch (final Exception e) {
-                return -1;
-            } finally {
-                if (rset != null) {
-                    try {
-                        rset.close();
-                    } catch (final Exception e) {
-                    }
-                }
-                if (stmt != null) {
-                    try {
-                        stmt.close();
-                    } catch (final Exception e) {
-                    }
-                }
-                selectInfo.cancel();
+        public void booleanPropertyChanged(final boolean switchOn) {
+            _writeStatsFile = switchOn;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "off";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "write the statistics of each dump command to a file";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "\tIf switched on, each dump command writes the statistics\n"
+                    + "\tshown by dump-stats as tab separated values to the file\n"
+                    + "\t<filename>.<command>.stats next to the dump, e.g.\n"
+                    + "\tdb.dump.gz.dump-out.stats. Times are in milliseconds.";
+        }
+    }
+
+    private class RejectsProperty extends BooleanPropertyHolder {
+
+        public RejectsProperty() {
+            super(true);
+            propertyValue = "on";
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean switchOn) {
+            _writeRejects = switchOn;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "on";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "write the rows dump-in could not insert to a dump";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "\tIf switched on, dump-in writes each row that cannot be\n"
+                    + "\tinserted to the dump <filename>.rejects.dump next to\n"
+                    + "\tthe dump, and the error of the database to the file\n"
+                    + "\t<filename>.rejects.errors: one line per row with its\n"
+                    + "\tnumber in the dump, the table and the error. Once the\n"
+                    + "\tproblem is fixed, dump-in of the dump loads just the\n"
+                    + "\trows that failed. The files are replaced by each dump-in,\n"
+                    + "\tbut added to when resuming with dump-in -r.";
+        }
+    }
+
+    private class TempDirProperty extends PropertyHolder {
+
+        public TempDirProperty() {
+            super(System.getProperty("java.io.tmpdir"));
+        }
+
+        @Override
+        protected String propertyChanged(String newValue) throws Exception {
+            newValue = newValue.trim();
+            final File dir = _fileOpener.openFile(newValue).getAbsoluteFile();
+            if (!dir.isDirectory()) {
+                throw new IllegalArgumentException("'" + newValue + "' is not a directory");
             }
+            _tempDir = dir;
+            return newValue;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return System.getProperty("java.io.tmpdir");
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "directory for temporary files of dump-in";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "\tA parallel dump-in (dump-in -j) reads the tables directly\n"
+                    + "\tfrom the dump. Only a compressed dump written without an\n"
+                    + "\tindex, e.g. by older versions of HenPlus, is split into\n"
+                    + "\tone uncompressed temporary file per table first; these\n"
+                    + "\tare written into this directory and need as much space\n"
+                    + "\tas the uncompressed dump.\n\n"
+                    + "\tBLOB and CLOB values too large to be kept in memory are\n"
+                    + "\tbuffered in temporary files in this directory as well,\n"
+                    + "\tuntil they are inserted, and so are the rows of a table\n"
+                    + "\tthat cannot be inserted, until the table is done.";
         }
     }
 
     private static class MetaProperty {
 
         private int _maxLen;
+        private final int _jdbcType;
         public final String fieldName;
         public int type;
         public String typeName;
 
         public MetaProperty(final String fieldName) {
             this.fieldName = fieldName;
+            _jdbcType = Types.OTHER;
             _maxLen = -1;
         }
 
         public MetaProperty(final String fieldName, final int jdbcType) {
             this.fieldName = fieldName;
+            _jdbcType = jdbcType;
             this.typeName = JDBCTYPE2TYPENAME.get(Integer.valueOf(jdbcType));
             if (this.typeName == null) {
                 HenPlus.msg().println("cannot handle type '" + jdbcType + "' for field '" + this.fieldName + "'; trying String..");
@@ -1666,6 +5679,13 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
             return typeName;
         }
 
+        /**
+         * the type of the column in the database; Types.OTHER, if this property has been read from a dump.
+         */
+        public int getJdbcType() {
+            return _jdbcType;
+        }
+
         public void setTypeName(final String typeName) {
             this.type = findType(typeName);
             this.typeName = typeName;
@@ -8,6 +8,7 @@ package henplus.commands;
 import henplus.AbstractCommand;
 import henplus.CommandDispatcher;
 import henplus.HenPlus;
+import henplus.InsertStrategy;
 import henplus.Interruptable;
 import henplus.SQLSession;
 import henplus.SigIntHandler;
@@ -26,6 +27,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -113,17 +115,28 @@ public class ImportCommand extends AbstractCommand {
                 endRow = startRow > 0 ? startRow + rowCount : rowCount;
             }
             RowCountingRecipient innerRecipient = null;
+            SqlImportProcessor sqlProcessor = null;
             if ("import-print".equals(cmd)) {
                 innerRecipient = new PrintRecipient(config.getColumns());
             } else if ("import-check".equals(cmd)) {
                 innerRecipient = new CountRecipient();
             } else if ("import".equals(cmd)) {
-                innerRecipient = new SqlImportProcessor(session, config);
+                sqlProcessor = new SqlImportProcessor(session, config);
+                innerRecipient = sqlProcessor;
             }
 
             final FilterRecipient filterRecipient = new FilterRecipient(startRow, endRow, innerRecipient);
             SigIntHandler.getInstance().pushInterruptable(filterRecipient);
-            importFile(config, filterRecipient);
+            try {
+                importFile(config, filterRecipient);
+                if (sqlProcessor != null) {
+                    sqlProcessor.flush();
+                }
+            } finally {
+                if (sqlProcessor != null) {
+                    sqlProcessor.close();
+                }
+            }
             final long readRows = filterRecipient.getRowCount();
             final long processedRows = innerRecipient.getRowCount();
 
@@ -376,47 +389,44 @@ public class ImportCommand extends AbstractCommand {
     private static final class SqlImportProcessor implements RowCountingRecipient {
 
         private long _rows;
-        private final PreparedStatement _stmt;
+        private final InsertStrategy _inserts;
+        private final int _columnCount;
+        private Object[] _values;
 
         public SqlImportProcessor(final SQLSession session, final ImportConfiguration config) throws Exception {
             _rows = 0;
-            final StringBuilder cmd = new StringBuilder("insert into ");
-            cmd.append(config.getTable()).append(" (");
-            boolean isFirst = true;
-            for (int i = 0; i < config.getColumns().length; ++i) {
-                if (config.getColumns()[i] != null) {
-                    if (!isFirst) {
-                        cmd.append(",");
-                    }
-                    isFirst = false;
-                    cmd.append(config.getColumns()[i]);
-                }
-            }
-            cmd.append(") values (");
-            isFirst = true;
+            final List<String> columns = new ArrayList<String>();
             for (int i = 0; i < config.getColumns().length; ++i) {
                 if (config.getColumns()[i] != null) {
-                    if (!isFirst) {
-                        cmd.append(",");
-                    }
-                    isFirst = false;
-                    cmd.append("?");
+                    columns.add(config.getColumns()[i]);
                 }
             }
-            cmd.append(")");
-            final String stmtString = cmd.toString();
-            Logger.info("INSERTING WITH " + stmtString);
-            _stmt = session.getConnection().prepareStatement(stmtString);
+            _columnCount = columns.size();
+            _values = new Object[_columnCount];
+            _inserts = InsertStrategy.create(session.getInsertStrategy(), session.getConnection(), config.getTable(),
+                    columns.toArray(new String[_columnCount]), InsertStrategy.DEFAULT_ROWS, new InsertStrategy.RowBinder() {
+                        @Override
+                        public void bindValue(final PreparedStatement stmt, final int parameter, final int column,
+                                final Object value) throws SQLException {
+                            if (value instanceof Long) {
+                                stmt.setLong(parameter, ((Long) value).longValue());
+                            } else {
+                                stmt.setString(parameter, (String) value);
+                            }
+                        }
+                    }, null);
+            Logger.info("INSERTING INTO %s %s WITH %s", config.getTable(), columns,
+                    InsertStrategy.getName(_inserts.getStrategy()));
         }
 
         @Override
         public void setLong(final int fieldNumber, final long value) throws Exception {
-            _stmt.setLong(fieldNumber + 1, value);
+            _values[fieldNumber] = Long.valueOf(value);
         }
 
         @Override
         public void setString(final int fieldNumber, final String value) throws Exception {
-            _stmt.setString(fieldNumber + 1, value);
+            _values[fieldNumber] = value;
         }
 
         @Override
@@ -432,9 +442,22 @@ public class ImportCommand extends AbstractCommand {
         @Override
         public boolean finishRow() throws Exception {
             _rows++;
-            _stmt.execute();
+            // the row may be kept for the next batch, so the next one gets a new array.
+            _inserts.add(_values);
+            _values = new Object[_columnCount];
             return false;
         }
+
+        /**
+         * insert the rows that are still kept for a batch.
+         */
+        public void flush() throws SQLException {
+            _inserts.flush();
+        }
+
+        public void close() {
+            _inserts.close();
+        }
     }
 
     /**
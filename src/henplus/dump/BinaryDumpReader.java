@@ -0,0 +1,426 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the binary dump format written by the {@link BinaryDumpWriter}. Each block is read as a whole and the values are
+ * decoded from that buffer.
+ */
+public class BinaryDumpReader {
+
+    private final InputStream _in;
+    private final Calendar _calendar;
+    private final CRC32 _checksum;
+    private int _version;
+    private int _compatibleVersion;
+    private byte[] _buf;
+    private int _len;
+    private int _pos;
+    private byte[] _nulls;
+    private long _rows;
+    private long _storedChecksum;
+    private long _bytesRead;
+    private long _position;
+
+    /**
+     * @param in
+     *            the input; should be buffered, since the block lengths are read byte by byte.
+     */
+    public BinaryDumpReader(final InputStream in) {
+        _in = in;
+        _calendar = new GregorianCalendar();
+        _checksum = new CRC32();
+        _buf = new byte[65536];
+        _rows = -1;
+    }
+
+    /**
+     * returns true, if the given file (that might be gzipped, if its name ends with '.gz') is a binary dump.
+     */
+    public static boolean isBinaryDump(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in);
+            }
+            final byte[] magic = new byte[BinaryDumpWriter.MAGIC.length];
+            for (int i = 0; i < magic.length; ++i) {
+                final int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic[i] = (byte) b;
+            }
+            // a dump without tables only has the index.
+            return Arrays.equals(magic, BinaryDumpWriter.MAGIC) || Arrays.equals(magic, DumpIndex.BINARY_MAGIC);
+        } catch (final EOFException e) {
+            // not even a gzip header.
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * start reading the next table section; after this, the header values can be read. Returns false, if the end of the input
+     * or the index at the end of the dump is reached.
+     */
+    public boolean beginSection() throws IOException {
+        final int first = _in.read();
+        if (first < 0) {
+            return false;
+        }
+        ++_position;
+        final byte[] magic = new byte[BinaryDumpWriter.MAGIC.length];
+        magic[0] = (byte) first;
+        for (int i = 1; i < magic.length; ++i) {
+            magic[i] = (byte) readByte();
+        }
+        if (Arrays.equals(magic, DumpIndex.BINARY_MAGIC)) {
+            return false;
+        }
+        if (!Arrays.equals(magic, BinaryDumpWriter.MAGIC)) {
+            throw new IOException("binary dump: table section expected");
+        }
+        _version = readByte();
+        _compatibleVersion = readByte();
+        _rows = -1;
+        _checksum.reset();
+        if (!readBlock()) {
+            throw new IOException("binary dump: header expected");
+        }
+        return true;
+    }
+
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    public int getVersion() {
+        return _version;
+    }
+
+    public int getCompatibleVersion() {
+        return _compatibleVersion;
+    }
+
+    /**
+     * go to the next row of the current table section with the given number of columns. Returns false, if there are no more
+     * rows; the number of rows written is available then.
+     */
+    public boolean nextRow(final int columns) throws IOException {
+        if (_pos >= _len) {
+            if (!readBlock()) {
+                readTrailer();
+                return false;
+            }
+        }
+        final int bitmapLen = (columns + 7) >> 3;
+        check(bitmapLen);
+        // kept apart, since a row with a LOB may continue in the next block.
+        if (_nulls == null || _nulls.length < bitmapLen) {
+            _nulls = new byte[bitmapLen];
+        }
+        System.arraycopy(_buf, _pos, _nulls, 0, bitmapLen);
+        _pos += bitmapLen;
+        return true;
+    }
+
+    /**
+     * the number of bytes of the blocks read so far.
+     */
+    public long getBytesRead() {
+        return _bytesRead;
+    }
+
+    /**
+     * the number of bytes taken from the input so far; in an uncompressed dump read from its start, the position in the
+     * file.
+     */
+    public long getPosition() {
+        return _position;
+    }
+
+    /**
+     * the number of rows stored at the end of the table section; -1, if not read yet.
+     */
+    public long getRows() {
+        return _rows;
+    }
+
+    /**
+     * whether the checksum stored at the end of the table section matches the blocks read; to be called after the last row.
+     */
+    public boolean isChecksumValid() {
+        return _rows >= 0 && _storedChecksum == _checksum.getValue();
+    }
+
+    /**
+     * returns true, if the column (starting with zero) of the current row is NULL.
+     */
+    public boolean isNull(final int column) {
+        return (_nulls[column >> 3] & (1 << (column & 7))) != 0;
+    }
+
+    /**
+     * copy the current table section to the given output. Must be called right after {@link #beginSection()}, but the header
+     * values may have been read already.
+     */
+    public void copySection(final OutputStream out) throws IOException {
+        out.write(BinaryDumpWriter.MAGIC);
+        out.write(_version);
+        out.write(_compatibleVersion);
+        do {
+            BinaryDumpWriter.writeVarLong(out, _len);
+            out.write(_buf, 0, _len);
+        } while (readBlock());
+        BinaryDumpWriter.writeVarLong(out, 0);
+        readTrailer();
+        BinaryDumpWriter.writeVarLong(out, _rows);
+        BinaryDumpWriter.writeVarLong(out, _storedChecksum);
+        _pos = _len;
+    }
+
+    /**
+     * skip the rest of the current table section without decoding its rows. Must be called right after
+     * {@link #beginSection()}, but the header values may have been read already.
+     */
+    public void skipSection() throws IOException {
+        while (readBlock()) {
+            // blocks are skipped as a whole.
+        }
+        readTrailer();
+    }
+
+    public long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (_pos >= _len) {
+                throw new IOException("binary dump: unexpected end of block");
+            }
+            final byte b = _buf[_pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("binary dump: malformed varint");
+    }
+
+    public long readLong() throws IOException {
+        final long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public double readDouble() throws IOException {
+        check(8);
+        long bits = 0;
+        for (int i = 0; i < 8; ++i) {
+            bits = (bits << 8) | (_buf[_pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public boolean readBoolean() throws IOException {
+        check(1);
+        return _buf[_pos++] != 0;
+    }
+
+    public byte[] readBytes() throws IOException {
+        final int len = readLength();
+        if (len < 0) {
+            return null;
+        }
+        final byte[] result = new byte[len];
+        System.arraycopy(_buf, _pos, result, 0, len);
+        _pos += len;
+        return result;
+    }
+
+    /**
+     * read a BLOB or CLOB written by {@link BinaryDumpWriter#writeLob} into the buffer, one chunk at a time; the blocks the
+     * row continues in are read as needed.
+     */
+    public void readLob(final LobBuffer lob) throws IOException {
+        final Writer chars = lob.isCharacters() ? lob.getCharWriter() : null;
+        for (;;) {
+            if (_pos >= _len && !readBlock()) {
+                throw new IOException("binary dump: unexpected end of section");
+            }
+            final long len = readVarLong();
+            if (len == 0) {
+                return;
+            }
+            check(len);
+            if (chars != null) {
+                chars.write(new String(_buf, _pos, (int) len, BinaryDumpWriter.UTF8));
+            } else {
+                lob.write(_buf, _pos, (int) len);
+            }
+            _pos += len;
+        }
+    }
+
+    public String readString() throws IOException {
+        final int len = readLength();
+        if (len < 0) {
+            return null;
+        }
+        final String result = new String(_buf, _pos, len, BinaryDumpWriter.UTF8);
+        _pos += len;
+        return result;
+    }
+
+    public BigDecimal readDecimal() throws IOException {
+        final int scale = (int) readLong();
+        return new BigDecimal(new BigInteger(readBytes()), scale);
+    }
+
+    public java.sql.Date readDate() throws IOException {
+        setCalendar(readLong(), 0);
+        return new java.sql.Date(_calendar.getTimeInMillis());
+    }
+
+    public Time readTime() throws IOException {
+        setCalendar(0, readVarLong());
+        return new Time(_calendar.getTimeInMillis());
+    }
+
+    public Timestamp readTimestamp() throws IOException {
+        final long seconds = readLong();
+        final int nanos = (int) readVarLong();
+        final long days = seconds >= 0 ? seconds / 86400 : (seconds - 86399) / 86400;
+        setCalendar(days, (seconds - days * 86400) * 1000);
+        final Timestamp result = new Timestamp(_calendar.getTimeInMillis());
+        result.setNanos(nanos);
+        return result;
+    }
+
+    /**
+     * set the calendar to the local date and time given as days since 1970-01-01 and milliseconds of that day.
+     */
+    private void setCalendar(final long epochDay, final long millisOfDay) {
+        // civil from days, proleptic gregorian calendar.
+        final long z = epochDay + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        _calendar.clear();
+        if (year <= 0) {
+            _calendar.set(Calendar.ERA, GregorianCalendar.BC);
+            _calendar.set(Calendar.YEAR, (int) (1 - year));
+        } else {
+            _calendar.set(Calendar.YEAR, (int) year);
+        }
+        _calendar.set(Calendar.MONTH, month - 1);
+        _calendar.set(Calendar.DAY_OF_MONTH, day);
+        _calendar.set(Calendar.HOUR_OF_DAY, (int) (millisOfDay / 3600000));
+        _calendar.set(Calendar.MINUTE, (int) (millisOfDay / 60000 % 60));
+        _calendar.set(Calendar.SECOND, (int) (millisOfDay / 1000 % 60));
+        _calendar.set(Calendar.MILLISECOND, (int) (millisOfDay % 1000));
+    }
+
+    private int readLength() throws IOException {
+        final long len = readVarLong() - 1;
+        if (len >= 0) {
+            check(len);
+        }
+        return (int) len;
+    }
+
+    private void check(final long bytes) throws IOException {
+        if (_pos + bytes > _len) {
+            throw new IOException("binary dump: unexpected end of block");
+        }
+    }
+
+    /**
+     * read the next block; returns false, if the end marker of the table section is reached.
+     */
+    private boolean readBlock() throws IOException {
+        final long len = readRawVarLong();
+        if (len == 0) {
+            _len = 0;
+            _pos = 0;
+            return false;
+        }
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new IOException("binary dump: invalid block length " + len);
+        }
+        if (len > _buf.length) {
+            _buf = new byte[(int) len];
+        }
+        int done = 0;
+        while (done < len) {
+            final int n = _in.read(_buf, done, (int) len - done);
+            if (n < 0) {
+                throw new EOFException("binary dump: unexpected end of file");
+            }
+            done += n;
+        }
+        _position += len;
+        _len = (int) len;
+        _pos = 0;
+        _bytesRead += len;
+        _checksum.update(_buf, 0, _len);
+        return true;
+    }
+
+    private void readTrailer() throws IOException {
+        _rows = readRawVarLong();
+        _storedChecksum = readRawVarLong();
+    }
+
+    private int readByte() throws IOException {
+        final int b = _in.read();
+        if (b < 0) {
+            throw new EOFException("binary dump: unexpected end of file");
+        }
+        ++_position;
+        return b;
+    }
+
+    /**
+     * read a variable length number from the input, outside of a block.
+     */
+    private long readRawVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("binary dump: malformed varint");
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,314 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the binary dump format. A binary dump is a sequence of table sections; each of them is
+ *
+ * <pre>
+ *   'HPDUMP' version compatible-version
+ *   header-block
+ *   data-block* 0
+ *   row-count checksum
+ * </pre>
+ *
+ * A block is a varint length followed by that many bytes; blocks can be copied without looking into them. Each row starts
+ * with a bitmap of the columns that are NULL, followed by the values of the other columns. Integers are zigzag encoded
+ * varints, doubles are fixed width, strings and byte arrays are length prefixed. Dates, times and timestamps are stored as
+ * their local fields relative to the epoch, so that they are read back exactly as the text format would. The checksum is
+ * the CRC32 of the contents of all blocks of the section, so that verify-dump detects damaged dumps.
+ * <p>
+ * BLOBs and CLOBs are written as a sequence of chunks of bounded size, each length prefixed, ended by an empty chunk;
+ * CLOBs in UTF-8. A row with a large LOB continues in the next block between two chunks; all other blocks contain complete
+ * rows.
+ */
+public class BinaryDumpWriter {
+
+    static final byte[] MAGIC = { 'H', 'P', 'D', 'U', 'M', 'P' };
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int BLOCK_SIZE = 65536;
+    private static final int LOB_CHUNK_SIZE = 8192;
+
+    private final OutputStream _out;
+    private final Calendar _calendar;
+    private final CRC32 _checksum;
+    private byte[] _buf;
+    private int _len;
+    private int _rowStart;
+
+    public BinaryDumpWriter(final OutputStream out) {
+        _out = out;
+        _calendar = new GregorianCalendar();
+        _checksum = new CRC32();
+        _buf = new byte[BLOCK_SIZE + 1024];
+        _len = 0;
+    }
+
+    /**
+     * start a new table section. The header values are to be written next, followed by {@link #endHeader()}.
+     */
+    public void beginSection(final int version, final int compatibleVersion) throws IOException {
+        _out.write(MAGIC);
+        _out.write(version);
+        _out.write(compatibleVersion);
+        _checksum.reset();
+        _len = 0;
+    }
+
+    public void endHeader() throws IOException {
+        writeBlock();
+    }
+
+    /**
+     * start a row with the given number of columns; all of them are non-NULL unless marked with {@link #setNull(int)}.
+     */
+    public void beginRow(final int columns) {
+        final int bitmapLen = (columns + 7) >> 3;
+        ensure(bitmapLen);
+        _rowStart = _len;
+        for (int i = 0; i < bitmapLen; ++i) {
+            _buf[_len++] = 0;
+        }
+    }
+
+    /**
+     * mark the column (starting with zero) of the current row as NULL.
+     */
+    public void setNull(final int column) {
+        if (_rowStart < 0) {
+            throw new IllegalStateException("NULL columns must be marked before the LOBs of the row are written");
+        }
+        _buf[_rowStart + (column >> 3)] |= 1 << (column & 7);
+    }
+
+    public void endRow() throws IOException {
+        if (_len >= BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * finish the table section.
+     */
+    public void endSection(final long rows) throws IOException {
+        writeBlock();
+        writeVarLong(_out, 0);
+        writeVarLong(_out, rows);
+        writeVarLong(_out, _checksum.getValue());
+        _out.flush();
+    }
+
+    public void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            _buf[_len++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _buf[_len++] = (byte) value;
+    }
+
+    /**
+     * write a signed value; small negative values are as short as small positive ones.
+     */
+    public void writeLong(final long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeDouble(final double value) {
+        ensure(8);
+        final long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            _buf[_len++] = (byte) (bits >>> shift);
+        }
+    }
+
+    public void writeBoolean(final boolean value) {
+        ensure(1);
+        _buf[_len++] = (byte) (value ? 1 : 0);
+    }
+
+    /**
+     * write a length prefixed byte array; a null array is distinguished from an empty one.
+     */
+    public void writeBytes(final byte[] value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(value.length + 1L);
+        ensure(value.length);
+        System.arraycopy(value, 0, _buf, _len, value.length);
+        _len += value.length;
+    }
+
+    /**
+     * write the value of a BLOB as chunks read from the stream; it never needs to fit into memory. The NULL columns of the
+     * row must have been marked before, since the beginning of the row may be written to the output already.
+     */
+    public void writeLob(final InputStream in) throws IOException {
+        final byte[] chunk = new byte[LOB_CHUNK_SIZE];
+        for (;;) {
+            int len = 0;
+            int n;
+            while (len < chunk.length && (n = in.read(chunk, len, chunk.length - len)) >= 0) {
+                len += n;
+            }
+            if (len == 0) {
+                break;
+            }
+            writeChunk(chunk, len);
+        }
+        writeVarLong(0);
+    }
+
+    /**
+     * write the value of a CLOB as chunks read from the reader, like {@link #writeLob(InputStream)}. Chunks end on a
+     * character boundary, so that each of them can be decoded on its own.
+     */
+    public void writeLob(final Reader in) throws IOException {
+        // up to three bytes per char, four per surrogate pair.
+        final char[] chars = new char[LOB_CHUNK_SIZE / 3];
+        int len = 0;
+        int n;
+        while ((n = in.read(chars, len, chars.length - len)) >= 0) {
+            len += n;
+            if (len == 0) {
+                continue;
+            }
+            // the low surrogate of the last char is still to come.
+            final int end = Character.isHighSurrogate(chars[len - 1]) ? len - 1 : len;
+            final byte[] chunk = new String(chars, 0, end).getBytes(UTF8);
+            if (chunk.length > 0) {
+                writeChunk(chunk, chunk.length);
+            }
+            len -= end;
+            if (len > 0) {
+                chars[0] = chars[end];
+            }
+        }
+        if (len > 0) {
+            final byte[] chunk = new String(chars, 0, len).getBytes(UTF8);
+            writeChunk(chunk, chunk.length);
+        }
+        writeVarLong(0);
+    }
+
+    /**
+     * write a chunk of a LOB. If it does not fit into the block any more, the block is written first, and the row continues
+     * in the next one.
+     */
+    private void writeChunk(final byte[] chunk, final int len) throws IOException {
+        if (_len + len + 10 > BLOCK_SIZE) {
+            writeBlock();
+            _rowStart = -1;
+        }
+        writeVarLong(len);
+        ensure(len);
+        System.arraycopy(chunk, 0, _buf, _len, len);
+        _len += len;
+    }
+
+    public void writeString(final String value) {
+        writeBytes(value == null ? null : value.getBytes(UTF8));
+    }
+
+    public void writeDecimal(final BigDecimal value) {
+        writeLong(value.scale());
+        writeBytes(value.unscaledValue().toByteArray());
+    }
+
+    /**
+     * write a date as the number of days since 1970-01-01 of its local calendar date.
+     */
+    public void writeDate(final java.util.Date value) {
+        _calendar.setTime(value);
+        writeLong(epochDay());
+    }
+
+    /**
+     * write a time as the milliseconds since local midnight.
+     */
+    public void writeTime(final Time value) {
+        _calendar.setTime(value);
+        writeVarLong(millisOfDay());
+    }
+
+    /**
+     * write a timestamp as the seconds since 1970-01-01 00:00 of its local date and time, followed by the nanoseconds.
+     */
+    public void writeTimestamp(final Timestamp value) {
+        _calendar.setTime(value);
+        writeLong(epochDay() * 86400 + millisOfDay() / 1000);
+        writeVarLong(value.getNanos());
+    }
+
+    private long epochDay() {
+        int year = _calendar.get(Calendar.YEAR);
+        if (_calendar.get(Calendar.ERA) == GregorianCalendar.BC) {
+            year = 1 - year;
+        }
+        return daysFromCivil(year, _calendar.get(Calendar.MONTH) + 1, _calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    private long millisOfDay() {
+        return ((_calendar.get(Calendar.HOUR_OF_DAY) * 60L + _calendar.get(Calendar.MINUTE)) * 60
+                + _calendar.get(Calendar.SECOND)) * 1000 + _calendar.get(Calendar.MILLISECOND);
+    }
+
+    /**
+     * days since 1970-01-01 of the given date in the proleptic gregorian calendar.
+     */
+    static long daysFromCivil(final long year, final int month, final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private void writeBlock() throws IOException {
+        if (_len == 0) {
+            return;
+        }
+        writeVarLong(_out, _len);
+        _out.write(_buf, 0, _len);
+        _checksum.update(_buf, 0, _len);
+        _len = 0;
+    }
+
+    private void ensure(final int bytes) {
+        if (_len + bytes > _buf.length) {
+            final byte[] newBuf = new byte[Math.max(_buf.length * 2, _len + bytes)];
+            System.arraycopy(_buf, 0, newBuf, 0, _len);
+            _buf = newBuf;
+        }
+    }
+
+    static void writeVarLong(final OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
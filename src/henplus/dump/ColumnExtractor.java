@@ -0,0 +1,223 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Fetches the values of a column from the result set of a dump and prints them into a text dump. dump-out chooses one for
+ * each column from its type before the first row, so that each value is fetched with the typed getter of the column and
+ * printed without looking at the type again. Numbers are not fetched as strings formatted by the driver; the
+ * {@link DumpWriter} writes their digits straight into its buffer. Integer and floating point values are kept as primitives
+ * in the {@link FetchedRow}, so they are not boxed either.
+ * <p>
+ * Extractors keep no state; the same instance serves any number of columns and threads.
+ */
+public abstract class ColumnExtractor {
+
+    public static final ColumnExtractor LONG = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            final long value = rset.getLong(column + 1);
+            if (rset.wasNull()) {
+                row.setNull(column);
+            } else {
+                row.setLong(column, value);
+            }
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.print(row.getLong(column));
+        }
+    };
+
+    public static final ColumnExtractor DECIMAL = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getBigDecimal(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.print((BigDecimal) row.getValue(column));
+        }
+    };
+
+    public static final ColumnExtractor DOUBLE = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            final double value = rset.getDouble(column + 1);
+            if (rset.wasNull()) {
+                row.setNull(column);
+            } else {
+                row.setDouble(column, value);
+            }
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.print(row.getDouble(column));
+        }
+    };
+
+    /**
+     * for REAL columns: fetched as float, so that they are printed with the digits of float precision, like 0.1 instead of
+     * 0.10000000149011612. The float is kept as double, which holds it exactly.
+     */
+    public static final ColumnExtractor FLOAT = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            final float value = rset.getFloat(column + 1);
+            if (rset.wasNull()) {
+                row.setNull(column);
+            } else {
+                row.setDouble(column, value);
+            }
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.print(Float.toString((float) row.getDouble(column)));
+        }
+    };
+
+    public static final ColumnExtractor BOOLEAN = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            final boolean value = rset.getBoolean(column + 1);
+            row.setValue(column, rset.wasNull() ? null : Boolean.valueOf(value));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.print(((Boolean) row.getValue(column)).booleanValue());
+        }
+    };
+
+    public static final ColumnExtractor TIMESTAMP = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getTimestamp(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.printQuoted((Timestamp) row.getValue(column));
+        }
+    };
+
+    public static final ColumnExtractor TIME = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getTime(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.printQuoted((Time) row.getValue(column));
+        }
+    };
+
+    public static final ColumnExtractor DATE = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getDate(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.printQuoted((java.sql.Date) row.getValue(column));
+        }
+    };
+
+    public static final ColumnExtractor STRING = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getString(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            out.printQuoted((String) row.getValue(column));
+        }
+    };
+
+    /**
+     * for BLOBs streamed in chunks; they never need to fit into memory. The stream must be printed before the next row is
+     * fetched.
+     */
+    public static final ColumnExtractor BINARY_STREAM = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getBinaryStream(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            final InputStream in = (InputStream) row.getValue(column);
+            try {
+                out.printBase64(in);
+            } finally {
+                in.close();
+            }
+        }
+    };
+
+    /**
+     * for CLOBs streamed in chunks, like {@link #BINARY_STREAM}.
+     */
+    public static final ColumnExtractor CHARACTER_STREAM = new ColumnExtractor() {
+
+        @Override
+        public void fetch(final ResultSet rset, final FetchedRow row, final int column) throws SQLException {
+            row.setValue(column, rset.getCharacterStream(column + 1));
+        }
+
+        @Override
+        public void print(final DumpWriter out, final FetchedRow row, final int column) throws IOException {
+            final Reader in = (Reader) row.getValue(column);
+            try {
+                out.printQuoted(in);
+            } finally {
+                in.close();
+            }
+        }
+    };
+
+    /**
+     * set the value of the column in the current row of the result set, or mark it as NULL, in the row.
+     *
+     * @param column
+     *            the column, counted from 0; that is column + 1 of the result set.
+     */
+    public abstract void fetch(ResultSet rset, FetchedRow row, int column) throws SQLException;
+
+    /**
+     * print the value, that is not null, of the column of a row filled by {@link #fetch(ResultSet, FetchedRow, int)}.
+     */
+    public abstract void print(DumpWriter out, FetchedRow row, int column) throws IOException;
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
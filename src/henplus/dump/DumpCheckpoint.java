@@ -0,0 +1,135 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The progress of a dump-in, kept in a small file next to the dump. It is written whenever rows are committed and records
+ * the position in the dump up to which everything is in the database: the number of table sections completely loaded and
+ * the rows committed of the section after them. A dump-in that failed can continue from there.
+ */
+public class DumpCheckpoint {
+
+    private static final String SUFFIX = ".checkpoint";
+
+    private final File _file;
+    private final File _dumpFile;
+    private int _sections;
+    private String _table;
+    private long _rows;
+
+    public DumpCheckpoint(final File dumpFile) {
+        _dumpFile = dumpFile;
+        _file = new File(dumpFile.getPath() + SUFFIX);
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public boolean exists() {
+        return _file.exists();
+    }
+
+    /**
+     * the number of table sections at the beginning of the dump that are loaded completely.
+     */
+    public int getSections() {
+        return _sections;
+    }
+
+    /**
+     * the table of the section following the completed ones; null, if none of its rows are committed yet.
+     */
+    public String getTable() {
+        return _table;
+    }
+
+    /**
+     * the number of rows committed of the section following the completed ones.
+     */
+    public long getRows() {
+        return _rows;
+    }
+
+    /**
+     * read the checkpoint. Fails, if it has been written for a dump file of another size.
+     */
+    public void load() throws IOException {
+        final Properties props = new Properties();
+        final InputStream in = new FileInputStream(_file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        if (getNumber(props, "dump-length") != _dumpFile.length()) {
+            throw new IOException("checkpoint " + _file + " has been written for another dump");
+        }
+        _sections = (int) getNumber(props, "sections");
+        _rows = getNumber(props, "rows");
+        _table = props.getProperty("table");
+    }
+
+    private long getNumber(final Properties props, final String key) throws IOException {
+        final String value = props.getProperty(key);
+        if (value == null) {
+            throw new IOException("invalid checkpoint " + _file + ": " + key + " missing");
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            throw new IOException("invalid checkpoint " + _file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * record that the given number of sections are loaded completely and the given number of rows of the next one, that
+     * belongs to the given table. The file is replaced only once the new one is completely written.
+     */
+    public void save(final int sections, final String table, final long rows) throws IOException {
+        _sections = sections;
+        _table = table;
+        _rows = rows;
+        final Properties props = new Properties();
+        props.setProperty("dump-file", _dumpFile.getAbsolutePath());
+        props.setProperty("dump-length", String.valueOf(_dumpFile.length()));
+        props.setProperty("sections", String.valueOf(sections));
+        if (table != null) {
+            props.setProperty("table", table);
+        }
+        props.setProperty("rows", String.valueOf(rows));
+
+        final File tmpFile = new File(_file.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            props.store(out, "dump-in progress; used by dump-in -r");
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(_file)) {
+            // some platforms do not replace an existing file on rename.
+            _file.delete();
+            if (!tmpFile.renameTo(_file)) {
+                throw new IOException("cannot write checkpoint " + _file);
+            }
+        }
+    }
+
+    public void delete() {
+        _file.delete();
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,257 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The table of contents at the end of a dump file: the table, number of rows and file offset of each table section, so that
+ * single tables can be read without parsing the sections before them. It is written as text, in binary dumps as well:
+ *
+ * <pre>
+ * (dump-index
+ *   (section 'student' 1234 0)
+ *   (section 'course' 56 98765)
+ *   (index-offset 00000000000000123456))
+ * </pre>
+ *
+ * Offsets are positions in the file as it is on disk. Uncompressed dumps end with this list, binary dumps with a marker in
+ * front of it; the fixed width index-offset at the very end leads to its beginning. In gzip compressed dumps each table
+ * section starts a gzip member of its own, and the list is stored in the extra field of an empty gzip member at the end, so
+ * the uncompressed content does not contain it at all.
+ */
+public class DumpIndex {
+
+    public static final String TOKEN = "dump-index";
+    static final byte[] BINARY_MAGIC = { 'H', 'P', 'I', 'N', 'D', 'X' };
+    private static final String OFFSET_TOKEN = "index-offset";
+    private static final int OFFSET_DIGITS = 20;
+    /** (index-offset nnnnnnnnnnnnnnnnnnnn))\n */
+    private static final int TAIL_LENGTH = OFFSET_TOKEN.length() + OFFSET_DIGITS + 5;
+    /** the empty deflate data and the gzip trailer after the extra field of the index member */
+    private static final int GZIP_TAIL_LENGTH = 10;
+    private static final int GZIP_FEXTRA = 4;
+    private static final int MAX_EXTRA_LENGTH = 65535 - 4;
+    private static final String ENCODING = "UTF-8";
+
+    private final List<Section> _sections;
+
+    public DumpIndex() {
+        _sections = new ArrayList<Section>();
+    }
+
+    /**
+     * A table section of the dump.
+     */
+    public static final class Section {
+
+        private final String _table;
+        private final long _rows;
+        private final long _offset;
+
+        Section(final String table, final long rows, final long offset) {
+            _table = table;
+            _rows = rows;
+            _offset = offset;
+        }
+
+        public String getTable() {
+            return _table;
+        }
+
+        public long getRows() {
+            return _rows;
+        }
+
+        /**
+         * the position of the section in the file.
+         */
+        public long getOffset() {
+            return _offset;
+        }
+    }
+
+    public void add(final String table, final long rows, final long offset) {
+        _sections.add(new Section(table, rows, offset));
+    }
+
+    public List<Section> getSections() {
+        return Collections.unmodifiableList(_sections);
+    }
+
+    /**
+     * the sections of the given tables in the order of the dump; table names are compared ignoring case.
+     */
+    public List<Section> getSections(final Collection<String> tables) {
+        final List<Section> result = new ArrayList<Section>();
+        for (final Section section : _sections) {
+            for (final String table : tables) {
+                if (table.equalsIgnoreCase(section.getTable())) {
+                    result.add(section);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * write the index at the end of the dump. Returns false, if it is too large to fit into a gzip header.
+     */
+    public boolean write(final DumpWriter out, final boolean binary) throws IOException {
+        final long offset = out.startSection();
+        final byte[] text = toString(offset).getBytes(ENCODING);
+        if (out.getOutputStream() instanceof ParallelGzipOutputStream) {
+            if (text.length > MAX_EXTRA_LENGTH) {
+                return false;
+            }
+            final byte[] extra = new byte[text.length + 4];
+            extra[0] = 'H';
+            extra[1] = 'I';
+            extra[2] = (byte) text.length;
+            extra[3] = (byte) (text.length >> 8);
+            System.arraycopy(text, 0, extra, 4, text.length);
+            ((ParallelGzipOutputStream) out.getOutputStream()).writeEmptyMember(extra);
+        } else {
+            if (binary) {
+                out.write(BINARY_MAGIC, 0, BINARY_MAGIC.length);
+            }
+            out.write(text, 0, text.length);
+        }
+        return true;
+    }
+
+    private String toString(final long offset) {
+        final StringBuilder result = new StringBuilder();
+        result.append('(').append(TOKEN).append('\n');
+        for (final Section section : _sections) {
+            result.append("  (section '");
+            for (int i = 0; i < section.getTable().length(); ++i) {
+                final char c = section.getTable().charAt(i);
+                if (c == '\'' || c == '\\') {
+                    result.append('\\');
+                }
+                result.append(c);
+            }
+            result.append("' ").append(section.getRows()).append(' ').append(section.getOffset()).append(")\n");
+        }
+        final String digits = String.valueOf(offset);
+        result.append("  (").append(OFFSET_TOKEN).append(' ');
+        for (int i = digits.length(); i < OFFSET_DIGITS; ++i) {
+            result.append('0');
+        }
+        result.append(digits).append("))\n");
+        return result.toString();
+    }
+
+    /**
+     * read the index of the given dump file; null, if it has none.
+     */
+    public static DumpIndex read(final File file) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final boolean gzip = file.getName().endsWith(".gz");
+            final long end = in.length() - (gzip ? GZIP_TAIL_LENGTH : 0);
+            if (end < TAIL_LENGTH) {
+                return null;
+            }
+            final byte[] tail = new byte[TAIL_LENGTH];
+            in.seek(end - TAIL_LENGTH);
+            in.readFully(tail);
+            final String tailText = new String(tail, ENCODING);
+            final String prefix = "(" + OFFSET_TOKEN + " ";
+            if (!tailText.startsWith(prefix) || !tailText.endsWith("))\n")) {
+                return null;
+            }
+            final long offset;
+            try {
+                offset = Long.parseLong(tailText.substring(prefix.length(), prefix.length() + OFFSET_DIGITS));
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+            if (offset < 0 || offset >= end) {
+                throw new IOException("invalid index offset in " + file);
+            }
+
+            in.seek(offset);
+            byte[] text;
+            int start = 0;
+            if (gzip) {
+                final byte[] header = new byte[16];
+                in.readFully(header);
+                if ((header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || (header[3] & GZIP_FEXTRA) == 0
+                        || header[12] != 'H' || header[13] != 'I') {
+                    throw new IOException("no index found at offset " + offset + " of " + file);
+                }
+                text = new byte[(header[14] & 0xFF) | (header[15] & 0xFF) << 8];
+                in.readFully(text);
+            } else {
+                text = new byte[(int) (end - offset)];
+                in.readFully(text);
+                if (text.length > BINARY_MAGIC.length && text[0] != '(') {
+                    for (int i = 0; i < BINARY_MAGIC.length; ++i) {
+                        if (text[i] != BINARY_MAGIC[i]) {
+                            throw new IOException("no index found at offset " + offset + " of " + file);
+                        }
+                    }
+                    start = BINARY_MAGIC.length;
+                }
+            }
+            return parse(new String(text, start, text.length - start, ENCODING));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static DumpIndex parse(final String text) throws IOException {
+        final DumpLexer in = new DumpLexer(new StringReader(text), text.length() + 1);
+        in.expect('(');
+        if (!TOKEN.equals(in.readToken())) {
+            throw in.error("'" + TOKEN + "' expected");
+        }
+        final DumpIndex result = new DumpIndex();
+        for (;;) {
+            in.skipWhite();
+            final int c = in.read();
+            if (c == ')') {
+                return result;
+            }
+            if (c != '(') {
+                throw in.error("'(' or ')' expected in dump index");
+            }
+            final String token = in.readToken();
+            if ("section".equals(token)) {
+                final String table = in.readString();
+                final long rows = parseNumber(in, in.readToken());
+                final long offset = parseNumber(in, in.readToken());
+                result.add(table, rows, offset);
+            } else if (OFFSET_TOKEN.equals(token)) {
+                in.readToken();
+            } else {
+                throw in.error("unknown token '" + token + "' in dump index");
+            }
+            in.expect(')');
+        }
+    }
+
+    private static long parseNumber(final DumpLexer in, final String token) throws IOException {
+        try {
+            return Long.parseLong(token);
+        } catch (final NumberFormatException e) {
+            throw in.error("number expected in dump index: " + token);
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
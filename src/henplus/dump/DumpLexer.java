@@ -0,0 +1,544 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.zip.CRC32;
+
+/**
+ * Scanner for the text dump format. Reads the input in large chunks into a window it scans directly; tokens, strings and numbers
+ * are taken from that window without going through the reader for each character. Numbers are parsed without creating objects;
+ * only numbers that do not fit into a long or a double end up as a BigDecimal.
+ */
+public class DumpLexer {
+
+    /** the number read was NULL */
+    public static final int NUMBER_NULL = 0;
+    /** the number read is available with {@link #getLong()} */
+    public static final int NUMBER_LONG = 1;
+    /** the number read is available with {@link #getDouble()} */
+    public static final int NUMBER_DOUBLE = 2;
+    /** the number read is available with {@link #getDecimal()} */
+    public static final int NUMBER_DECIMAL = 3;
+
+    static final String NULL_STR = "NULL";
+    static final int MAX_LONG_DIGITS = 18;
+    private static final int MAX_EXACT_DOUBLE_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+            1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    /** number of characters encoded at once for the checksum */
+    private static final int CHECKSUM_CHUNK = 4096;
+
+    private final Reader _in;
+    private final char[] _buf;
+    private final StringBuilder _scratch;
+    private int _pos;
+    private int _limit;
+    private int _line;
+    private long _filled;
+    private CRC32 _checksum;
+    private int _checksumStart;
+    private byte[] _checksumBytes;
+    private char _checksumHighSurrogate;
+
+    private long _longValue;
+    private double _doubleValue;
+    private BigDecimal _decimalValue;
+
+    public DumpLexer(final Reader in) {
+        this(in, 65536);
+    }
+
+    /**
+     * for subclasses that scan their input on their own.
+     */
+    protected DumpLexer() {
+        this(null, 0);
+    }
+
+    public DumpLexer(final Reader in, final int bufferSize) {
+        _in = in;
+        _buf = new char[bufferSize];
+        _scratch = new StringBuilder();
+        _pos = 0;
+        _limit = 0;
+        _line = 0;
+    }
+
+    /**
+     * the current line, starting with zero.
+     */
+    public int getLineNumber() {
+        return _line;
+    }
+
+    /**
+     * the number of characters read so far.
+     */
+    public long getPosition() {
+        return _filled + _pos;
+    }
+
+    /**
+     * start computing a CRC32 checksum of the input consumed from now on. The characters are encoded as UTF-8 exactly as the
+     * {@link DumpWriter} does, so the result is the checksum the writer computed over the bytes it wrote.
+     */
+    public void beginChecksum() {
+        _checksum = new CRC32();
+        _checksumStart = _pos;
+        _checksumHighSurrogate = 0;
+        if (_checksumBytes == null) {
+            _checksumBytes = new byte[4 * CHECKSUM_CHUNK];
+        }
+    }
+
+    /**
+     * the checksum of the input consumed since {@link #beginChecksum()}.
+     */
+    public long endChecksum() {
+        updateChecksum(_checksumStart, _pos);
+        if (_checksumHighSurrogate != 0) {
+            _checksum.update('?');
+        }
+        final long result = _checksum.getValue();
+        _checksum = null;
+        return result;
+    }
+
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /**
+     * read the next character; -1 on EOF.
+     */
+    public int read() throws IOException {
+        if (_pos >= _limit && !fill()) {
+            return -1;
+        }
+        final char c = _buf[_pos++];
+        if (c == '\n') {
+            ++_line;
+        }
+        return c;
+    }
+
+    /**
+     * skip whitespace. return false, if EOF reached.
+     */
+    public boolean skipWhite() throws IOException {
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                return false;
+            }
+            final char c = _buf[_pos];
+            if (c == '\n') {
+                ++_line;
+            } else if (!Character.isWhitespace(c)) {
+                return true;
+            }
+            ++_pos;
+        }
+    }
+
+    public void expect(final char ch) throws IOException {
+        skipWhite();
+        if (read() != ch) {
+            throw error("'" + ch + "' expected");
+        }
+    }
+
+    /**
+     * read a token; that is everything up to the next whitespace or one of ';', ',', '(', ')'.
+     */
+    public String readToken() throws IOException {
+        skipWhite();
+        _scratch.setLength(0);
+        for (;;) {
+            if (_pos >= _limit) {
+                if (!fill()) {
+                    break;
+                }
+            }
+            final int start = _pos;
+            while (_pos < _limit && !isTokenEnd(_buf[_pos])) {
+                ++_pos;
+            }
+            if (_pos < _limit) {
+                if (_scratch.length() == 0) {
+                    return new String(_buf, start, _pos - start);
+                }
+                _scratch.append(_buf, start, _pos - start);
+                break;
+            }
+            _scratch.append(_buf, start, _pos - start);
+        }
+        return _scratch.toString();
+    }
+
+    /**
+     * read a string. This is either NULL without quotes or a quoted string.
+     */
+    public String readString() throws IOException {
+        int nullParseState = 0;
+        int c;
+        for (;;) {
+            c = read();
+            if (c < 0) {
+                throw error("string expected");
+            }
+            final char ch = (char) c;
+            // unless we already parse the NULL string, skip whitespaces.
+            if (nullParseState == 0 && Character.isWhitespace(ch)) {
+                continue;
+            }
+            if (ch == '\'') {
+                break; // -> opening string.
+            }
+            if (Character.toUpperCase(ch) == NULL_STR.charAt(nullParseState)) {
+                ++nullParseState;
+                if (nullParseState == NULL_STR.length()) {
+                    return null;
+                }
+                continue;
+            }
+            throw error("unexpected character '" + ch + "'");
+        }
+
+        // fast path: the string ends within the window and contains nothing to unescape.
+        for (int i = _pos; i < _limit; ++i) {
+            final char ch = _buf[i];
+            if (ch == '\'') {
+                final String result = new String(_buf, _pos, i - _pos);
+                countLines(_pos, i);
+                _pos = i + 1;
+                return result;
+            }
+            if (ch == '\\') {
+                break;
+            }
+        }
+
+        _scratch.setLength(0);
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                throw error("unterminated string");
+            }
+            final int start = _pos;
+            while (_pos < _limit) {
+                final char ch = _buf[_pos];
+                if (ch == '\'' || ch == '\\') {
+                    break;
+                }
+                ++_pos;
+            }
+            countLines(start, _pos);
+            _scratch.append(_buf, start, _pos - start);
+            if (_pos >= _limit) {
+                continue;
+            }
+            if (_buf[_pos++] == '\'') {
+                return _scratch.toString(); // End Of String.
+            }
+            c = read();
+            if (c < 0) {
+                throw error("expected character after backslash escape");
+            }
+            _scratch.append((char) c);
+        }
+    }
+
+    /**
+     * read a string like {@link #readString()}, but pass its characters on to the given writer in chunks instead of
+     * collecting them, so that strings of any length can be read. Returns false, if the value is NULL.
+     */
+    public boolean readString(final Writer out) throws IOException {
+        int nullParseState = 0;
+        for (;;) {
+            final int c = read();
+            if (c < 0) {
+                throw error("string expected");
+            }
+            final char ch = (char) c;
+            if (nullParseState == 0 && Character.isWhitespace(ch)) {
+                continue;
+            }
+            if (ch == '\'') {
+                break;
+            }
+            if (Character.toUpperCase(ch) == NULL_STR.charAt(nullParseState)) {
+                ++nullParseState;
+                if (nullParseState == NULL_STR.length()) {
+                    return false;
+                }
+                continue;
+            }
+            throw error("unexpected character '" + ch + "'");
+        }
+
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                throw error("unterminated string");
+            }
+            final int start = _pos;
+            while (_pos < _limit) {
+                final char ch = _buf[_pos];
+                if (ch == '\'' || ch == '\\') {
+                    break;
+                }
+                ++_pos;
+            }
+            countLines(start, _pos);
+            out.write(_buf, start, _pos - start);
+            if (_pos >= _limit) {
+                continue;
+            }
+            if (_buf[_pos++] == '\'') {
+                return true; // End Of String.
+            }
+            final int c = read();
+            if (c < 0) {
+                throw error("expected character after backslash escape");
+            }
+            out.write(c);
+        }
+    }
+
+    /**
+     * skip everything up to and including the closing parenthesis of a list whose opening parenthesis has just been read.
+     * Nested lists and quoted strings are skipped as a whole; nothing is converted.
+     */
+    public void skipList() throws IOException {
+        int depth = 1;
+        boolean inString = false;
+        boolean escaped = false;
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                throw error("unexpected end of dump");
+            }
+            final char ch = _buf[_pos++];
+            if (ch == '\n') {
+                ++_line;
+            }
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (ch == '\\') {
+                    escaped = true;
+                } else if (ch == '\'') {
+                    inString = false;
+                }
+            } else if (ch == '\'') {
+                inString = true;
+            } else if (ch == '(') {
+                ++depth;
+            } else if (ch == ')' && --depth == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * read a number or NULL. Returns the kind of number read, one of the NUMBER_ constants; the value is then available with
+     * the corresponding getter.
+     */
+    public int readNumber() throws IOException {
+        skipWhite();
+        int c = read();
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            // separated sign.
+            negative = c == '-';
+            skipWhite();
+            c = read();
+        }
+        if (c == 'N' || c == 'n') {
+            for (int i = 1; i < NULL_STR.length(); ++i) {
+                if (Character.toUpperCase((char) read()) != NULL_STR.charAt(i)) {
+                    throw error("number expected");
+                }
+            }
+            return NUMBER_NULL;
+        }
+
+        _scratch.setLength(0);
+        if (negative) {
+            _scratch.append('-');
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean plain = true; // no exponent, no other characters
+        while (c >= 0 && !isTokenEnd((char) c)) {
+            final char ch = (char) c;
+            _scratch.append(ch);
+            if (ch >= '0' && ch <= '9') {
+                if (mantissa != 0 || ch != '0') {
+                    ++digits;
+                }
+                if (digits <= MAX_LONG_DIGITS) {
+                    mantissa = mantissa * 10 + (ch - '0');
+                }
+                if (inFraction) {
+                    ++fractionDigits;
+                }
+            } else if (ch == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                plain = false;
+            }
+            if (_pos >= _limit && !fill()) {
+                c = -1;
+                break;
+            }
+            c = _buf[_pos];
+            if (isTokenEnd((char) c)) {
+                break;
+            }
+            ++_pos;
+        }
+        if (_scratch.length() == 0 || _scratch.length() == 1 && negative) {
+            throw error("number expected");
+        }
+        return setNumber(_scratch, negative, mantissa, digits, fractionDigits, inFraction, plain);
+    }
+
+    /**
+     * set the value of the number just scanned and return its kind, one of the NUMBER_ constants.
+     *
+     * @param text
+     *            the characters of the number including its sign; only converted if the number cannot be computed from
+     *            the mantissa.
+     * @param mantissa
+     *            the value of the first {@link #MAX_LONG_DIGITS} significant digits, ignoring the decimal point.
+     * @param plain
+     *            whether the number contains nothing but digits and a decimal point.
+     */
+    protected final int setNumber(final CharSequence text, final boolean negative, final long mantissa, final int digits,
+            final int fractionDigits, final boolean inFraction, final boolean plain) throws IOException {
+        try {
+            if (inFraction || !plain) {
+                if (plain && digits <= MAX_EXACT_DOUBLE_DIGITS && fractionDigits < POWERS_OF_TEN.length) {
+                    // both exactly representable: a single division is correctly rounded.
+                    final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+                    _doubleValue = negative ? -value : value;
+                } else {
+                    _doubleValue = Double.parseDouble(text.toString());
+                }
+                return NUMBER_DOUBLE;
+            }
+            if (digits <= MAX_LONG_DIGITS) {
+                _longValue = negative ? -mantissa : mantissa;
+                return NUMBER_LONG;
+            }
+            _decimalValue = new BigDecimal(text.toString());
+            return NUMBER_DECIMAL;
+        } catch (final NumberFormatException e) {
+            throw error("Number format " + text + ": " + e.getMessage());
+        }
+    }
+
+    public long getLong() {
+        return _longValue;
+    }
+
+    public double getDouble() {
+        return _doubleValue;
+    }
+
+    public BigDecimal getDecimal() {
+        return _decimalValue;
+    }
+
+    /**
+     * create an exception containing the line number.
+     */
+    public IOException error(final String msg) {
+        return new IOException("line " + (getLineNumber() + 1) + ": " + msg);
+    }
+
+    private static boolean isTokenEnd(final char ch) {
+        return Character.isWhitespace(ch) || ch == ';' || ch == ',' || ch == '(' || ch == ')';
+    }
+
+    private void countLines(final int from, final int to) {
+        for (int i = from; i < to; ++i) {
+            if (_buf[i] == '\n') {
+                ++_line;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (_checksum != null) {
+            updateChecksum(_checksumStart, _limit);
+            _checksumStart = 0;
+        }
+        _filled += _limit;
+        int n;
+        do {
+            n = _in.read(_buf, 0, _buf.length);
+        } while (n == 0);
+        if (n < 0) {
+            _pos = _limit = 0;
+            return false;
+        }
+        _pos = 0;
+        _limit = n;
+        return true;
+    }
+
+    /**
+     * add the characters of the window from start to end to the checksum. A high surrogate at the end of the window is kept
+     * until the next character tells whether it is part of a pair.
+     */
+    private void updateChecksum(final int start, final int end) {
+        final byte[] b = _checksumBytes;
+        int i = start;
+        while (i < end) {
+            final int chunkEnd = Math.min(end, i + CHECKSUM_CHUNK);
+            int n = 0;
+            for (; i < chunkEnd; ++i) {
+                final char c = _buf[i];
+                if (_checksumHighSurrogate != 0) {
+                    final char high = _checksumHighSurrogate;
+                    _checksumHighSurrogate = 0;
+                    if (Character.isLowSurrogate(c)) {
+                        final int cp = Character.toCodePoint(high, c);
+                        b[n++] = (byte) (0xF0 | cp >> 18);
+                        b[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                        b[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                        b[n++] = (byte) (0x80 | cp & 0x3F);
+                        continue;
+                    }
+                    b[n++] = '?';
+                }
+                if (c < 0x80) {
+                    b[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[n++] = (byte) (0xC0 | c >> 6);
+                    b[n++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c)) {
+                    _checksumHighSurrogate = c;
+                } else if (Character.isLowSurrogate(c)) {
+                    b[n++] = '?';
+                } else {
+                    b[n++] = (byte) (0xE0 | c >> 12);
+                    b[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    b[n++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            _checksum.update(b, 0, n);
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,254 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The table of contents of a dump written into a directory, one file per table or key range of a table. It lists the shard
+ * files in the order they are to be loaded, each with its table, dependency level, number of rows and the CRC32 checksum
+ * of the file as it is on disk:
+ *
+ * <pre>
+ * (dump-manifest
+ *   (shard 'course' 'course.dump.gz' 0 56 'crc32 89abcdef')
+ *   (shard 'student' 'student.dump.gz' 1 1234 'crc32 01234567'))
+ * </pre>
+ *
+ * A table only references tables of lower levels, so all shards of a level can be loaded at the same time once the levels
+ * before are complete. Each shard is a dump of its own that dump-in can read on its own as well.
+ */
+public class DumpManifest {
+
+    public static final String FILE_NAME = "dump.manifest";
+    private static final String TOKEN = "dump-manifest";
+    private static final String CHECKSUM_PREFIX = "crc32 ";
+    private static final String ENCODING = "UTF-8";
+
+    private final List<Shard> _shards;
+
+    public DumpManifest() {
+        _shards = new ArrayList<Shard>();
+    }
+
+    /**
+     * A file of the dump.
+     */
+    public static final class Shard {
+
+        private final String _table;
+        private final String _fileName;
+        private final int _level;
+        private final long _rows;
+        private final long _checksum;
+
+        Shard(final String table, final String fileName, final int level, final long rows, final long checksum) {
+            _table = table;
+            _fileName = fileName;
+            _level = level;
+            _rows = rows;
+            _checksum = checksum;
+        }
+
+        public String getTable() {
+            return _table;
+        }
+
+        /**
+         * the name of the file, relative to the directory of the manifest.
+         */
+        public String getFileName() {
+            return _fileName;
+        }
+
+        /**
+         * the dependency level of the table; 0 for tables that reference none of the others.
+         */
+        public int getLevel() {
+            return _level;
+        }
+
+        public long getRows() {
+            return _rows;
+        }
+
+        /**
+         * the CRC32 checksum of the file.
+         */
+        public long getChecksum() {
+            return _checksum;
+        }
+    }
+
+    public void add(final String table, final String fileName, final int level, final long rows, final long checksum) {
+        _shards.add(new Shard(table, fileName, level, rows, checksum));
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(_shards);
+    }
+
+    /**
+     * the shards of the given tables in the order of the manifest; table names are compared ignoring case.
+     */
+    public List<Shard> getShards(final Collection<String> tables) {
+        final List<Shard> result = new ArrayList<Shard>();
+        for (final Shard shard : _shards) {
+            for (final String table : tables) {
+                if (table.equalsIgnoreCase(shard.getTable())) {
+                    result.add(shard);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * the file of the manifest in the given dump directory.
+     */
+    public static File getFile(final File directory) {
+        return new File(directory, FILE_NAME);
+    }
+
+    /**
+     * write the manifest into the given dump directory.
+     */
+    public void write(final File directory) throws IOException {
+        final OutputStream out = new FileOutputStream(getFile(directory));
+        try {
+            out.write(toString().getBytes(ENCODING));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        result.append('(').append(TOKEN).append('\n');
+        for (final Shard shard : _shards) {
+            result.append("  (shard ");
+            appendQuoted(result, shard.getTable());
+            result.append(' ');
+            appendQuoted(result, shard.getFileName());
+            result.append(' ').append(shard.getLevel()).append(' ').append(shard.getRows()).append(' ');
+            appendQuoted(result, CHECKSUM_PREFIX + String.format("%08x", shard.getChecksum()));
+            result.append(")\n");
+        }
+        result.setLength(result.length() - 1);
+        result.append(")\n");
+        return result.toString();
+    }
+
+    private static void appendQuoted(final StringBuilder result, final String s) {
+        result.append('\'');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c == '\'' || c == '\\') {
+                result.append('\\');
+            }
+            result.append(c);
+        }
+        result.append('\'');
+    }
+
+    /**
+     * read the manifest of the given dump directory.
+     */
+    public static DumpManifest read(final File directory) throws IOException {
+        final InputStream in = new FileInputStream(getFile(directory));
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                text.write(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return parse(text.toString(ENCODING));
+    }
+
+    private static DumpManifest parse(final String text) throws IOException {
+        final DumpLexer in = new DumpLexer(new StringReader(text), text.length() + 1);
+        in.expect('(');
+        if (!TOKEN.equals(in.readToken())) {
+            throw in.error("'" + TOKEN + "' expected");
+        }
+        final DumpManifest result = new DumpManifest();
+        for (;;) {
+            in.skipWhite();
+            final int c = in.read();
+            if (c == ')') {
+                return result;
+            }
+            if (c != '(') {
+                throw in.error("'(' or ')' expected in dump manifest");
+            }
+            final String token = in.readToken();
+            if (!"shard".equals(token)) {
+                throw in.error("unknown token '" + token + "' in dump manifest");
+            }
+            final String table = in.readString();
+            final String fileName = in.readString();
+            final int level = (int) parseNumber(in, in.readToken());
+            final long rows = parseNumber(in, in.readToken());
+            final String checksum = in.readString();
+            if (checksum == null || !checksum.startsWith(CHECKSUM_PREFIX)) {
+                throw in.error("checksum expected in dump manifest: " + checksum);
+            }
+            try {
+                result.add(table, fileName, level, rows, Long.parseLong(checksum.substring(CHECKSUM_PREFIX.length()), 16));
+            } catch (final NumberFormatException e) {
+                throw in.error("invalid checksum in dump manifest: " + checksum);
+            }
+            in.expect(')');
+        }
+    }
+
+    private static long parseNumber(final DumpLexer in, final String token) throws IOException {
+        try {
+            return Long.parseLong(token);
+        } catch (final NumberFormatException e) {
+            throw in.error("number expected in dump manifest: " + token);
+        }
+    }
+
+    /**
+     * the CRC32 checksum of a file, to compare it with the one in the manifest.
+     */
+    public static long checksum(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[65536];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
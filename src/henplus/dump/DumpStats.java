@@ -0,0 +1,273 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where the time of a dump-out, dump-in or verify-dump went: for each table the time spent in each phase, the rows and the
+ * bytes of its data. Phases that run on different threads overlap, so their sum may well exceed the elapsed time; the
+ * phase that takes longest is the one that limits the throughput.
+ */
+public class DumpStats {
+
+    /** executing the select of a table */
+    public static final int QUERY = 0;
+    /** fetching rows from the result set */
+    public static final int FETCH = 1;
+    /** one stage waiting for the other: dump-out for rows to be fetched, dump-in for rows to be inserted */
+    public static final int WAIT = 2;
+    /** formatting rows */
+    public static final int FORMAT = 3;
+    /** writing to the dump file; for .gz files, this includes waiting for the compression */
+    public static final int WRITE = 4;
+    /** compressing, summed up over all compressing threads */
+    public static final int COMPRESS = 5;
+    /** reading and parsing the dump */
+    public static final int READ = 6;
+    /** executing inserts and batches */
+    public static final int INSERT = 7;
+    /** committing */
+    public static final int COMMIT = 8;
+
+    private static final String[] PHASE_NAMES = { "query", "fetch", "wait", "format", "write", "compress", "read", "insert",
+            "commit" };
+    private static final int[] OUTPUT_PHASES = { QUERY, FETCH, WAIT, FORMAT, WRITE, COMPRESS };
+    private static final int[] INPUT_PHASES = { READ, WAIT, INSERT, COMMIT };
+
+    private final String _command;
+    private final String _fileName;
+    private final boolean _input;
+    private final long _startTime;
+    private final List<Table> _tables;
+    private long _elapsedTime;
+
+    /**
+     * @param input
+     *            whether the dump is read; otherwise, it is written.
+     */
+    public DumpStats(final String command, final String fileName, final boolean input) {
+        _command = command;
+        _fileName = fileName;
+        _input = input;
+        _startTime = System.currentTimeMillis();
+        _tables = new ArrayList<Table>();
+        _elapsedTime = -1;
+    }
+
+    public String getCommand() {
+        return _command;
+    }
+
+    public String getFileName() {
+        return _fileName;
+    }
+
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    /**
+     * the time from start to finish in milliseconds; while running, the time so far.
+     */
+    public long getElapsedTime() {
+        return _elapsedTime >= 0 ? _elapsedTime : System.currentTimeMillis() - _startTime;
+    }
+
+    public void finish() {
+        _elapsedTime = System.currentTimeMillis() - _startTime;
+    }
+
+    /**
+     * the phases of this kind of command, in the order they are shown.
+     */
+    public int[] getPhases() {
+        return _input ? INPUT_PHASES : OUTPUT_PHASES;
+    }
+
+    public static String getPhaseName(final int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * add the statistics of a table that is done. Tables are added from several threads in parallel dumps.
+     */
+    public synchronized void add(final Table table) {
+        _tables.add(table);
+    }
+
+    public synchronized List<Table> getTables() {
+        return new ArrayList<Table>(_tables);
+    }
+
+    /**
+     * the sum of all tables.
+     */
+    public Table getTotal() {
+        final Table result = new Table("total");
+        for (final Table table : getTables()) {
+            for (int i = 0; i < PHASE_NAMES.length; ++i) {
+                result.add(i, table.getTime(i));
+            }
+            result.addRows(table.getRows());
+            result.addBytes(table.getBytes(), table.getCompressedBytes());
+        }
+        return result;
+    }
+
+    /**
+     * write the statistics as tab separated values, one line per table and a last one with the total; the first line is a
+     * comment with the command and file, the second has the names of the columns. Times are in milliseconds.
+     */
+    public void writeSummary(final File file) throws IOException {
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.println("# " + _command + " " + _fileName + " " + new Timestamp(_startTime) + " elapsed-ms "
+                    + getElapsedTime());
+            out.print("table\trows\tbytes");
+            if (!_input) {
+                out.print("\tcompressed-bytes");
+            }
+            for (final int phase : getPhases()) {
+                out.print("\t" + PHASE_NAMES[phase] + "-ms");
+            }
+            out.println();
+            for (final Table table : getTables()) {
+                writeSummary(out, table);
+            }
+            writeSummary(out, getTotal());
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("writing " + file + " failed");
+        }
+    }
+
+    private void writeSummary(final PrintWriter out, final Table table) {
+        out.print(table.getName() + "\t" + table.getRows() + "\t" + table.getBytes());
+        if (!_input) {
+            out.print("\t" + table.getCompressedBytes());
+        }
+        for (final int phase : getPhases()) {
+            out.print(String.format(Locale.US, "\t%.3f", table.getTime(phase) / 1e6));
+        }
+        out.println();
+    }
+
+    /**
+     * The statistics of a single table, collected while it is dumped and added once it is done.
+     */
+    public static class Table {
+
+        private final String _name;
+        private final long[] _times;
+        private long _rows;
+        private long _bytes;
+        private long _compressedBytes;
+        private long _bytesWritten;
+        private long _writeTime;
+        private long _compressTime;
+        private long _bytesCompressed;
+
+        public Table(final String name) {
+            _name = name;
+            _times = new long[PHASE_NAMES.length];
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * add time in nanoseconds to the given phase.
+         */
+        public synchronized void add(final int phase, final long nanos) {
+            _times[phase] += nanos;
+        }
+
+        /**
+         * the time of the given phase in nanoseconds.
+         */
+        public synchronized long getTime(final int phase) {
+            return _times[phase];
+        }
+
+        public long getRows() {
+            return _rows;
+        }
+
+        public void addRows(final long rows) {
+            _rows += rows;
+        }
+
+        /**
+         * the bytes of the table data; as written or read, before compression.
+         */
+        public long getBytes() {
+            return _bytes;
+        }
+
+        /**
+         * the bytes of the table data after compression; 0, if the dump is not compressed.
+         */
+        public long getCompressedBytes() {
+            return _compressedBytes;
+        }
+
+        public void addBytes(final long bytes, final long compressedBytes) {
+            _bytes += bytes;
+            _compressedBytes += compressedBytes;
+        }
+
+        /**
+         * remember the counters of the dump before the table is written.
+         */
+        public void beginOutput(final DumpWriter out) {
+            _bytesWritten = out.getBytesWritten();
+            _writeTime = out.getWriteTime();
+            final ParallelGzipOutputStream gzip = getGzipStream(out);
+            if (gzip != null) {
+                _compressTime = gzip.getCompressTime();
+                _bytesCompressed = gzip.getBytesOut();
+            }
+        }
+
+        /**
+         * add what has been written since {@link #beginOutput(DumpWriter)}. Blocks are compressed some time after they are
+         * written, so the compression of a table is partly counted for the next one.
+         *
+         * @param busyTime
+         *            the time in nanoseconds the thread writing the table has been busy formatting and writing rows.
+         */
+        public void endOutput(final DumpWriter out, final long busyTime) {
+            final long writeTime = out.getWriteTime() - _writeTime;
+            add(WRITE, writeTime);
+            add(FORMAT, Math.max(0, busyTime - writeTime));
+            final ParallelGzipOutputStream gzip = getGzipStream(out);
+            addBytes(out.getBytesWritten() - _bytesWritten, gzip != null ? gzip.getBytesOut() - _bytesCompressed : 0);
+            if (gzip != null) {
+                add(COMPRESS, gzip.getCompressTime() - _compressTime);
+            }
+        }
+
+        private static ParallelGzipOutputStream getGzipStream(final DumpWriter out) {
+            return out.getOutputStream() instanceof ParallelGzipOutputStream ? (ParallelGzipOutputStream) out
+                    .getOutputStream() : null;
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,475 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the text dump format as UTF-8 into a large buffer. Unlike a PrintStream, this is not synchronized and does not go
+ * through a charset encoder; plain ASCII is copied directly, numbers and temporal values are formatted straight into the
+ * buffer. Not thread safe: each dump writes to its own DumpWriter.
+ */
+public class DumpWriter extends OutputStream {
+
+    private static final int BUFFER_SIZE = 65536;
+    /** the most bytes a single char is written as, including an escape */
+    private static final int MAX_CHAR_BYTES = 4;
+    private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes();
+    /** decimals with at most this many fraction digits and an unscaled value of up to 62 bits are printed as longs */
+    private static final int MAX_LONG_SCALE = 18;
+    /** Double.toString() writes values below this in plain notation */
+    private static final double MAX_PLAIN_DOUBLE = 1e7;
+    /** chunk size for LOB values; a multiple of three, so that base64 needs no padding between chunks */
+    private static final int LOB_CHUNK_SIZE = 3 * 4096;
+    static final byte[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+    private final OutputStream _out;
+    private final byte[] _buf;
+    private final Calendar _calendar;
+    private int _count;
+    private long _written;
+    private long _writeTime;
+    private DumpIndex _index;
+    private CRC32 _checksum;
+    private int _checksumStart;
+
+    public DumpWriter(final OutputStream out) {
+        _out = out;
+        _buf = new byte[BUFFER_SIZE];
+        _calendar = new GregorianCalendar();
+        _count = 0;
+    }
+
+    /**
+     * the stream this writes to.
+     */
+    public OutputStream getOutputStream() {
+        return _out;
+    }
+
+    /**
+     * the table of contents of the sections written; null, if none is kept.
+     */
+    public DumpIndex getIndex() {
+        return _index;
+    }
+
+    public void setIndex(final DumpIndex index) {
+        _index = index;
+    }
+
+    /**
+     * the number of bytes written to this writer so far.
+     */
+    public long getBytesWritten() {
+        return _written + _count;
+    }
+
+    /**
+     * the time in nanoseconds spent writing to the underlying stream so far.
+     */
+    public long getWriteTime() {
+        return _writeTime;
+    }
+
+    /**
+     * the position in the file at which the next section starts. Writing to a {@link ParallelGzipOutputStream}, the current
+     * gzip member is completed first, so that the section can be decompressed starting from there.
+     */
+    public long startSection() throws IOException {
+        if (_out instanceof ParallelGzipOutputStream) {
+            flushBuffer();
+            _out.flush();
+            return ((ParallelGzipOutputStream) _out).getBytesOut();
+        }
+        return _written + _count;
+    }
+
+    /**
+     * start computing a CRC32 checksum of the bytes written from now on.
+     */
+    public void beginChecksum() {
+        _checksum = new CRC32();
+        _checksumStart = _count;
+    }
+
+    /**
+     * the checksum of the bytes written since {@link #beginChecksum()}.
+     */
+    public long endChecksum() {
+        _checksum.update(_buf, _checksumStart, _count - _checksumStart);
+        final long result = _checksum.getValue();
+        _checksum = null;
+        return result;
+    }
+
+    public void print(final String s) throws IOException {
+        writeChars(s, false);
+    }
+
+    public void println(final String s) throws IOException {
+        writeChars(s, false);
+        println();
+    }
+
+    public void println() throws IOException {
+        print('\n');
+    }
+
+    public void print(final char c) throws IOException {
+        if (c < 0x80) {
+            if (_count >= _buf.length) {
+                flushBuffer();
+            }
+            _buf[_count++] = (byte) c;
+        } else {
+            writeChars(String.valueOf(c), false);
+        }
+    }
+
+    public void print(final boolean b) throws IOException {
+        print(b ? "true" : "false");
+    }
+
+    public void print(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(MIN_LONG, 0, MIN_LONG.length);
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            _buf[_count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            ++digits;
+        }
+        int pos = _count + digits;
+        _count = pos;
+        do {
+            _buf[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /**
+     * print a decimal in plain notation, like BigDecimal.toPlainString(). Decimals of up to 18 digits are written straight
+     * into the buffer.
+     */
+    public void print(final BigDecimal value) throws IOException {
+        final int scale = value.scale();
+        final BigInteger unscaledValue = value.unscaledValue();
+        if (scale < 0 || scale > MAX_LONG_SCALE || unscaledValue.bitLength() > 62) {
+            print(value.toPlainString());
+            return;
+        }
+        long unscaled = unscaledValue.longValue();
+        if (scale == 0) {
+            print(unscaled);
+            return;
+        }
+        if (unscaled < 0) {
+            print('-');
+            unscaled = -unscaled;
+        }
+        long divisor = 1;
+        for (int i = 0; i < scale; ++i) {
+            divisor *= 10;
+        }
+        print(unscaled / divisor);
+        ensure(scale + 1);
+        _buf[_count++] = '.';
+        long fraction = unscaled % divisor;
+        int pos = _count + scale;
+        _count = pos;
+        for (int i = 0; i < scale; ++i) {
+            _buf[--pos] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+    }
+
+    /**
+     * print a double like Double.toString(). Whole numbers are written straight into the buffer.
+     */
+    public void print(final double value) throws IOException {
+        final long whole = (long) value;
+        if (whole == value && Math.abs(value) < MAX_PLAIN_DOUBLE && (whole != 0 || 1 / value > 0)) {
+            print(whole);
+            ensure(2);
+            _buf[_count++] = '.';
+            _buf[_count++] = '0';
+            return;
+        }
+        print(Double.toString(value));
+    }
+
+    /**
+     * print a quoted string; quotes and backslashes within it are escaped.
+     */
+    public void printQuoted(final String s) throws IOException {
+        print('\'');
+        writeChars(s, true);
+        print('\'');
+    }
+
+    /**
+     * print the characters of the reader as a quoted string, escaped like {@link #printQuoted(String)}. The reader is read in
+     * chunks, so the characters need not fit in memory.
+     */
+    public void printQuoted(final Reader in) throws IOException {
+        final char[] chunk = new char[LOB_CHUNK_SIZE];
+        print('\'');
+        int len = 0;
+        int n;
+        while ((n = in.read(chunk, len, chunk.length - len)) >= 0) {
+            len += n;
+            if (len < chunk.length) {
+                continue;
+            }
+            // keep a high surrogate for the next chunk, so that pairs are encoded as a whole.
+            final int keep = Character.isHighSurrogate(chunk[len - 1]) ? 1 : 0;
+            writeChars(new String(chunk, 0, len - keep), true);
+            chunk[0] = chunk[len - 1];
+            len = keep;
+        }
+        writeChars(new String(chunk, 0, len), true);
+        print('\'');
+    }
+
+    /**
+     * print the bytes of the stream base64 encoded as a quoted string. The stream is read in chunks, so the bytes need not
+     * fit in memory.
+     */
+    public void printBase64(final InputStream in) throws IOException {
+        final byte[] chunk = new byte[LOB_CHUNK_SIZE];
+        print('\'');
+        int len = 0;
+        int n;
+        while ((n = in.read(chunk, len, chunk.length - len)) >= 0) {
+            len += n;
+            if (len == chunk.length) {
+                writeBase64(chunk, len);
+                len = 0;
+            }
+        }
+        writeBase64(chunk, len);
+        print('\'');
+    }
+
+    /**
+     * print a quoted date as yyyy-mm-dd, like java.sql.Date.toString().
+     */
+    public void printQuoted(final java.sql.Date value) throws IOException {
+        _calendar.setTime(value);
+        ensure(16);
+        _buf[_count++] = '\'';
+        writeDate();
+        _buf[_count++] = '\'';
+    }
+
+    /**
+     * print a quoted time as hh:mm:ss, like java.sql.Time.toString().
+     */
+    public void printQuoted(final Time value) throws IOException {
+        _calendar.setTime(value);
+        ensure(16);
+        _buf[_count++] = '\'';
+        writeTime();
+        _buf[_count++] = '\'';
+    }
+
+    /**
+     * print a quoted timestamp as yyyy-mm-dd hh:mm:ss.fffffffff, like java.sql.Timestamp.toString().
+     */
+    public void printQuoted(final Timestamp value) throws IOException {
+        _calendar.setTime(value);
+        ensure(40);
+        _buf[_count++] = '\'';
+        writeDate();
+        _buf[_count++] = ' ';
+        writeTime();
+        _buf[_count++] = '.';
+        int nanos = value.getNanos();
+        if (nanos == 0) {
+            _buf[_count++] = '0';
+        } else {
+            int digits = 9;
+            while (nanos % 10 == 0) {
+                nanos /= 10;
+                --digits;
+            }
+            writeDigits(nanos, digits);
+        }
+        _buf[_count++] = '\'';
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (_count >= _buf.length) {
+            flushBuffer();
+        }
+        _buf[_count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (len >= _buf.length) {
+            flushBuffer();
+            if (_checksum != null) {
+                _checksum.update(b, off, len);
+            }
+            final long start = System.nanoTime();
+            _out.write(b, off, len);
+            _writeTime += System.nanoTime() - start;
+            _written += len;
+            return;
+        }
+        if (_count + len > _buf.length) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, _buf, _count, len);
+        _count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            _out.close();
+        }
+    }
+
+    private void writeBase64(final byte[] b, final int len) throws IOException {
+        for (int i = 0; i < len; i += 3) {
+            ensure(4);
+            final int remaining = len - i;
+            final int bits = (b[i] & 0xFF) << 16 | (remaining > 1 ? (b[i + 1] & 0xFF) << 8 : 0)
+                    | (remaining > 2 ? b[i + 2] & 0xFF : 0);
+            _buf[_count++] = BASE64_CHARS[bits >> 18];
+            _buf[_count++] = BASE64_CHARS[bits >> 12 & 0x3F];
+            _buf[_count++] = remaining > 1 ? BASE64_CHARS[bits >> 6 & 0x3F] : (byte) '=';
+            _buf[_count++] = remaining > 2 ? BASE64_CHARS[bits & 0x3F] : (byte) '=';
+        }
+    }
+
+    private void writeDate() {
+        // the year of the era, like Date.toString(): 5 BC is written as 0005.
+        final int year = _calendar.get(Calendar.YEAR);
+        writeDigits(year, year > 9999 ? String.valueOf(year).length() : 4);
+        _buf[_count++] = '-';
+        writeDigits(_calendar.get(Calendar.MONTH) + 1, 2);
+        _buf[_count++] = '-';
+        writeDigits(_calendar.get(Calendar.DAY_OF_MONTH), 2);
+    }
+
+    private void writeTime() {
+        writeDigits(_calendar.get(Calendar.HOUR_OF_DAY), 2);
+        _buf[_count++] = ':';
+        writeDigits(_calendar.get(Calendar.MINUTE), 2);
+        _buf[_count++] = ':';
+        writeDigits(_calendar.get(Calendar.SECOND), 2);
+    }
+
+    /**
+     * write a non-negative value with the given number of digits, padded with zeros.
+     */
+    private void writeDigits(int value, final int digits) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        int pos = _count + digits;
+        _count = pos;
+        for (int i = 0; i < digits; ++i) {
+            _buf[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * encode the string as UTF-8; runs of plain ASCII are copied without further checks.
+     */
+    private void writeChars(final String s, final boolean escape) throws IOException {
+        final int len = s.length();
+        final int limit = _buf.length - MAX_CHAR_BYTES;
+        int i = 0;
+        while (i < len) {
+            if (_count >= limit) {
+                flushBuffer();
+            }
+            // fast path: ascii that needs no escaping.
+            final int end = Math.min(len, i + (limit - _count));
+            char c = 0;
+            while (i < end && (c = s.charAt(i)) < 0x80 && (!escape || c != '\'' && c != '\\')) {
+                _buf[_count++] = (byte) c;
+                ++i;
+            }
+            if (i >= end) {
+                continue;
+            }
+            ++i;
+            if (c < 0x80) {
+                _buf[_count++] = '\\';
+                _buf[_count++] = (byte) c;
+            } else if (c < 0x800) {
+                _buf[_count++] = (byte) (0xC0 | c >> 6);
+                _buf[_count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i < len && Character.isLowSurrogate(s.charAt(i))) {
+                final int cp = Character.toCodePoint(c, s.charAt(i++));
+                _buf[_count++] = (byte) (0xF0 | cp >> 18);
+                _buf[_count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                _buf[_count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                _buf[_count++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                _buf[_count++] = '?'; // unpaired surrogate; as the charset encoder does.
+            } else {
+                _buf[_count++] = (byte) (0xE0 | c >> 12);
+                _buf[_count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                _buf[_count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private void ensure(final int bytes) throws IOException {
+        if (_count + bytes > _buf.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (_count > 0) {
+            if (_checksum != null) {
+                _checksum.update(_buf, _checksumStart, _count - _checksumStart);
+                _checksumStart = 0;
+            }
+            final long start = System.nanoTime();
+            _out.write(_buf, 0, _count);
+            _writeTime += System.nanoTime() - start;
+            _written += _count;
+            _count = 0;
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,79 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+/**
+ * A row fetched by dump-out, filled by the {@link ColumnExtractor}s of its columns. Integer and floating point values are
+ * kept in arrays of primitives, so that they are not boxed for each cell; the other values are kept as objects. The rows
+ * are reused for one row after the other, so fetching allocates nothing for numbers.
+ */
+public final class FetchedRow {
+
+    private final Object[] _values;
+    private final long[] _longs;
+    private final double[] _doubles;
+    private final boolean[] _nulls;
+
+    public FetchedRow(final int columns) {
+        _values = new Object[columns];
+        _longs = new long[columns];
+        _doubles = new double[columns];
+        _nulls = new boolean[columns];
+    }
+
+    /**
+     * the given number of rows, e.g. for a {@link RowRing}.
+     */
+    public static FetchedRow[] createRows(final int count, final int columns) {
+        final FetchedRow[] result = new FetchedRow[count];
+        for (int i = 0; i < count; ++i) {
+            result[i] = new FetchedRow(columns);
+        }
+        return result;
+    }
+
+    public boolean isNull(final int column) {
+        return _nulls[column];
+    }
+
+    public void setNull(final int column) {
+        _nulls[column] = true;
+        _values[column] = null;
+    }
+
+    public void setLong(final int column, final long value) {
+        _nulls[column] = false;
+        _longs[column] = value;
+    }
+
+    public long getLong(final int column) {
+        return _longs[column];
+    }
+
+    public void setDouble(final int column, final double value) {
+        _nulls[column] = false;
+        _doubles[column] = value;
+    }
+
+    public double getDouble(final int column) {
+        return _doubles[column];
+    }
+
+    /**
+     * set a value kept as object; null for NULL.
+     */
+    public void setValue(final int column, final Object value) {
+        _nulls[column] = value == null;
+        _values[column] = value;
+    }
+
+    public Object getValue(final int column) {
+        return _values[column];
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,233 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Holds the value of a BLOB or CLOB column read from a dump until it is inserted. Small values stay in memory; once a value
+ * grows beyond the memory limit, it is moved to a temporary file, so that loading a dump needs constant memory no matter how
+ * large its LOBs are. Characters are kept as UTF-16, so that their number is known and they can be read back unchanged.
+ */
+public class LobBuffer {
+
+    public static final int DEFAULT_MEMORY_LIMIT = 1 << 16;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String CHARSET = "UTF-16BE";
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < DumpWriter.BASE64_CHARS.length; ++i) {
+            BASE64_VALUES[DumpWriter.BASE64_CHARS[i]] = (byte) i;
+        }
+    }
+
+    private final boolean _characters;
+    private final int _memoryLimit;
+    private final File _tempDir;
+    private ByteArrayOutputStream _memory;
+    private File _file;
+    private OutputStream _out;
+    private long _bytes;
+
+    /**
+     * @param characters
+     *            whether this holds the characters of a CLOB or the bytes of a BLOB.
+     * @param tempDir
+     *            the directory of the temporary file; null for the default one.
+     */
+    public LobBuffer(final boolean characters, final int memoryLimit, final File tempDir) {
+        _characters = characters;
+        _memoryLimit = memoryLimit;
+        _tempDir = tempDir;
+        _memory = new ByteArrayOutputStream();
+        _out = _memory;
+        _bytes = 0;
+    }
+
+    public boolean isCharacters() {
+        return _characters;
+    }
+
+    /**
+     * whether the value has been kept in memory; otherwise, it is to be read with {@link #openStream()} or
+     * {@link #openReader()}.
+     */
+    public boolean isInMemory() {
+        return _file == null;
+    }
+
+    /**
+     * the length in bytes of a BLOB, in characters of a CLOB.
+     */
+    public long getLength() {
+        return _characters ? _bytes / 2 : _bytes;
+    }
+
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (_file == null && _bytes + len > _memoryLimit) {
+            spill();
+        }
+        _out.write(b, off, len);
+        _bytes += len;
+    }
+
+    /**
+     * a writer that appends the characters written to it to this CLOB.
+     */
+    public Writer getCharWriter() {
+        return new Writer() {
+            private final byte[] _buf = new byte[BUFFER_SIZE];
+
+            @Override
+            public void write(final char[] cbuf, int off, int len) throws IOException {
+                while (len > 0) {
+                    final int n = Math.min(len, _buf.length / 2);
+                    for (int i = 0; i < n; ++i) {
+                        final char c = cbuf[off + i];
+                        _buf[2 * i] = (byte) (c >> 8);
+                        _buf[2 * i + 1] = (byte) c;
+                    }
+                    LobBuffer.this.write(_buf, 0, 2 * n);
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * a writer that decodes the base64 characters written to it and appends the bytes to this BLOB. Call close() after the
+     * last character to write the remaining bytes.
+     */
+    public Writer getBase64Writer() {
+        return new Writer() {
+            private final byte[] _buf = new byte[BUFFER_SIZE];
+            private int _len = 0;
+            private int _bits = 0;
+            private int _bitCount = 0;
+
+            @Override
+            public void write(final char[] cbuf, final int off, final int len) throws IOException {
+                for (int i = off; i < off + len; ++i) {
+                    final char c = cbuf[i];
+                    if (c == '=' || Character.isWhitespace(c)) {
+                        continue;
+                    }
+                    final int value = c < 128 ? BASE64_VALUES[c] : -1;
+                    if (value < 0) {
+                        throw new IOException("invalid base64 character '" + c + "'");
+                    }
+                    _bits = _bits << 6 | value;
+                    _bitCount += 6;
+                    if (_bitCount >= 8) {
+                        _bitCount -= 8;
+                        _buf[_len++] = (byte) (_bits >> _bitCount);
+                        if (_len == _buf.length) {
+                            flush();
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                LobBuffer.this.write(_buf, 0, _len);
+                _len = 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * the bytes of a BLOB that has been kept in memory.
+     */
+    public byte[] toByteArray() {
+        return _memory.toByteArray();
+    }
+
+    /**
+     * the characters of a CLOB that has been kept in memory.
+     */
+    @Override
+    public String toString() {
+        try {
+            return _memory.toString(CHARSET);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * the value of a BLOB from the start; each call returns a new stream.
+     */
+    public InputStream openStream() throws IOException {
+        if (_file == null) {
+            return new ByteArrayInputStream(_memory.toByteArray());
+        }
+        _out.flush();
+        return new BufferedInputStream(new FileInputStream(_file), BUFFER_SIZE);
+    }
+
+    /**
+     * the value of a CLOB from the start; each call returns a new reader.
+     */
+    public Reader openReader() throws IOException {
+        return new InputStreamReader(openStream(), CHARSET);
+    }
+
+    /**
+     * remove the temporary file, if any.
+     */
+    public void dispose() {
+        if (_file != null) {
+            try {
+                _out.close();
+            } catch (final IOException e) {
+            }
+            _file.delete();
+            _file = null;
+        }
+        _memory = null;
+        _out = null;
+    }
+
+    private void spill() throws IOException {
+        _file = File.createTempFile("henplus-lob", ".tmp", _tempDir);
+        _out = new BufferedOutputStream(new FileOutputStream(_file), BUFFER_SIZE);
+        _memory.writeTo(_out);
+        _memory = null;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,432 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Scanner for uncompressed text dumps in UTF-8 that works directly on the file mapped into memory. The structure, tokens and
+ * numbers of the dump are scanned in the mapped bytes; only the contents of quoted strings are decoded into characters. Unlike
+ * the {@link DumpLexer} on a reader, the input is neither copied into a buffer nor decoded as a whole. The file is mapped in
+ * windows, so dumps of any size can be read.
+ */
+public class MappedDumpLexer extends DumpLexer {
+
+    private static final int WINDOW_SIZE = 64 << 20;
+    /** the number of bytes of a long string decoded at once */
+    private static final int CHUNK_SIZE = 8192;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile _file;
+    private final FileChannel _channel;
+    private final long _end;
+    private final StringBuilder _scratch;
+    private MappedByteBuffer _buf;
+    private long _base;
+    private int _pos;
+    private int _limit;
+    private int _line;
+    private byte[] _bytes;
+    private int _byteCount;
+    private CRC32 _checksum;
+    private int _checksumStart;
+    private byte[] _checksumBytes;
+
+    /**
+     * @param offset
+     *            the position in the file to start at.
+     */
+    public MappedDumpLexer(final File file, final long offset) throws IOException {
+        _file = new RandomAccessFile(file, "r");
+        _channel = _file.getChannel();
+        _end = _channel.size();
+        _scratch = new StringBuilder();
+        _bytes = new byte[CHUNK_SIZE];
+        _base = offset;
+        _pos = 0;
+        _limit = 0;
+        _line = 0;
+    }
+
+    @Override
+    public int getLineNumber() {
+        return _line;
+    }
+
+    /**
+     * the position in the file; bytes rather than characters.
+     */
+    @Override
+    public long getPosition() {
+        return _base + _pos;
+    }
+
+    /**
+     * close the file. The mapping itself is released, once it is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        _file.close();
+    }
+
+    @Override
+    public void beginChecksum() {
+        _checksum = new CRC32();
+        _checksumStart = _pos;
+        if (_checksumBytes == null) {
+            _checksumBytes = new byte[CHUNK_SIZE];
+        }
+    }
+
+    /**
+     * the checksum of the bytes consumed since {@link #beginChecksum()}.
+     */
+    @Override
+    public long endChecksum() {
+        updateChecksum(_checksumStart, _pos);
+        final long result = _checksum.getValue();
+        _checksum = null;
+        return result;
+    }
+
+    /**
+     * read the next character; -1 on EOF. Characters outside of strings are plain ASCII in any valid dump; other characters
+     * are decoded anyway, to report them.
+     */
+    @Override
+    public int read() throws IOException {
+        if (_pos >= _limit && !fill()) {
+            return -1;
+        }
+        final byte b = _buf.get(_pos++);
+        if (b >= 0) {
+            if (b == '\n') {
+                ++_line;
+            }
+            return b;
+        }
+        _byteCount = 0;
+        appendByte(b);
+        while (_byteCount < 4 && (_pos < _limit || fill()) && (_buf.get(_pos) & 0xC0) == 0x80) {
+            appendByte(_buf.get(_pos++));
+        }
+        return new String(_bytes, 0, _byteCount, UTF8).charAt(0);
+    }
+
+    @Override
+    public boolean skipWhite() throws IOException {
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                return false;
+            }
+            final byte b = _buf.get(_pos);
+            if (b == '\n') {
+                ++_line;
+            } else if (!isWhitespace(b)) {
+                return true;
+            }
+            ++_pos;
+        }
+    }
+
+    @Override
+    public String readToken() throws IOException {
+        skipWhite();
+        _byteCount = 0;
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                break;
+            }
+            final int start = _pos;
+            while (_pos < _limit && !isTokenEnd(_buf.get(_pos))) {
+                ++_pos;
+            }
+            appendBytes(start, _pos);
+            if (_pos < _limit) {
+                break;
+            }
+        }
+        return new String(_bytes, 0, _byteCount, UTF8);
+    }
+
+    @Override
+    public String readString() throws IOException {
+        if (!beginString()) {
+            return null;
+        }
+        _byteCount = 0;
+        while (!scanString(Integer.MAX_VALUE)) {
+            // collect the whole string.
+        }
+        return new String(_bytes, 0, _byteCount, UTF8);
+    }
+
+    @Override
+    public boolean readString(final Writer out) throws IOException {
+        if (!beginString()) {
+            return false;
+        }
+        _byteCount = 0;
+        boolean end;
+        do {
+            end = scanString(CHUNK_SIZE);
+            if (end || _byteCount >= CHUNK_SIZE) {
+                writeChars(out, end);
+            }
+        } while (!end);
+        return true;
+    }
+
+    @Override
+    public void skipList() throws IOException {
+        int depth = 1;
+        boolean inString = false;
+        boolean escaped = false;
+        for (;;) {
+            if (_pos >= _limit && !fill()) {
+                throw error("unexpected end of dump");
+            }
+            final byte b = _buf.get(_pos++);
+            if (b == '\n') {
+                ++_line;
+            }
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '\'') {
+                    inString = false;
+                }
+            } else if (b == '\'') {
+                inString = true;
+            } else if (b == '(') {
+                ++depth;
+            } else if (b == ')' && --depth == 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int readNumber() throws IOException {
+        skipWhite();
+        int c = read();
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            // separated sign.
+            negative = c == '-';
+            skipWhite();
+            c = read();
+        }
+        if (c == 'N' || c == 'n') {
+            for (int i = 1; i < NULL_STR.length(); ++i) {
+                if (Character.toUpperCase((char) read()) != NULL_STR.charAt(i)) {
+                    throw error("number expected");
+                }
+            }
+            return NUMBER_NULL;
+        }
+
+        _scratch.setLength(0);
+        if (negative) {
+            _scratch.append('-');
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean plain = true; // no exponent, no other characters
+        while (c >= 0 && (c >= 0x80 || !isTokenEnd((byte) c))) {
+            final char ch = (char) c;
+            _scratch.append(ch);
+            if (ch >= '0' && ch <= '9') {
+                if (mantissa != 0 || ch != '0') {
+                    ++digits;
+                }
+                if (digits <= MAX_LONG_DIGITS) {
+                    mantissa = mantissa * 10 + (ch - '0');
+                }
+                if (inFraction) {
+                    ++fractionDigits;
+                }
+            } else if (ch == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                plain = false;
+            }
+            if (_pos >= _limit && !fill()) {
+                break;
+            }
+            c = _buf.get(_pos);
+            if (c < 0 || isTokenEnd((byte) c)) {
+                break;
+            }
+            ++_pos;
+        }
+        if (_scratch.length() == 0 || _scratch.length() == 1 && negative) {
+            throw error("number expected");
+        }
+        return setNumber(_scratch, negative, mantissa, digits, fractionDigits, inFraction, plain);
+    }
+
+    /**
+     * read up to the opening quote of a string; returns false, if the value is NULL instead.
+     */
+    private boolean beginString() throws IOException {
+        int nullParseState = 0;
+        for (;;) {
+            final int c = read();
+            if (c < 0) {
+                throw error("string expected");
+            }
+            final char ch = (char) c;
+            // unless we already parse the NULL string, skip whitespaces.
+            if (nullParseState == 0 && Character.isWhitespace(ch)) {
+                continue;
+            }
+            if (ch == '\'') {
+                return true;
+            }
+            if (Character.toUpperCase(ch) == NULL_STR.charAt(nullParseState)) {
+                ++nullParseState;
+                if (nullParseState == NULL_STR.length()) {
+                    return false;
+                }
+                continue;
+            }
+            throw error("unexpected character '" + ch + "'");
+        }
+    }
+
+    /**
+     * append the bytes of the current string up to its end, the next escape, the end of the window or at most the given
+     * number of bytes to the bytes collected; an escaped byte is appended without its backslash. Quote and backslash never
+     * occur within a multi-byte UTF-8 sequence, so this works on the bytes without decoding them. Returns true, if the closing
+     * quote has been read.
+     */
+    private boolean scanString(final int maxBytes) throws IOException {
+        if (_pos >= _limit && !fill()) {
+            throw error("unterminated string");
+        }
+        final int start = _pos;
+        final int stop = _pos + Math.min(_limit - _pos, maxBytes);
+        byte b = 0;
+        while (_pos < stop && (b = _buf.get(_pos)) != '\'' && b != '\\') {
+            if (b == '\n') {
+                ++_line;
+            }
+            ++_pos;
+        }
+        appendBytes(start, _pos);
+        if (_pos >= stop) {
+            return false;
+        }
+        ++_pos;
+        if (b == '\'') {
+            return true; // End Of String.
+        }
+        if (_pos >= _limit && !fill()) {
+            throw error("expected character after backslash escape");
+        }
+        b = _buf.get(_pos++);
+        if (b == '\n') {
+            ++_line;
+        }
+        appendByte(b);
+        return false;
+    }
+
+    /**
+     * decode the bytes collected and pass the characters on. Unless this is the end of the string, an incomplete UTF-8
+     * sequence at the end is kept for the next chunk.
+     */
+    private void writeChars(final Writer out, final boolean end) throws IOException {
+        int n = _byteCount;
+        if (!end && n > 0) {
+            int lead = n - 1;
+            while (lead > 0 && lead > n - 4 && (_bytes[lead] & 0xC0) == 0x80) {
+                --lead;
+            }
+            final int b = _bytes[lead] & 0xFF;
+            final int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            if (lead + length > n) {
+                n = lead;
+            }
+        }
+        out.write(new String(_bytes, 0, n, UTF8));
+        System.arraycopy(_bytes, n, _bytes, 0, _byteCount - n);
+        _byteCount -= n;
+    }
+
+    private void appendByte(final byte b) {
+        if (_byteCount == _bytes.length) {
+            grow(1);
+        }
+        _bytes[_byteCount++] = b;
+    }
+
+    private void appendBytes(final int start, final int end) {
+        final int len = end - start;
+        if (_byteCount + len > _bytes.length) {
+            grow(len);
+        }
+        _buf.position(start);
+        _buf.get(_bytes, _byteCount, len);
+        _byteCount += len;
+    }
+
+    private void grow(final int len) {
+        final byte[] newBytes = new byte[Math.max(2 * _bytes.length, _byteCount + len)];
+        System.arraycopy(_bytes, 0, newBytes, 0, _byteCount);
+        _bytes = newBytes;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b >= 0 && b <= ' ' && Character.isWhitespace((char) b);
+    }
+
+    private static boolean isTokenEnd(final byte b) {
+        return isWhitespace(b) || b == ';' || b == ',' || b == '(' || b == ')';
+    }
+
+    /**
+     * map the next window of the file.
+     */
+    private boolean fill() throws IOException {
+        if (_checksum != null) {
+            updateChecksum(_checksumStart, _limit);
+            _checksumStart = 0;
+        }
+        _base += _limit;
+        _pos = 0;
+        _limit = (int) Math.max(0, Math.min(WINDOW_SIZE, _end - _base));
+        if (_limit == 0) {
+            return false;
+        }
+        _buf = _channel.map(FileChannel.MapMode.READ_ONLY, _base, _limit);
+        return true;
+    }
+
+    private void updateChecksum(final int start, final int end) {
+        for (int i = start; i < end; i += _checksumBytes.length) {
+            final int n = Math.min(end - i, _checksumBytes.length);
+            _buf.position(i);
+            _buf.get(_checksumBytes, 0, n);
+            _checksum.update(_checksumBytes, 0, n);
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,277 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream that compresses on several threads, like pigz. The data is cut into blocks that are compressed
+ * independently, each into a gzip member of its own; the members are written in order. The result is a standard
+ * multi-member gzip file as gunzip and GZIPInputStream read it. Only a few blocks per thread are kept in memory.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 512 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int OS_UNKNOWN = 255;
+    private static final int GZIP_FEXTRA = 4;
+    /** a final, empty block of fixed huffman codes */
+    private static final byte[] EMPTY_DEFLATE = { 3, 0 };
+
+    private final OutputStream _out;
+    private final int _level;
+    private final int _threads;
+    private final ExecutorService _executor;
+    private final Queue<Future<byte[]>> _pending;
+    private final int _maxPending;
+    private final long _startTime;
+    private final AtomicLong _compressTime;
+    private byte[] _block;
+    private int _count;
+    private long _bytesIn;
+    private long _bytesOut;
+    private long _members;
+    private long _elapsedTime;
+    private boolean _closed;
+
+    /**
+     * @param level
+     *            the compression level from 0 (none) to 9 (best).
+     * @param threads
+     *            the number of threads compressing blocks.
+     */
+    public ParallelGzipOutputStream(final OutputStream out, final int level, final int threads) {
+        _out = out;
+        _level = level;
+        _threads = Math.max(1, threads);
+        _executor = Executors.newFixedThreadPool(_threads, new ThreadFactory() {
+            private int _number = 0;
+
+            public synchronized Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "gzip-" + ++_number);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _pending = new ArrayDeque<Future<byte[]>>();
+        _maxPending = 2 * _threads;
+        _startTime = System.currentTimeMillis();
+        _compressTime = new AtomicLong();
+        _block = new byte[BLOCK_SIZE];
+        _count = 0;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    /**
+     * the number of bytes written to this stream.
+     */
+    public long getBytesIn() {
+        return _bytesIn;
+    }
+
+    /**
+     * the number of compressed bytes written to the underlying stream.
+     */
+    public long getBytesOut() {
+        return _bytesOut;
+    }
+
+    /**
+     * the time in nanoseconds spent compressing the blocks written so far, summed up over all threads.
+     */
+    public long getCompressTime() {
+        return _compressTime.get();
+    }
+
+    /**
+     * the time from opening to closing this stream in milliseconds; while it is open, the time so far.
+     */
+    public long getElapsedTime() {
+        return _closed ? _elapsedTime : System.currentTimeMillis() - _startTime;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (_count >= _block.length) {
+            submitBlock();
+        }
+        _block[_count++] = (byte) b;
+        ++_bytesIn;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        _bytesIn += len;
+        while (len > 0) {
+            if (_count >= _block.length) {
+                submitBlock();
+            }
+            final int n = Math.min(len, _block.length - _count);
+            System.arraycopy(b, off, _block, _count, n);
+            _count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * compress and write everything written so far. This ends the current gzip member, so it should be used rarely.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (_count > 0) {
+            submitBlock();
+        }
+        while (!_pending.isEmpty()) {
+            writeMember();
+        }
+        _out.flush();
+    }
+
+    /**
+     * write everything so far and then a gzip member without content, with the given extra field in its header. Readers
+     * skip the extra field, so this does not change the content.
+     */
+    public void writeEmptyMember(final byte[] extra) throws IOException {
+        flush();
+        final ByteArrayOutputStream member = new ByteArrayOutputStream(extra.length + 24);
+        writeHeader(member, GZIP_FEXTRA, 0);
+        member.write(extra.length);
+        member.write(extra.length >> 8);
+        member.write(extra, 0, extra.length);
+        member.write(EMPTY_DEFLATE, 0, EMPTY_DEFLATE.length);
+        writeInt(member, 0); // CRC
+        writeInt(member, 0); // size
+        _out.write(member.toByteArray());
+        _bytesOut += member.size();
+        ++_members;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        try {
+            // even an empty stream needs one member to be a valid gzip file.
+            if (_count > 0 || _members == 0 && _pending.isEmpty()) {
+                submitBlock();
+            }
+            while (!_pending.isEmpty()) {
+                writeMember();
+            }
+        } finally {
+            _closed = true;
+            _elapsedTime = System.currentTimeMillis() - _startTime;
+            _executor.shutdownNow();
+            _out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = _block;
+        final int len = _count;
+        _pending.add(_executor.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                final long start = System.nanoTime();
+                final byte[] result = compress(block, len, _level);
+                _compressTime.addAndGet(System.nanoTime() - start);
+                return result;
+            }
+        }));
+        _block = new byte[BLOCK_SIZE];
+        _count = 0;
+        while (_pending.size() >= _maxPending) {
+            writeMember();
+        }
+    }
+
+    /**
+     * wait for the oldest block to be compressed and write it.
+     */
+    private void writeMember() throws IOException {
+        final Future<byte[]> future = _pending.remove();
+        final byte[] member;
+        try {
+            member = future.get();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (final ExecutionException e) {
+            final IOException ioe = new IOException("compression failed: " + e.getCause());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+        _out.write(member);
+        _bytesOut += member.length;
+        ++_members;
+    }
+
+    /**
+     * compress the block into a complete gzip member: header, deflated data and trailer.
+     */
+    static byte[] compress(final byte[] block, final int len, final int level) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(len / 2 + 64);
+        writeHeader(result, 0, level == 9 ? 2 : level == 1 ? 4 : 0);
+
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(block, 0, len);
+            deflater.finish();
+            final byte[] buf = new byte[65536];
+            while (!deflater.finished()) {
+                final int n = deflater.deflate(buf);
+                result.write(buf, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(block, 0, len);
+        writeInt(result, (int) crc.getValue());
+        writeInt(result, len);
+        return result.toByteArray();
+    }
+
+    private static void writeHeader(final ByteArrayOutputStream out, final int flags, final int extraFlags) {
+        out.write(GZIP_MAGIC & 0xFF);
+        out.write(GZIP_MAGIC >> 8);
+        out.write(Deflater.DEFLATED);
+        out.write(flags);
+        for (int i = 0; i < 4; ++i) {
+            out.write(0); // modification time
+        }
+        out.write(extraFlags);
+        out.write(OS_UNKNOWN);
+    }
+
+    private static void writeInt(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,27 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Estimates the number of rows of a table without counting them. dump-out uses the estimate for its progress display and
+ * to plan parallel dumps, where a 'select count(*)' would often cost as much as the dump itself.
+ */
+public interface RowEstimator {
+
+    /**
+     * the estimated number of rows of the table; -1, if there is no estimate.
+     *
+     * @param schema
+     *            the schema of the table; null for the default schema of the connection.
+     */
+    long estimateRows(Connection conn, String schema, String table) throws SQLException;
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
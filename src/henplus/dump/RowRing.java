@@ -0,0 +1,117 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded ring of pre-allocated rows between a thread producing rows and a thread consuming them. The producer claims a
+ * free row, fills in its values and publishes it; the consumer takes the rows in order and releases them as soon as it does
+ * not need them anymore, which makes them free for the producer again. No rows are allocated while they pass through, and
+ * the producer waits while all rows are in use, so it never runs ahead of the consumer by more than the capacity.
+ * <p>
+ * A row is anything that can be filled and read again, like an Object[] of values or a {@link FetchedRow}.
+ */
+public class RowRing<T> {
+
+    private final T[] _rows;
+    private long _published;
+    private long _taken;
+    private long _released;
+    private boolean _closed;
+    private boolean _cancelled;
+
+    /**
+     * @param rows
+     *            the rows to reuse; their number is the capacity of the ring.
+     */
+    public RowRing(final T[] rows) {
+        _rows = rows;
+    }
+
+    /**
+     * a ring of rows of the given number of values.
+     */
+    public static RowRing<Object[]> create(final int capacity, final int columns) {
+        return new RowRing<Object[]>(new Object[capacity][columns]);
+    }
+
+    public int getCapacity() {
+        return _rows.length;
+    }
+
+    /**
+     * the row to fill next; waits while all rows are in use. Returns null, if the ring has been cancelled. The values of the
+     * row are those of the row it has been used for before.
+     */
+    public synchronized T claim() throws InterruptedException {
+        while (_published - _released >= _rows.length && !_cancelled) {
+            wait();
+        }
+        return _cancelled ? null : _rows[(int) (_published % _rows.length)];
+    }
+
+    /**
+     * pass the row claimed last on to the consumer.
+     */
+    public synchronized void publish() {
+        ++_published;
+        notifyAll();
+    }
+
+    /**
+     * no more rows are published; the consumer takes the remaining ones and then gets null.
+     */
+    public synchronized void close() {
+        _closed = true;
+        notifyAll();
+    }
+
+    /**
+     * the next row published; waits for it. Returns null, if the ring has been closed and all rows have been taken, or if it
+     * has been cancelled.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (_taken == _published && !_closed && !_cancelled) {
+            wait();
+        }
+        if (_cancelled || _taken == _published) {
+            return null;
+        }
+        return _rows[(int) (_taken++ % _rows.length)];
+    }
+
+    /**
+     * all rows taken so far are not needed by the consumer anymore.
+     */
+    public synchronized void release() {
+        _released = _taken;
+        notifyAll();
+    }
+
+    /**
+     * stop both sides: claim and take return null from now on.
+     */
+    public synchronized void cancel() {
+        _cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * the rows published, but not released yet; after cancel(), to free what they hold.
+     */
+    public synchronized List<T> getPending() {
+        final List<T> result = new ArrayList<T>();
+        for (long i = _released; i < _published; ++i) {
+            result.add(_rows[(int) (i % _rows.length)]);
+        }
+        return result;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
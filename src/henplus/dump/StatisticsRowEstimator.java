@@ -0,0 +1,114 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Estimates the number of rows of a table from the statistics the database keeps for its optimizer. The first choice are the
+ * index statistics of the JDBC driver, requested as approximate ones: the cardinality of the table statistic row, or else of
+ * the largest unique index. If the driver has none, the row count kept in the catalog of a few well known databases is
+ * used. Both are only as accurate as the last time the statistics were gathered.
+ */
+public class StatisticsRowEstimator implements RowEstimator {
+
+    /**
+     * product name prefix, query with schema, query for the default schema. Each query returns the estimated number of rows
+     * as its only value; the table name is the last parameter.
+     */
+    private static final String[][] CATALOG_QUERIES = {
+            { "PostgreSQL",
+                    "SELECT c.reltuples FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace"
+                            + " WHERE n.nspname = ? AND c.relname = ?",
+                    "SELECT reltuples FROM pg_class WHERE oid = to_regclass(?)" },
+            { "MySQL", "SELECT table_rows FROM information_schema.tables WHERE table_schema = ? AND table_name = ?",
+                    "SELECT table_rows FROM information_schema.tables WHERE table_schema = database() AND table_name = ?" },
+            { "MariaDB", "SELECT table_rows FROM information_schema.tables WHERE table_schema = ? AND table_name = ?",
+                    "SELECT table_rows FROM information_schema.tables WHERE table_schema = database() AND table_name = ?" },
+            { "Oracle", "SELECT num_rows FROM all_tables WHERE owner = ? AND table_name = ?",
+                    "SELECT num_rows FROM user_tables WHERE table_name = ?" } };
+
+    @Override
+    public long estimateRows(final Connection conn, final String schema, final String table) throws SQLException {
+        final DatabaseMetaData meta = conn.getMetaData();
+        long result;
+        try {
+            result = estimateFromIndexInfo(meta, conn.getCatalog(), schema, table);
+        } catch (final SQLException e) {
+            // not supported by the driver.
+            result = -1;
+        }
+        if (result < 0) {
+            result = estimateFromCatalog(conn, meta.getDatabaseProductName(), schema, table);
+        }
+        return result;
+    }
+
+    private long estimateFromIndexInfo(final DatabaseMetaData meta, final String catalog, final String schema,
+            final String table) throws SQLException {
+        final ResultSet rset = meta.getIndexInfo(catalog, schema, table, false, true);
+        if (rset == null) {
+            return -1;
+        }
+        long uniqueCardinality = -1;
+        try {
+            while (rset.next()) {
+                final long cardinality = rset.getLong(11);
+                if (rset.wasNull()) {
+                    continue;
+                }
+                if (rset.getShort(7) == DatabaseMetaData.tableIndexStatistic) {
+                    return cardinality;
+                }
+                // a unique index has as many distinct values as the table has rows.
+                if (!rset.getBoolean(4) && cardinality > uniqueCardinality) {
+                    uniqueCardinality = cardinality;
+                }
+            }
+        } finally {
+            rset.close();
+        }
+        // drivers without statistics report a cardinality of 0.
+        return uniqueCardinality > 0 ? uniqueCardinality : -1;
+    }
+
+    private long estimateFromCatalog(final Connection conn, final String productName, final String schema,
+            final String table) throws SQLException {
+        if (productName == null) {
+            return -1;
+        }
+        for (final String[] query : CATALOG_QUERIES) {
+            if (!productName.startsWith(query[0])) {
+                continue;
+            }
+            final PreparedStatement stmt = conn.prepareStatement(schema != null ? query[1] : query[2]);
+            try {
+                int param = 1;
+                if (schema != null) {
+                    stmt.setString(param++, schema);
+                }
+                stmt.setString(param, table);
+                final ResultSet rset = stmt.executeQuery();
+                if (!rset.next()) {
+                    return -1;
+                }
+                final long result = rset.getLong(1);
+                // tables never analyzed have no or a negative row count.
+                return rset.wasNull() || result < 0 ? -1 : result;
+            } finally {
+                stmt.close();
+            }
+        }
+        return -1;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,367 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL) get a copy from <http://www.gnu.org/licenses/gpl.html>
+ */
+package henplus.dump;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the rows of a referentially closed subset of a database for dump-subset: the rows of a root table selected by
+ * a where clause, the rows referencing them and the rows these reference, following the foreign keys of the tables. Rows
+ * are identified by their primary key, that must be a single column of integers; tables without such a key are not
+ * followed.
+ * <p>
+ * Rows referencing the rows of the subset are added up to a maximum depth, counted from the root rows. Rows referenced by
+ * a row of the subset are always added, whatever the depth, so that the subset can be loaded without violating a foreign
+ * key. The rows referencing rows that were only added as referenced rows are not followed; otherwise, every row sharing a
+ * referenced row would be pulled in.
+ * <p>
+ * The tables are visited breadth-first, one step at a time with {@link #step()}. Each step looks up the keys it needs with
+ * queries of up to {@link #IN_LIST_SIZE} keys in an IN (..) list.
+ */
+public class SubsetCollector {
+
+    /**
+     * the most keys in one IN (..) list; Oracle does not allow more.
+     */
+    public static final int IN_LIST_SIZE = 1000;
+
+    private final Connection _conn;
+    private final int _maxDepth;
+    private final Map<String, Node> _nodes;
+    private final LinkedList<Step> _steps;
+    private long _queries;
+
+    /**
+     * A table and the keys of its rows collected so far.
+     */
+    private static final class Node {
+
+        private final String _table;
+        private final String _keyColumn;
+        private final LongKeySet _keys;
+        private final List<Reference> _parents;
+        private final List<Reference> _children;
+        private final List<String> _unfollowed;
+
+        Node(final String table, final String keyColumn) {
+            _table = table;
+            _keyColumn = keyColumn;
+            _keys = new LongKeySet();
+            _parents = new ArrayList<Reference>();
+            _children = new ArrayList<Reference>();
+            _unfollowed = new ArrayList<String>();
+        }
+    }
+
+    /**
+     * A foreign key column of one table referencing the primary key of another.
+     */
+    private static final class Reference {
+
+        private final Node _from;
+        private final String _column;
+        private final Node _to;
+
+        Reference(final Node from, final String column, final Node to) {
+            _from = from;
+            _column = column;
+            _to = to;
+        }
+    }
+
+    /**
+     * Keys just added to a table, whose references are still to be followed.
+     */
+    private static final class Step {
+
+        private final Node _node;
+        private final long[] _keys;
+        private final int _depth;
+        private final boolean _followReferencing;
+
+        Step(final Node node, final long[] keys, final int depth, final boolean followReferencing) {
+            _node = node;
+            _keys = keys;
+            _depth = depth;
+            _followReferencing = followReferencing;
+        }
+    }
+
+    /**
+     * @param maxDepth
+     *            how far referencing rows are followed from the root rows; 0 adds only the rows they reference.
+     */
+    public SubsetCollector(final Connection conn, final int maxDepth) {
+        _conn = conn;
+        _maxDepth = maxDepth;
+        _nodes = new LinkedHashMap<String, Node>();
+        _steps = new LinkedList<Step>();
+    }
+
+    /**
+     * add a table of the database.
+     *
+     * @param keyColumn
+     *            the primary key column; null, if the table has none or a key of several columns.
+     */
+    public void addTable(final String table, final String keyColumn) throws SQLException {
+        // only a key of integer values fits into the key set.
+        final String key = keyColumn != null && isIntegerColumn(table, keyColumn) ? keyColumn : null;
+        _nodes.put(table, new Node(table, key));
+    }
+
+    /**
+     * add a foreign key of a single column. It is only followed, if both tables are followed and it references the primary
+     * key of the other table; otherwise, it is reported by {@link #getUnfollowedReferences(String)}.
+     */
+    public void addReference(final String table, final String column, final String referencedTable,
+            final String referencedColumn) {
+        final Node from = getNode(table);
+        final Node to = getNode(referencedTable);
+        if (from != null && from._keyColumn == null) {
+            // the rows of the table are never collected, so the rows referencing the subset are missing.
+            if (to != null) {
+                to._unfollowed.add(table + "." + column + " -> " + referencedTable);
+            }
+            return;
+        }
+        if (from == null) {
+            return;
+        }
+        if (to == null || to._keyColumn == null || !to._keyColumn.equalsIgnoreCase(referencedColumn)) {
+            from._unfollowed.add(column + " -> " + referencedTable);
+            return;
+        }
+        final Reference reference = new Reference(from, column, to);
+        from._parents.add(reference);
+        to._children.add(reference);
+    }
+
+    /**
+     * add a foreign key that is not followed at all, like one of several columns, so that it is reported by
+     * {@link #getUnfollowedReferences(String)}.
+     *
+     * @param reference
+     *            the foreign key, as 'name -> referenced table'.
+     */
+    public void addUnfollowedReference(final String table, final String reference) {
+        final Node node = getNode(table);
+        if (node != null) {
+            node._unfollowed.add(reference);
+        }
+    }
+
+    /**
+     * select the root rows, the first step of the subset.
+     */
+    public void start(final String table, final String whereClause) throws SQLException {
+        final Node root = getNode(table);
+        if (root == null) {
+            throw new SQLException("table '" + table + "' not found");
+        }
+        if (root._keyColumn == null) {
+            throw new SQLException("table '" + root._table + "' has no primary key of a single integer column");
+        }
+        final LongKeySet keys = new LongKeySet();
+        final Statement stmt = _conn.createStatement();
+        try {
+            readKeys(stmt.executeQuery("SELECT " + root._keyColumn + " FROM " + root._table
+                    + (whereClause != null ? " WHERE " + whereClause : "")), keys);
+            ++_queries;
+        } finally {
+            stmt.close();
+        }
+        addSteps(root, keys.toSortedArray(), 0, true);
+    }
+
+    /**
+     * follow the references of the rows added last. Returns false, if the subset is complete.
+     */
+    public boolean step() throws SQLException {
+        final Step step = _steps.poll();
+        if (step == null) {
+            return false;
+        }
+        final Node node = step._node;
+        for (final Reference reference : node._parents) {
+            final Node parent = reference._to;
+            addSteps(parent, select(reference._column, node._table, node._keyColumn, step._keys), step._depth, false);
+        }
+        if (step._followReferencing && step._depth < _maxDepth) {
+            for (final Reference reference : node._children) {
+                final Node child = reference._from;
+                addSteps(child, select(child._keyColumn, child._table, reference._column, step._keys), step._depth + 1,
+                        true);
+            }
+        }
+        return !_steps.isEmpty();
+    }
+
+    /**
+     * the tables with rows in the subset.
+     */
+    public List<String> getTables() {
+        final List<String> result = new ArrayList<String>();
+        for (final Node node : _nodes.values()) {
+            if (!node._keys.isEmpty()) {
+                result.add(node._table);
+            }
+        }
+        return result;
+    }
+
+    public String getKeyColumn(final String table) {
+        final Node node = getNode(table);
+        return node != null ? node._keyColumn : null;
+    }
+
+    /**
+     * the primary keys of the rows of the table in the subset.
+     */
+    public LongKeySet getKeys(final String table) {
+        final Node node = getNode(table);
+        return node != null ? node._keys : new LongKeySet();
+    }
+
+    /**
+     * the foreign keys of the table that are not followed, as 'column -> table'. The rows they reference are missing in the
+     * subset; for a foreign key of a table without a key of a single integer column, given as 'table.column -> table', the
+     * rows referencing the subset are.
+     */
+    public List<String> getUnfollowedReferences(final String table) {
+        final Node node = getNode(table);
+        return node != null ? node._unfollowed : new ArrayList<String>();
+    }
+
+    /**
+     * the number of queries run so far.
+     */
+    public long getQueries() {
+        return _queries;
+    }
+
+    private Node getNode(final String table) {
+        final Node node = _nodes.get(table);
+        if (node != null) {
+            return node;
+        }
+        for (final Node other : _nodes.values()) {
+            if (other._table.equalsIgnoreCase(table)) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * add the keys to the table; those not in it yet are followed in a later step.
+     */
+    private void addSteps(final Node node, final long[] keys, final int depth, final boolean followReferencing) {
+        final long[] added = new long[keys.length];
+        int count = 0;
+        for (final long key : keys) {
+            if (node._keys.add(key)) {
+                added[count++] = key;
+            }
+        }
+        if (count > 0) {
+            final long[] stepKeys = new long[count];
+            System.arraycopy(added, 0, stepKeys, 0, count);
+            _steps.add(new Step(node, stepKeys, depth, followReferencing));
+        }
+    }
+
+    /**
+     * the distinct values of a column, that are not null, of the rows whose column 'where' has one of the given values.
+     */
+    private long[] select(final String column, final String table, final String where, final long[] values)
+            throws SQLException {
+        final LongKeySet result = new LongKeySet();
+        final Statement stmt = _conn.createStatement();
+        try {
+            final StringBuilder sql = new StringBuilder();
+            for (int start = 0; start < values.length; start += IN_LIST_SIZE) {
+                final int end = Math.min(values.length, start + IN_LIST_SIZE);
+                sql.setLength(0);
+                sql.append("SELECT ").append(column).append(" FROM ").append(table);
+                appendInList(sql.append(" WHERE "), where, values, start, end);
+                readKeys(stmt.executeQuery(sql.toString()), result);
+                ++_queries;
+            }
+        } finally {
+            stmt.close();
+        }
+        return result.toSortedArray();
+    }
+
+    /**
+     * append 'column IN (..)' with the given range of values.
+     */
+    public static StringBuilder appendInList(final StringBuilder sql, final String column, final long[] values,
+            final int start, final int end) {
+        sql.append(column).append(" IN (");
+        for (int i = start; i < end; ++i) {
+            if (i > start) {
+                sql.append(',');
+            }
+            sql.append(values[i]);
+        }
+        return sql.append(')');
+    }
+
+    private static void readKeys(final ResultSet rset, final LongKeySet keys) throws SQLException {
+        try {
+            while (rset.next()) {
+                final long key = rset.getLong(1);
+                if (!rset.wasNull()) {
+                    keys.add(key);
+                }
+            }
+        } finally {
+            rset.close();
+        }
+    }
+
+    private boolean isIntegerColumn(final String table, final String column) throws SQLException {
+        final DatabaseMetaData meta = _conn.getMetaData();
+        final ResultSet rset = meta.getColumns(_conn.getCatalog(), null, table, column);
+        try {
+            while (rset.next()) {
+                if (!column.equalsIgnoreCase(rset.getString(4))) {
+                    continue;
+                }
+                switch (rset.getInt(5)) {
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                        return true;
+                    case Types.NUMERIC:
+                    case Types.DECIMAL:
+                        return rset.getInt(9) == 0; // no decimal digits.
+                    default:
+                        return false;
+                }
+            }
+            return false;
+        } finally {
+            rset.close();
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
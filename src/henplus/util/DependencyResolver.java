@@ -102,7 +102,7 @@ public final class DependencyResolver {
         // unresolved = cleanUnresolved( resolved, unresolved );
 
         // add all unresolved/conflicting tables to the resulting list
-        final Collection<Table> result = resolved.values();
+        final Collection<Table> result = new ArrayList<Table>(resolved.values());
         if (unresolved != null) {
             for (Table table : unresolved.values()) {
                 if (!result.contains(table)) {